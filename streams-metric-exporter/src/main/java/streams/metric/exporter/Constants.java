@@ -41,7 +41,27 @@ public class Constants {
 		ENV_SERVER_KEYSTORE = "STREAMS_EXPORTER_SERVER_KEYSTORE",
 		ENV_SERVER_KEYSTORE_PWD = "STREAMS_EXPORTER_SERVER_KEYSTORE_PWD",
 		ENV_LOGLEVEL = "STREAMS_EXPORTER_LOGLEVEL",
-		ENV_LOGDIR = "STREAMS_EXPORTER_LOGDIR"
+		ENV_LOGDIR = "STREAMS_EXPORTER_LOGDIR",
+		ENV_REFRESH_THREADS = "STREAMS_EXPORTER_REFRESH_THREADS",
+		ENV_JOB_THREADS = "STREAMS_EXPORTER_JOB_THREADS",
+		ENV_RESOURCE_ROLE_TTL = "STREAMS_EXPORTER_RESOURCE_ROLE_TTL",
+		ENV_HTTP_CONNECT_TIMEOUT = "STREAMS_EXPORTER_HTTP_CONNECT_TIMEOUT",
+		ENV_HTTP_READ_TIMEOUT = "STREAMS_EXPORTER_HTTP_READ_TIMEOUT",
+		ENV_HTTP_MAX_CONNECTIONS = "STREAMS_EXPORTER_HTTP_MAX_CONNECTIONS",
+		ENV_REFRESH_MAX_AGE = "STREAMS_EXPORTER_REFRESH_MAX_AGE",
+		ENV_REFRESH_MODE = "STREAMS_EXPORTER_REFRESH_MODE",
+		ENV_REFRESH_JITTER = "STREAMS_EXPORTER_REFRESH_JITTER",
+		ENV_INSTANCE_REFRESH_RATES = "STREAMS_EXPORTER_INSTANCE_REFRESH_RATES",
+		ENV_SNAPSHOT_INTERVAL = "STREAMS_EXPORTER_SNAPSHOT_INTERVAL",
+		ENV_RESOURCE_INTERVAL = "STREAMS_EXPORTER_RESOURCE_INTERVAL",
+		ENV_SNAPSHOT_DEPTH = "STREAMS_EXPORTER_SNAPSHOT_DEPTH",
+		ENV_SNAPSHOT_STATIC = "STREAMS_EXPORTER_SNAPSHOT_STATIC",
+		ENV_METRIC_FILTERS = "STREAMS_EXPORTER_METRIC_FILTERS",
+		ENV_JOB_FILTER = "STREAMS_EXPORTER_JOB_FILTER",
+		ENV_JOB_SERIES_BUDGET = "STREAMS_EXPORTER_JOB_SERIES_BUDGET",
+		ENV_INSTANCE_SERIES_BUDGET = "STREAMS_EXPORTER_INSTANCE_SERIES_BUDGET",
+		ENV_AGGREGATIONS = "STREAMS_EXPORTER_AGGREGATIONS",
+		ENV_RATES = "STREAMS_EXPORTER_RATES"
 	;
 	
 
@@ -65,7 +85,27 @@ public class Constants {
 		DEFAULT_SERVER_KEYSTORE = null,
 		DEFAULT_SERVER_KEYSTORE_PWD = null,
 		DEFAULT_LOGLEVEL = "info",
-		DEFAULT_LOGDIR = ""
+		DEFAULT_LOGDIR = "",
+		DEFAULT_REFRESH_THREADS = "4",
+		DEFAULT_JOB_THREADS = "1",
+		DEFAULT_RESOURCE_ROLE_TTL = "300",
+		DEFAULT_HTTP_CONNECT_TIMEOUT = "10",
+		DEFAULT_HTTP_READ_TIMEOUT = "0",
+		DEFAULT_HTTP_MAX_CONNECTIONS = "16",
+		DEFAULT_REFRESH_MAX_AGE = "0",
+		DEFAULT_REFRESH_MODE = "fixedrate",
+		DEFAULT_REFRESH_JITTER = "0",
+		DEFAULT_INSTANCE_REFRESH_RATES = "",
+		DEFAULT_SNAPSHOT_INTERVAL = "0",
+		DEFAULT_RESOURCE_INTERVAL = "0",
+		DEFAULT_SNAPSHOT_DEPTH = "99",
+		DEFAULT_SNAPSHOT_STATIC = "true",
+		DEFAULT_METRIC_FILTERS = "",
+		DEFAULT_JOB_FILTER = "",
+		DEFAULT_JOB_SERIES_BUDGET = "0",
+		DEFAULT_INSTANCE_SERIES_BUDGET = "0",
+		DEFAULT_AGGREGATIONS = "",
+		DEFAULT_RATES = ""
 	;
 	
 	public static final String indent = "       ";
@@ -93,13 +133,48 @@ public class Constants {
 		DESC_SERVER_KEYSTORE = "Java keystore containing server certificate and key to identify server side of this application\n      Environment Variable: " + ENV_SERVER_KEYSTORE,
 		DESC_SERVER_KEYSTORE_PWD = "Passphrase to java keystore.  Passphrase of keystore and key (if it has one) must match\n      Environment Variable: " + ENV_SERVER_KEYSTORE_PWD,
 		DESC_LOGLEVEL = "Logging level [ fatal | error | warn | info | debug | trace ]\n      Environment Variable: " + ENV_LOGLEVEL,
-		DESC_LOGDIR = "Logging direcotry.  If not set or empty log to stdout.\n     Environment Variable: " + ENV_LOGDIR
+		DESC_LOGDIR = "Logging direcotry.  If not set or empty log to stdout.\n     Environment Variable: " + ENV_LOGDIR,
+		DESC_REFRESH_THREADS = "Number of threads used to refresh streams instances concurrently\n      Environment Variable: " + ENV_REFRESH_THREADS,
+		DESC_JOB_THREADS = "Number of threads used to process the jobs of an instance in parallel, 1 processes jobs on the refresh thread\n      Environment Variable: " + ENV_JOB_THREADS,
+		DESC_RESOURCE_ROLE_TTL = "Seconds resource roles are cached before they are retrieved again, 0 retrieves them every refresh\n      Environment Variable: " + ENV_RESOURCE_ROLE_TTL,
+		DESC_HTTP_CONNECT_TIMEOUT = "Seconds to wait for a connection to the Streams JMX HTTP server, 0 waits forever\n      Environment Variable: " + ENV_HTTP_CONNECT_TIMEOUT,
+		DESC_HTTP_READ_TIMEOUT = "Seconds to wait for data from the Streams JMX HTTP server, 0 waits forever (default, as before this option).  60 is recommended unless deep snapshots of large instances take longer to retrieve\n      Environment Variable: " + ENV_HTTP_READ_TIMEOUT,
+		DESC_HTTP_MAX_CONNECTIONS = "Number of idle connections to the Streams JMX HTTP server kept alive for reuse\n      Environment Variable: " + ENV_HTTP_MAX_CONNECTIONS,
+		DESC_REFRESH_MAX_AGE = "With no automatic refresh, milliseconds a completed refresh is used to answer requests before another refresh is made\n      Environment Variable: " + ENV_REFRESH_MAX_AGE,
+		DESC_REFRESH_MODE = "Automatic refresh schedule [ fixedrate | fixeddelay ].  fixedrate skips the cycles missed while a refresh runs long, fixeddelay waits the refresh rate after each refresh\n      Environment Variable: " + ENV_REFRESH_MODE,
+		DESC_REFRESH_JITTER = "Maximum random delay in milliseconds added to each automatic refresh\n      Environment Variable: " + ENV_REFRESH_JITTER,
+		DESC_INSTANCE_REFRESH_RATES = "Comma separated list of instance=seconds for instances refreshed less often than the refresh rate (e.g. StreamsInstance=60)\n      Environment Variable: " + ENV_INSTANCE_REFRESH_RATES,
+		DESC_SNAPSHOT_INTERVAL = "Seconds between retrievals of job snapshots (status, health and topology), 0 retrieves them every refresh.  Snapshots are also retrieved when the jobs or PEs in the metrics change, and for single jobs when the instance notifies that they were added or changed.  With --rates the shallow snapshot is retrieved every refresh, so rates see pe restarts\n      Environment Variable: " + ENV_SNAPSHOT_INTERVAL,
+		DESC_RESOURCE_INTERVAL = "Seconds between retrievals of resource metrics and status, 0 retrieves them every refresh\n      Environment Variable: " + ENV_RESOURCE_INTERVAL,
+		DESC_SNAPSHOT_DEPTH = "Maximum depth of the job snapshots retrieved for new and changed jobs, unchanged jobs are checked with a shallow snapshot\n      Environment Variable: " + ENV_SNAPSHOT_DEPTH,
+		DESC_SNAPSHOT_STATIC = "Include static attributes (operator and port names) in the job snapshots retrieved for new and changed jobs, true or false\n      Environment Variable: " + ENV_SNAPSHOT_STATIC,
+		DESC_METRIC_FILTERS = "Semicolon separated list of allow|deny:type:metric[:job] rules applied to job, pe and operator metrics before they are exported (e.g. deny:operator_inputport:*;deny:pe_op_connection:*:test_*).  type is an object type or metric prefix such as pe, operator_op or *, metric and job are globs or /regular expressions/.  The first matching rule decides, metrics no rule matches are exported\n      Environment Variable: " + ENV_METRIC_FILTERS,
+		DESC_JOB_FILTER = "Semicolon separated list of [instance:]name=pattern and [instance:]group=pattern entries of the jobs to track (e.g. name=prod_*;StreamsInstance:group=analytics).  Patterns are globs or /regular expressions/.  Snapshots and metrics are only retrieved for matching jobs, instances without entries track all jobs\n      Environment Variable: " + ENV_JOB_FILTER,
+		DESC_JOB_SERIES_BUDGET = "Maximum number of series exported for each job, 0 for no limit. Once a job asks for more, operator ports are dropped first, then operators, pe output port connections, pe ports and pes, job series are always exported.\n      Environment Variable: " + ENV_JOB_SERIES_BUDGET,
+		DESC_INSTANCE_SERIES_BUDGET = "Maximum number of series exported for the jobs of each instance, 0 for no limit. Object types are dropped from all jobs of the instance in the same order as for --jobseriesbudget.\n      Environment Variable: " + ENV_INSTANCE_SERIES_BUDGET,
+		DESC_AGGREGATIONS = "Semicolon separated list of function:type:metric[:label,label...] rules that aggregate pe and operator metrics of each job while they are processed (e.g. sum:operator_ip:nTuplesProcessed:operatorkind;max:operator_ip:queueSize).  function is sum, min, max, avg or count, type is a pe or operator object type or metric prefix, metric is a glob or /regular expression/.  Aggregates are exported as streams_job_function_metric, or streams_job_group_function_metric with groupby and group labels when labels are given.  Rules exporting the same series as an earlier rule are rejected, whatever object type they aggregate\n      Environment Variable: " + ENV_AGGREGATIONS,
+		DESC_RATES = "Comma separated list of cumulative pe and operator metrics to export per second rates for (e.g. nTuplesProcessed,nTuplesSubmitted,nCpuMilliseconds).  Names are globs or /regular expressions/.  Rates are computed from the previous value of each series and exported as rate_metric (e.g. streams_operator_ip_rate_nTuplesProcessed), no rate is exported for the first sample of a series or after its pe restarted\n      Environment Variable: " + ENV_RATES
 	;
 	
 	public static final String
 	    INVALID_SERVER_PROTOCOL = "%s is not a valid protocol.  Valid values include [http|https]",
 	    INVALID_REFRESHRATE = "%s is not a valid refresh rate.  Must be positive integer or 0 for no automatic refresh",
-	    INVALID_LOGLEVEL = "%s is not a valid loglevel.  Valid values include [ fatal | error | warn | info | debug | trace ]"
+	    INVALID_LOGLEVEL = "%s is not a valid loglevel.  Valid values include [ fatal | error | warn | info | debug | trace ]",
+	    INVALID_THREADS = "%s is not a valid number of threads.  Must be a positive integer",
+	    INVALID_CACHE_TTL = "%s is not a valid cache time to live.  Must be positive integer or 0 for no caching",
+	    INVALID_TIMEOUT = "%s is not a valid timeout.  Must be positive integer or 0 for no timeout",
+	    INVALID_CONNECTIONS = "%s is not a valid number of connections.  Must be a positive integer",
+	    INVALID_MAX_AGE = "%s is not a valid maximum age.  Must be positive integer or 0 to refresh for every request",
+	    INVALID_REFRESH_MODE = "%s is not a valid refresh mode.  Valid values include [ fixedrate | fixeddelay ]",
+	    INVALID_JITTER = "%s is not a valid jitter.  Must be positive integer or 0 for no jitter",
+	    INVALID_INSTANCE_REFRESH_RATES = "%s is not a valid instance refresh rate.  Must be instance=seconds with seconds a positive integer",
+	    INVALID_INTERVAL = "%s is not a valid interval.  Must be positive integer or 0 for every refresh",
+	    INVALID_SNAPSHOT_DEPTH = "%s is not a valid snapshot depth.  Must be a positive integer",
+	    INVALID_METRIC_FILTER = "%s is not a valid metric filter rule.  Must be allow|deny:type:metric[:job] (%s)",
+	    INVALID_JOB_FILTER = "%s is not a valid job filter entry.  Must be [instance:]name=pattern or [instance:]group=pattern (%s)",
+	    INVALID_SERIES_BUDGET = "%s is not a valid series budget.  Must be 0 or a positive integer",
+	    INVALID_AGGREGATION_RULE = "%s is not a valid aggregation rule.  Must be sum|min|max|avg|count:type:metric[:label,label...] (%s)",
+	    INVALID_RATE_METRIC = "%s is not a valid rate metric name.  Must be a metric name, glob or /regular expression/ (%s)"
 	;
 	
 	public static final int NO_REFRESH = 0;
@@ -118,7 +118,12 @@ public class Launcher {
 			}
 		}
 
-		webClient = new WebClientImpl(config.getSslOption(), trustManagers);
+		// The JDK keep-alive cache reads this once, when the first connection is made
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(config.getHttpMaxConnections()));
+		}
+		webClient = new WebClientImpl(config.getSslOption(), trustManagers,
+				config.getHttpConnectTimeout() * 1000, config.getHttpReadTimeout() * 1000);
 
 		this.jmxContext = new JmxServiceContext() {
 			public MXBeanSourceProvider getBeanSourceProvider() {
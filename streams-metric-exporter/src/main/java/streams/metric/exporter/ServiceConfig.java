@@ -17,7 +17,10 @@
 package streams.metric.exporter;
 
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.beust.jcommander.JCommander;
@@ -30,12 +33,23 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import streams.metric.exporter.cli.ServerProtocolValidator;
 import streams.metric.exporter.cli.InstanceListConverter;
+import streams.metric.exporter.cli.InstanceRefreshRatesConverter;
+import streams.metric.exporter.cli.JobTrackingFilterConverter;
+import streams.metric.exporter.cli.MetricFiltersConverter;
+import streams.metric.exporter.cli.AggregationRulesConverter;
+import streams.metric.exporter.cli.RateMetricsConverter;
+import streams.metric.exporter.cli.RefreshModeValidator;
+import streams.metric.exporter.metrics.MetricAggregation;
+import streams.metric.exporter.metrics.MetricFilter;
+import streams.metric.exporter.streamstracker.RefreshScheduler;
+import streams.metric.exporter.streamstracker.job.JobTrackingFilter;
 import streams.metric.exporter.cli.LoglevelValidator;
 import streams.metric.exporter.rest.Protocol;
 import streams.metric.exporter.cli.FileExistsValidator;
 import streams.metric.exporter.cli.DirectoryExistsValidator;
 import streams.metric.exporter.cli.RefreshRateValidator;
 import streams.metric.exporter.cli.ServerProtocolConverter;
+import streams.metric.exporter.cli.ThreadCountValidator;
 
 public class ServiceConfig {
 	
@@ -128,6 +142,66 @@ public class ServiceConfig {
     @Parameter(names = "--logdir", description = Constants.DESC_LOGDIR, required = false, validateWith = DirectoryExistsValidator.class)
     private String logdir = getEnvDefault(Constants.ENV_LOGDIR, Constants.DEFAULT_LOGDIR);
     
+    @Parameter(names = "--refreshthreads", description = Constants.DESC_REFRESH_THREADS, required = false)
+    private int refreshThreads = Integer.parseInt(getEnvDefault(Constants.ENV_REFRESH_THREADS,Constants.DEFAULT_REFRESH_THREADS));
+    
+    @Parameter(names = "--jobthreads", description = Constants.DESC_JOB_THREADS, required = false)
+    private int jobThreads = Integer.parseInt(getEnvDefault(Constants.ENV_JOB_THREADS,Constants.DEFAULT_JOB_THREADS));
+    
+    @Parameter(names = "--resourcerolettl", description = Constants.DESC_RESOURCE_ROLE_TTL, required = false)
+    private int resourceRoleTtl = Integer.parseInt(getEnvDefault(Constants.ENV_RESOURCE_ROLE_TTL,Constants.DEFAULT_RESOURCE_ROLE_TTL));
+    
+    @Parameter(names = "--httpconnecttimeout", description = Constants.DESC_HTTP_CONNECT_TIMEOUT, required = false)
+    private int httpConnectTimeout = Integer.parseInt(getEnvDefault(Constants.ENV_HTTP_CONNECT_TIMEOUT,Constants.DEFAULT_HTTP_CONNECT_TIMEOUT));
+    
+    @Parameter(names = "--httpreadtimeout", description = Constants.DESC_HTTP_READ_TIMEOUT, required = false)
+    private int httpReadTimeout = Integer.parseInt(getEnvDefault(Constants.ENV_HTTP_READ_TIMEOUT,Constants.DEFAULT_HTTP_READ_TIMEOUT));
+    
+    @Parameter(names = "--httpmaxconnections", description = Constants.DESC_HTTP_MAX_CONNECTIONS, required = false)
+    private int httpMaxConnections = Integer.parseInt(getEnvDefault(Constants.ENV_HTTP_MAX_CONNECTIONS,Constants.DEFAULT_HTTP_MAX_CONNECTIONS));
+    
+    @Parameter(names = "--refreshmaxage", description = Constants.DESC_REFRESH_MAX_AGE, required = false)
+    private long refreshMaxAge = Long.parseLong(getEnvDefault(Constants.ENV_REFRESH_MAX_AGE,Constants.DEFAULT_REFRESH_MAX_AGE));
+    
+    @Parameter(names = "--refreshmode", description = Constants.DESC_REFRESH_MODE, required = false)
+    private String refreshMode = getEnvDefault(Constants.ENV_REFRESH_MODE,Constants.DEFAULT_REFRESH_MODE);
+    
+    @Parameter(names = "--refreshjitter", description = Constants.DESC_REFRESH_JITTER, required = false)
+    private long refreshJitter = Long.parseLong(getEnvDefault(Constants.ENV_REFRESH_JITTER,Constants.DEFAULT_REFRESH_JITTER));
+    
+    @Parameter(names = "--instancerefreshrates", description = Constants.DESC_INSTANCE_REFRESH_RATES, required = false)
+    private String instanceRefreshRates = getEnvDefault(Constants.ENV_INSTANCE_REFRESH_RATES,Constants.DEFAULT_INSTANCE_REFRESH_RATES);
+    
+    @Parameter(names = "--snapshotinterval", description = Constants.DESC_SNAPSHOT_INTERVAL, required = false)
+    private int snapshotInterval = Integer.parseInt(getEnvDefault(Constants.ENV_SNAPSHOT_INTERVAL,Constants.DEFAULT_SNAPSHOT_INTERVAL));
+    
+    @Parameter(names = "--resourceinterval", description = Constants.DESC_RESOURCE_INTERVAL, required = false)
+    private int resourceInterval = Integer.parseInt(getEnvDefault(Constants.ENV_RESOURCE_INTERVAL,Constants.DEFAULT_RESOURCE_INTERVAL));
+    
+    @Parameter(names = "--snapshotdepth", description = Constants.DESC_SNAPSHOT_DEPTH, required = false)
+    private int snapshotDepth = Integer.parseInt(getEnvDefault(Constants.ENV_SNAPSHOT_DEPTH,Constants.DEFAULT_SNAPSHOT_DEPTH));
+    
+    @Parameter(names = "--snapshotstatic", description = Constants.DESC_SNAPSHOT_STATIC, arity = 1, required = false)
+    private boolean snapshotStatic = Boolean.parseBoolean(getEnvDefault(Constants.ENV_SNAPSHOT_STATIC,Constants.DEFAULT_SNAPSHOT_STATIC));
+    
+    @Parameter(names = "--metricfilters", description = Constants.DESC_METRIC_FILTERS, required = false)
+    private String metricFilters = getEnvDefault(Constants.ENV_METRIC_FILTERS,Constants.DEFAULT_METRIC_FILTERS);
+    
+    @Parameter(names = "--jobfilter", description = Constants.DESC_JOB_FILTER, required = false)
+    private String jobFilter = getEnvDefault(Constants.ENV_JOB_FILTER,Constants.DEFAULT_JOB_FILTER);
+    
+    @Parameter(names = "--jobseriesbudget", description = Constants.DESC_JOB_SERIES_BUDGET, required = false)
+    private int jobSeriesBudget = Integer.parseInt(getEnvDefault(Constants.ENV_JOB_SERIES_BUDGET,Constants.DEFAULT_JOB_SERIES_BUDGET));
+    
+    @Parameter(names = "--instanceseriesbudget", description = Constants.DESC_INSTANCE_SERIES_BUDGET, required = false)
+    private int instanceSeriesBudget = Integer.parseInt(getEnvDefault(Constants.ENV_INSTANCE_SERIES_BUDGET,Constants.DEFAULT_INSTANCE_SERIES_BUDGET));
+    
+    @Parameter(names = "--aggregations", description = Constants.DESC_AGGREGATIONS, required = false)
+    private String aggregations = getEnvDefault(Constants.ENV_AGGREGATIONS,Constants.DEFAULT_AGGREGATIONS);
+    
+    @Parameter(names = "--rates", description = Constants.DESC_RATES, required = false)
+    private String rates = getEnvDefault(Constants.ENV_RATES,Constants.DEFAULT_RATES);
+    
     
     public String getPassword(boolean hasConsole) {
         // Choose the appropriate JCommander console implementation to use
@@ -371,6 +445,204 @@ public class ServiceConfig {
 		this.logdir = logdir;
 	}
 
+	public int getRefreshThreads() {
+		return refreshThreads;
+	}
+
+	public void setRefreshThreads(int refreshThreads) {
+		this.refreshThreads = refreshThreads;
+	}
+
+	public int getJobThreads() {
+		return jobThreads;
+	}
+
+	public void setJobThreads(int jobThreads) {
+		this.jobThreads = jobThreads;
+	}
+
+	public int getResourceRoleTtl() {
+		return resourceRoleTtl;
+	}
+
+	public void setResourceRoleTtl(int resourceRoleTtl) {
+		this.resourceRoleTtl = resourceRoleTtl;
+	}
+
+	public int getHttpConnectTimeout() {
+		return httpConnectTimeout;
+	}
+
+	public void setHttpConnectTimeout(int httpConnectTimeout) {
+		this.httpConnectTimeout = httpConnectTimeout;
+	}
+
+	public int getHttpReadTimeout() {
+		return httpReadTimeout;
+	}
+
+	public void setHttpReadTimeout(int httpReadTimeout) {
+		this.httpReadTimeout = httpReadTimeout;
+	}
+
+	public int getHttpMaxConnections() {
+		return httpMaxConnections;
+	}
+
+	public void setHttpMaxConnections(int httpMaxConnections) {
+		this.httpMaxConnections = httpMaxConnections;
+	}
+
+	public long getRefreshMaxAge() {
+		return refreshMaxAge;
+	}
+
+	public void setRefreshMaxAge(long refreshMaxAge) {
+		this.refreshMaxAge = refreshMaxAge;
+	}
+
+	public String getRefreshMode() {
+		return refreshMode;
+	}
+
+	public void setRefreshMode(String refreshMode) {
+		this.refreshMode = refreshMode;
+	}
+
+	public long getRefreshJitter() {
+		return refreshJitter;
+	}
+
+	public void setRefreshJitter(long refreshJitter) {
+		this.refreshJitter = refreshJitter;
+	}
+
+	public String getInstanceRefreshRates() {
+		return instanceRefreshRates;
+	}
+
+	/* Refresh rate in seconds of instances that have their own */
+	@JsonIgnore
+	public Map<String, Integer> getInstanceRefreshRateMap() throws ParameterException {
+		return InstanceRefreshRatesConverter.convertRefreshRates(instanceRefreshRates);
+	}
+
+	@JsonIgnore
+	public RefreshScheduler.Mode getRefreshScheduleMode() throws ParameterException {
+		if (!RefreshModeValidator.isValid(refreshMode)) {
+			throw new ParameterException(String.format(Constants.INVALID_REFRESH_MODE, refreshMode));
+		}
+		return RefreshScheduler.Mode.valueOf(refreshMode.toUpperCase());
+	}
+
+	public void setInstanceRefreshRates(String instanceRefreshRates) {
+		this.instanceRefreshRates = instanceRefreshRates;
+	}
+
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	public int getResourceInterval() {
+		return resourceInterval;
+	}
+
+	public void setResourceInterval(int resourceInterval) {
+		this.resourceInterval = resourceInterval;
+	}
+
+	public int getSnapshotDepth() {
+		return snapshotDepth;
+	}
+
+	public void setSnapshotDepth(int snapshotDepth) {
+		this.snapshotDepth = snapshotDepth;
+	}
+
+	public boolean isSnapshotStatic() {
+		return snapshotStatic;
+	}
+
+	public void setSnapshotStatic(boolean snapshotStatic) {
+		this.snapshotStatic = snapshotStatic;
+	}
+
+	public String getMetricFilters() {
+		return metricFilters;
+	}
+
+	/* Rules of the metric filter, in the order they are applied */
+	@JsonIgnore
+	public List<MetricFilter.Rule> getMetricFilterRules() throws ParameterException {
+		return MetricFiltersConverter.convertMetricFilters(metricFilters);
+	}
+
+	public void setMetricFilters(String metricFilters) {
+		this.metricFilters = metricFilters;
+	}
+
+	public String getJobFilter() {
+		return jobFilter;
+	}
+
+	/* Jobs tracked for each instance */
+	@JsonIgnore
+	public JobTrackingFilter getJobTrackingFilter() throws ParameterException {
+		return JobTrackingFilterConverter.convertJobFilter(jobFilter);
+	}
+
+	public void setJobFilter(String jobFilter) {
+		this.jobFilter = jobFilter;
+	}
+
+	public int getJobSeriesBudget() {
+		return jobSeriesBudget;
+	}
+
+	public void setJobSeriesBudget(int jobSeriesBudget) {
+		this.jobSeriesBudget = jobSeriesBudget;
+	}
+
+	public int getInstanceSeriesBudget() {
+		return instanceSeriesBudget;
+	}
+
+	public void setInstanceSeriesBudget(int instanceSeriesBudget) {
+		this.instanceSeriesBudget = instanceSeriesBudget;
+	}
+
+	public String getAggregations() {
+		return aggregations;
+	}
+
+	/* Rules aggregating pe and operator metrics to their job */
+	@JsonIgnore
+	public List<MetricAggregation.Rule> getAggregationRules() throws ParameterException {
+		return AggregationRulesConverter.convertAggregationRules(aggregations);
+	}
+
+	public void setAggregations(String aggregations) {
+		this.aggregations = aggregations;
+	}
+
+	public String getRates() {
+		return rates;
+	}
+
+	/* Patterns of the metrics rates are exported for */
+	@JsonIgnore
+	public List<Pattern> getRatePatterns() throws ParameterException {
+		return RateMetricsConverter.convertRateMetrics(rates);
+	}
+
+	public void setRates(String rates) {
+		this.rates = rates;
+	}
+
 	// Validated values.  Cannot just use jcommander because we now accept environment variables
 	public Protocol getServerProtocol() throws ParameterException {
 		return ServerProtocolConverter.convertProtocol(serverProtocol);
@@ -394,6 +666,59 @@ public class ServiceConfig {
 		if (!LoglevelValidator.isValid(loglevel)) {
 			throw new ParameterException(String.format(Constants.INVALID_LOGLEVEL, loglevel));
 		}		
+		if (!ThreadCountValidator.isValid(refreshThreads)) {
+			throw new ParameterException(String.format(Constants.INVALID_THREADS, refreshThreads));
+		}
+		if (!ThreadCountValidator.isValid(jobThreads)) {
+			throw new ParameterException(String.format(Constants.INVALID_THREADS, jobThreads));
+		}
+		if (resourceRoleTtl < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_CACHE_TTL, resourceRoleTtl));
+		}
+		if (httpConnectTimeout < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_TIMEOUT, httpConnectTimeout));
+		}
+		if (httpReadTimeout < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_TIMEOUT, httpReadTimeout));
+		}
+		if (httpMaxConnections < 1) {
+			throw new ParameterException(String.format(Constants.INVALID_CONNECTIONS, httpMaxConnections));
+		}
+		if (refreshMaxAge < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_MAX_AGE, refreshMaxAge));
+		}
+		if (!RefreshModeValidator.isValid(refreshMode)) {
+			throw new ParameterException(String.format(Constants.INVALID_REFRESH_MODE, refreshMode));
+		}
+		if (refreshJitter < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_JITTER, refreshJitter));
+		}
+		// Throws ParameterException for entries that are not instance=seconds
+		InstanceRefreshRatesConverter.convertRefreshRates(instanceRefreshRates);
+		if (snapshotInterval < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_INTERVAL, snapshotInterval));
+		}
+		if (resourceInterval < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_INTERVAL, resourceInterval));
+		}
+		
+		if (snapshotDepth < 1) {
+			throw new ParameterException(String.format(Constants.INVALID_SNAPSHOT_DEPTH, snapshotDepth));
+		}
+		if (jobSeriesBudget < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_SERIES_BUDGET, jobSeriesBudget));
+		}
+		if (instanceSeriesBudget < 0) {
+			throw new ParameterException(String.format(Constants.INVALID_SERIES_BUDGET, instanceSeriesBudget));
+		}
+		// Throws ParameterException for rules that are not action:type:metric[:job]
+		MetricFiltersConverter.convertMetricFilters(metricFilters);
+		// Throws ParameterException for rules that are not function:type:metric[:label,label...]
+		AggregationRulesConverter.convertAggregationRules(aggregations);
+		// Throws ParameterException for patterns that are not valid regular expressions
+		RateMetricsConverter.convertRateMetrics(rates);
+		// Throws ParameterException for entries that are not [instance:]name|group=pattern
+		JobTrackingFilterConverter.convertJobFilter(jobFilter);
         if ((user == null || getPassword() == null) && this.getX509Cert() == null) {
             throw new ParameterException(
                     "Missing or incomplete credentials. Please select an authentication parameter (-u or -X509cert) or set environment variables: " +
@@ -481,6 +806,46 @@ public class ServiceConfig {
         result.append("loglevel: " + getLoglevel());
         result.append(newline);
         result.append("logdir: " + getLogdir());
+        result.append(newline);
+        result.append("refreshthreads: " + getRefreshThreads());
+        result.append(newline);
+        result.append("jobthreads: " + getJobThreads());
+        result.append(newline);
+        result.append("resourcerolettl: " + getResourceRoleTtl());
+        result.append(newline);
+        result.append("httpconnecttimeout: " + getHttpConnectTimeout());
+        result.append(newline);
+        result.append("httpreadtimeout: " + getHttpReadTimeout());
+        result.append(newline);
+        result.append("httpmaxconnections: " + getHttpMaxConnections());
+        result.append(newline);
+        result.append("refreshmaxage: " + getRefreshMaxAge());
+        result.append(newline);
+        result.append("refreshmode: " + getRefreshMode());
+        result.append(newline);
+        result.append("refreshjitter: " + getRefreshJitter());
+        result.append(newline);
+        result.append("instancerefreshrates: " + getInstanceRefreshRates());
+        result.append(newline);
+        result.append("snapshotinterval: " + getSnapshotInterval());
+        result.append(newline);
+        result.append("resourceinterval: " + getResourceInterval());
+        result.append(newline);
+        result.append("snapshotdepth: " + getSnapshotDepth());
+        result.append(newline);
+        result.append("snapshotstatic: " + isSnapshotStatic());
+        result.append(newline);
+        result.append("metricfilters: " + getMetricFilters());
+        result.append(newline);
+        result.append("jobfilter: " + getJobFilter());
+        result.append(newline);
+        result.append("jobseriesbudget: " + getJobSeriesBudget());
+        result.append(newline);
+        result.append("instanceseriesbudget: " + getInstanceSeriesBudget());
+        result.append(newline);
+        result.append("aggregations: " + getAggregations());
+        result.append(newline);
+        result.append("rates: " + getRates());
         return result.toString();
     }
      
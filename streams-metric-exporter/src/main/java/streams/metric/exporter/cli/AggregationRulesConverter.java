@@ -0,0 +1,59 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+
+import streams.metric.exporter.Constants;
+import streams.metric.exporter.metrics.MetricAggregation;
+
+/**
+ * IStringConverter that converts a semicolon separated list of
+ * function:type:metric[:label,label...] rules into aggregation rules.
+ */
+public class AggregationRulesConverter implements IStringConverter<List<MetricAggregation.Rule>> {
+
+    @Override
+    public List<MetricAggregation.Rule> convert(String aggregations) {
+    		return convertAggregationRules(aggregations);
+    }
+    
+    public static List<MetricAggregation.Rule> convertAggregationRules(String aggregations) throws ParameterException {
+	    	List<MetricAggregation.Rule> rules = new ArrayList<MetricAggregation.Rule>();
+	    	if (aggregations == null) {
+	    		return rules;
+	    	}
+	    	for (String entry : aggregations.split(";")) {
+	    		if (entry.trim().length() == 0) {
+	    			continue;
+	    		}
+	    		try {
+	    			MetricAggregation.Rule rule = MetricAggregation.Rule.parse(entry);
+	    			rule.checkSeries(rules);
+	    			rules.add(rule);
+	    		} catch (IllegalArgumentException e) {
+	    			// Also PatternSyntaxException, unknown function, type or label names and series of an earlier rule
+	    			throw new ParameterException(String.format(Constants.INVALID_AGGREGATION_RULE, entry, e.getMessage()));
+	    		}
+	    	}
+	    	return rules;
+    }
+}
@@ -0,0 +1,64 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+
+import streams.metric.exporter.Constants;
+
+/**
+ * IStringConverter that converts a comma separated list of instance=seconds
+ * into the refresh rate of each instance.
+ */
+public class InstanceRefreshRatesConverter implements IStringConverter<Map<String, Integer>> {
+
+    @Override
+    public Map<String, Integer> convert(String refreshRates) {
+    		return convertRefreshRates(refreshRates);
+    }
+    
+    public static Map<String, Integer> convertRefreshRates(String refreshRates) throws ParameterException {
+	    	Map<String, Integer> refreshRateMap = new HashMap<String, Integer>();
+	    	if (refreshRates == null) {
+	    		return refreshRateMap;
+	    	}
+	    	for (String entry : refreshRates.split(",")) {
+	    		if (entry.trim().length() == 0) {
+	    			continue;
+	    		}
+	    		int equals = entry.indexOf('=');
+	    		if (equals < 1) {
+	    			throw new ParameterException(String.format(Constants.INVALID_INSTANCE_REFRESH_RATES, entry));
+	    		}
+	    		String instance = entry.substring(0, equals).trim();
+	    		try {
+	    			int seconds = Integer.parseInt(entry.substring(equals + 1).trim());
+	    			if (seconds <= 0) {
+	    				throw new ParameterException(String.format(Constants.INVALID_INSTANCE_REFRESH_RATES, entry));
+	    			}
+	    			refreshRateMap.put(instance, seconds);
+	    		} catch (NumberFormatException e) {
+	    			throw new ParameterException(String.format(Constants.INVALID_INSTANCE_REFRESH_RATES, entry));
+	    		}
+	    	}
+	    	return refreshRateMap;
+    }
+}
@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+
+import streams.metric.exporter.Constants;
+import streams.metric.exporter.streamstracker.job.JobTrackingFilter;
+
+/**
+ * IStringConverter that converts a semicolon separated list of
+ * [instance:]name=pattern and [instance:]group=pattern entries into the
+ * filter of the jobs that are tracked.
+ */
+public class JobTrackingFilterConverter implements IStringConverter<JobTrackingFilter> {
+
+    @Override
+    public JobTrackingFilter convert(String jobFilter) {
+    		return convertJobFilter(jobFilter);
+    }
+    
+    public static JobTrackingFilter convertJobFilter(String jobFilter) throws ParameterException {
+	    	List<JobTrackingFilter.Entry> entries = new ArrayList<JobTrackingFilter.Entry>();
+	    	if (jobFilter != null) {
+		    	for (String entry : jobFilter.split(";")) {
+		    		if (entry.trim().length() == 0) {
+		    			continue;
+		    		}
+		    		try {
+		    			entries.add(JobTrackingFilter.Entry.parse(entry));
+		    		} catch (IllegalArgumentException e) {
+		    			// Also PatternSyntaxException
+		    			throw new ParameterException(String.format(Constants.INVALID_JOB_FILTER, entry, e.getMessage()));
+		    		}
+		    	}
+	    	}
+	    	return new JobTrackingFilter(entries);
+    }
+}
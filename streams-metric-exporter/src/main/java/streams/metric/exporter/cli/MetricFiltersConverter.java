@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+
+import streams.metric.exporter.Constants;
+import streams.metric.exporter.metrics.MetricFilter;
+
+/**
+ * IStringConverter that converts a semicolon separated list of
+ * action:type:metric[:job] rules into metric filter rules.
+ */
+public class MetricFiltersConverter implements IStringConverter<List<MetricFilter.Rule>> {
+
+    @Override
+    public List<MetricFilter.Rule> convert(String metricFilters) {
+    		return convertMetricFilters(metricFilters);
+    }
+    
+    public static List<MetricFilter.Rule> convertMetricFilters(String metricFilters) throws ParameterException {
+	    	List<MetricFilter.Rule> rules = new ArrayList<MetricFilter.Rule>();
+	    	if (metricFilters == null) {
+	    		return rules;
+	    	}
+	    	for (String entry : metricFilters.split(";")) {
+	    		if (entry.trim().length() == 0) {
+	    			continue;
+	    		}
+	    		try {
+	    			rules.add(MetricFilter.Rule.parse(entry));
+	    		} catch (IllegalArgumentException e) {
+	    			// Also PatternSyntaxException and unknown action or type names
+	    			throw new ParameterException(String.format(Constants.INVALID_METRIC_FILTER, entry, e.getMessage()));
+	    		}
+	    	}
+	    	return rules;
+    }
+}
@@ -0,0 +1,59 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+
+import streams.metric.exporter.Constants;
+import streams.metric.exporter.metrics.MetricFilter;
+
+/**
+ * IStringConverter that converts a comma separated list of metric names,
+ * globs or /regular expressions/ into the patterns of the rated metrics.
+ */
+public class RateMetricsConverter implements IStringConverter<List<Pattern>> {
+
+    @Override
+    public List<Pattern> convert(String rates) {
+    		return convertRateMetrics(rates);
+    }
+    
+    public static List<Pattern> convertRateMetrics(String rates) throws ParameterException {
+	    	List<Pattern> patterns = new ArrayList<Pattern>();
+	    	if (rates == null) {
+	    		return patterns;
+	    	}
+	    	for (String entry : rates.split(",")) {
+	    		if (entry.trim().length() == 0) {
+	    			continue;
+	    		}
+	    		try {
+	    			// null for *, rates for all pe and operator metrics
+	    			patterns.add(MetricFilter.compilePattern(entry.trim()));
+	    		} catch (IllegalArgumentException e) {
+	    			// PatternSyntaxException
+	    			throw new ParameterException(String.format(Constants.INVALID_RATE_METRIC, entry, e.getMessage()));
+	    		}
+	    	}
+	    	return patterns;
+    }
+}
@@ -16,6 +16,9 @@
 
 package streams.metric.exporter.httpclient;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Abstracts HTTP operations to make unit testing easier.
  */
@@ -37,4 +40,57 @@ public interface WebClient {
      * @throws WebClientException
      */
     String get(String fromUri, String host, String port) throws WebClientException;
+
+    /**
+     * Gets data via HTTP GET, overriding the host and/or port of fromUri, and
+     * hands the response body to the handler as a stream rather than reading
+     * it fully into memory.
+     * @param fromUri the target URI
+     * @param host replacement host, or null/empty to keep the original
+     * @param port replacement port, or null/empty to keep the original
+     * @param handler consumer of the response body
+     * @return the value returned by the handler
+     * @throws WebClientException if the HTTP operation or the handler fails
+     */
+    <T> T get(String fromUri, String host, String port, ResponseHandler<T> handler) throws WebClientException;
+
+    /**
+     * @return number of GET requests made
+     */
+    long getRequestCount();
+
+    /**
+     * @return number of GET requests that failed
+     */
+    long getFailedRequestCount();
+
+    /**
+     * @return number of connections opened, requests made on a kept alive
+     * connection do not open one
+     */
+    long getConnectionCount();
+
+    /**
+     * @return number of GET requests in progress
+     */
+    int getActiveRequestCount();
+
+    /**
+     * @return number of response body bytes received, compressed if the
+     * server compressed the response
+     */
+    long getBytesReceived();
+
+    /**
+     * @return number of response body bytes after decompression
+     */
+    long getBytesDecoded();
+
+    /**
+     * Consumes the body of an HTTP response.  The stream is closed by the
+     * WebClient once the handler returns.
+     */
+    interface ResponseHandler<T> {
+        T handleResponse(InputStream body) throws IOException;
+    }
 }
@@ -16,86 +16,233 @@
 
 package streams.metric.exporter.httpclient;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.PushbackInputStream;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 
+import java.net.InetAddress;
+import java.net.Socket;
 import java.net.URL;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/*
+ * Connections are left to the JDK keep-alive cache: the response body is read
+ * to the end and closed rather than disconnected, and every request uses the
+ * same SSLSocketFactory so the cached connection (and its TLS session) can be
+ * handed out again.  The number of idle connections kept per server is the
+ * http.maxConnections system property.
+ */
 public class WebClientImpl implements WebClient {
     private static final Logger LOG = LoggerFactory.getLogger(WebClientImpl.class);
 
+    private static final HostnameVerifier ALL_HOSTS = new HostnameVerifier() {
+        public boolean verify(String urlHostName, SSLSession session) {
+            // return false to reject
+            return true;
+        }
+    };
+
     private String sslProtocol;
     private TrustManager[] trustManagers;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+
+    private SSLSocketFactory socketFactory = null;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failedRequestCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicInteger activeRequestCount = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesDecoded = new AtomicLong();
 
     public WebClientImpl(String sslProtocol, TrustManager[] tms) {
+        this(sslProtocol, tms, 0, 0);
+    }
+
+    public WebClientImpl(String sslProtocol, TrustManager[] tms, int connectTimeoutMillis, int readTimeoutMillis) {
         this.sslProtocol = sslProtocol;
         trustManagers = tms;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
     }
 
     public String get(String fromUri) throws WebClientException {
-        /******* HTTPS Interaction ********/
-        try {
-            // set up trust manager
-            SSLContext ctxt = null;
+        return get(fromUri, new ResponseHandler<String>() {
+            public String handleResponse(InputStream body) throws IOException {
+                return readFully(new InputStreamReader(body));
+            }
+        });
+    }
+
+    /*
+     * The SSLContext is created once, the keep-alive cache only reuses a
+     * connection for the socket factory it was opened with
+     */
+    private synchronized SSLSocketFactory getSocketFactory() throws WebClientException {
+        if (socketFactory == null) {
             try {
-                ctxt = SSLContext.getInstance(sslProtocol);
+                SSLContext ctxt = SSLContext.getInstance(sslProtocol);
                 ctxt.init(null, trustManagers, null);
+                socketFactory = new CountingSocketFactory(ctxt.getSocketFactory());
             } catch (GeneralSecurityException e) {
                 LOG.error("HTTP retrieval initialization received Security Exception: "
                         + e);
                 throw new WebClientException(
                         "HTTP Security Exception", e);
             }
-            // set up hostname verifier
-            HostnameVerifier hv = new HostnameVerifier() {
-                public boolean verify(String urlHostName, SSLSession session) {
-                    // return false to reject
-                    return true;
-                }
-            };
+        }
+        return socketFactory;
+    }
+
+    private <T> T get(String fromUri, ResponseHandler<T> handler) throws WebClientException {
+        SSLSocketFactory sf = getSocketFactory();
 
+        requestCount.incrementAndGet();
+        activeRequestCount.incrementAndGet();
+        /******* HTTPS Interaction ********/
+        HttpsURLConnection conn = null;
+        try {
             URL url = new URL(fromUri);
             if (LOG.isTraceEnabled()) {
                 LOG.trace(String.format("Connecting to URL %s", fromUri));
             }
 
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+            conn = (HttpsURLConnection) url.openConnection();
+            conn.setSSLSocketFactory(sf);
+            conn.setHostnameVerifier(ALL_HOSTS);
+            conn.setConnectTimeout(connectTimeoutMillis);
+            conn.setReadTimeout(readTimeoutMillis);
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            conn.connect();
+            InputStream wire = new CountingInputStream(conn.getInputStream(), bytesReceived);
+            InputStream body = null;
 
             try {
-                conn.setSSLSocketFactory(ctxt.getSocketFactory());
-                conn.setHostnameVerifier(hv);
-                conn.setRequestMethod("GET");
-                conn.connect();
-                InputStreamReader reader = new InputStreamReader(conn.getInputStream());
-
-                try {
-                    return readFully(reader);
-                }
-                finally {
-                    reader.close();
-                }
+                // Servers that do not compress answer without a Content-Encoding
+                body = new CountingInputStream(decode(wire, conn.getContentEncoding()), bytesDecoded);
+                T result = handler.handleResponse(body);
+                // Read what the handler left so the connection can go back to the keep-alive cache
+                drain(body);
+                drain(wire);
+                return result;
             }
             finally {
-                conn.disconnect();
+                // Closing the decoder also releases its Inflater
+                if (body != null) {
+                    body.close();
+                } else {
+                    wire.close();
+                }
             }
         }
         catch (IOException e) {
+            failedRequestCount.incrementAndGet();
+            // Do not keep a connection in an unknown state
+            if (conn != null) {
+                conn.disconnect();
+            }
             throw new WebClientException(String.format("Failed GET request to uri %s", fromUri), e);
         }
+        finally {
+            activeRequestCount.decrementAndGet();
+        }
     }
     
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+        switch (contentEncoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, 8192);
+            case "deflate":
+                return inflate(in);
+            case "identity":
+                return in;
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
+
+    /*
+     * "deflate" is meant to be zlib wrapped deflate, but some servers send
+     * raw deflate.  A zlib stream starts with a method of 8 in the low bits
+     * of the first byte and the first two bytes are a multiple of 31.
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream header = new PushbackInputStream(in, 2);
+        int cmf = header.read();
+        if (cmf == -1) {
+            // Empty body
+            return header;
+        }
+        int flg = header.read();
+        if (flg != -1) {
+            header.unread(flg);
+        }
+        header.unread(cmf);
+        if (flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0) {
+            return new InflaterInputStream(header);
+        }
+        return new RawInflaterInputStream(header);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getFailedRequestCount() {
+        return failedRequestCount.get();
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getActiveRequestCount() {
+        return activeRequestCount.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
     public String get(String fromUri, String host, String port) throws WebClientException{
+    		return get(overrideHostPort(fromUri, host, port));
+    }
+
+    public <T> T get(String fromUri, String host, String port, ResponseHandler<T> handler) throws WebClientException {
+    		return get(overrideHostPort(fromUri, host, port), handler);
+    }
+
+    private String overrideHostPort(String fromUri, String host, String port) throws WebClientException {
     		String newUri = fromUri;
     		// If either host or port need to be overridden
     		boolean hostOverride = false;
@@ -127,10 +274,16 @@ public class WebClientImpl implements WebClient {
 	            throw new WebClientException(String.format("Failed GET request to uri %s", fromUri), e);
 	    		}
     		}
-    		return get(newUri);
+    		return newUri;
     }
 
 
+    private static final void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) > -1) {
+        }
+    }
+
     private static final String readFully(Reader r) throws IOException {
         StringBuilder sb = new StringBuilder();
         char[] buffer = new char[1000];
@@ -142,4 +295,108 @@ public class WebClientImpl implements WebClient {
 
         return sb.toString(); 
     }
+
+    /*
+     * Counts the connections opened, anything else is done by the JDK factory
+     */
+    private class CountingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        public Socket createSocket() throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket();
+        }
+
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(s, host, port, autoClose);
+        }
+
+        public Socket createSocket(String host, int port) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    /*
+     * Raw deflate, the inflater needs a byte past the end of the data so one
+     * is added, and as it is not the default inflater closing has to end it
+     */
+    private static class RawInflaterInputStream extends InflaterInputStream {
+        RawInflaterInputStream(InputStream in) {
+            super(new SequenceInputStream(in, new ByteArrayInputStream(new byte[1])), new Inflater(true), 8192);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /*
+     * Adds the bytes read through it to a counter
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                counter.addAndGet(skipped);
+            }
+            return skipped;
+        }
+    }
 }
@@ -0,0 +1,123 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+ * JobsStreamParser
+ *
+ * Token level parser for the large JSON documents returned by the Streams
+ * JMX HTTP server for snapshotJobs() and snapshotJobMetrics().  Both have the
+ * form { ..., "jobs" : [ {job}, {job}, ... ], ... }.
+ *
+ * Rather than reading the whole document into memory, each element of the
+ * "jobs" array is handed to a JobHandler as soon as the parser reaches it, so
+ * only one job is ever materialized at a time.  The handler reads the job
+ * straight from the tokens into the typed job model.
+ */
+public class JobsStreamParser {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	/*
+	 * Called once per element of the "jobs" array.  The parser is positioned
+	 * on the START_OBJECT token of the job and the handler must consume the
+	 * job through its matching END_OBJECT token.
+	 */
+	public interface JobHandler {
+		void handleJob(JsonParser parser) throws IOException;
+	}
+
+	private JobsStreamParser() {
+	}
+
+	/* Parse the document, returns the number of jobs passed to the handler */
+	public static int parse(InputStream in, JobHandler handler) throws IOException {
+		int jobCount = 0;
+
+		JsonParser parser = JSON_FACTORY.createParser(in);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected start of jobs document");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("jobs".equals(fieldName) && token == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						handler.handleJob(parser);
+						jobCount++;
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+
+		return jobCount;
+	}
+
+	/*
+	 * Reads one element of a json array into a model object.  The parser is
+	 * positioned on the first token of the element, the reader must consume
+	 * the element through its last token.
+	 */
+	public interface ElementReader<T> {
+		T read(JsonParser parser) throws IOException;
+	}
+
+	/* Read the array the parser is positioned on, null is treated as an empty array */
+	public static <T> List<T> readList(JsonParser parser, ElementReader<T> reader) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+			parser.skipChildren();
+			return Collections.emptyList();
+		}
+		List<T> list = new ArrayList<T>();
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			list.add(reader.read(parser));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/* Fields that were absent from the json are treated as empty arrays */
+	public static <T> List<T> nonNull(List<T> list) {
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return list;
+	}
+
+	/* Current value as a String, getText() would return "null" for json null */
+	public static String readString(JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		return parser.getText();
+	}
+}
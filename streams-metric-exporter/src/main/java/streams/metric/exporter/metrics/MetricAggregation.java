@@ -0,0 +1,372 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+/*
+ * MetricAggregation
+ * 
+ * Rules that roll pe and operator metrics up to their job while the job
+ * metrics are processed, so the aggregates are exported as series of their
+ * own and the raw series can be dropped with the metric filter.  Each
+ * sample is offered to the rules of its object type once, the aggregates
+ * of a job are complete when its metrics have all been processed.
+ * 
+ * Aggregates without group by labels are job series named
+ * function_metric, e.g. streams_job_sum_nTuplesProcessed.  Grouped ones
+ * are job group series with the group by label names in the groupby label
+ * and their values in the group label, e.g.
+ * streams_job_group_max_queueSize{groupby="operatorkind",group="spl.relational::Functor"}.
+ * Rules that would export a job series every job already has, e.g.
+ * max_congestionFactor, are rejected, as are rules that would export the
+ * same series as an earlier rule, whatever object type they aggregate.
+ */
+public class MetricAggregation {
+
+	public enum Function {
+		SUM, MIN, MAX, AVG, COUNT
+	}
+
+	// Object types below the job, their labels start with the job labels
+	private static final Set<StreamsObjectType> AGGREGATED_TYPES = EnumSet.of(StreamsObjectType.PE,
+			StreamsObjectType.PE_INPUTPORT, StreamsObjectType.PE_OUTPUTPORT,
+			StreamsObjectType.PE_OUTPUTPORT_CONNECTION, StreamsObjectType.OPERATOR,
+			StreamsObjectType.OPERATOR_INPUTPORT, StreamsObjectType.OPERATOR_OUTPUTPORT);
+	private static final int JOB_LABELS = StreamsObjectType.JOB.metricLabelNames().length;
+
+	// Job series rolled up for every job, aggregates can not use their names
+	private static final Map<String, StreamsObjectType> BUILT_IN_AGGREGATES = new LinkedHashMap<String, StreamsObjectType>();
+	static {
+		for (Function function : EnumSet.of(Function.SUM, Function.AVG, Function.MAX, Function.MIN)) {
+			BUILT_IN_AGGREGATES.put(function.name().toLowerCase() + "_congestionFactor", StreamsObjectType.PE_OUTPUTPORT_CONNECTION);
+		}
+	}
+
+	// Singleton Pattern
+	static MetricAggregation singletonAggregation = null;
+
+	static public synchronized MetricAggregation getInstance() {
+		if (singletonAggregation == null) {
+			singletonAggregation = new MetricAggregation();
+		}
+		return singletonAggregation;
+	}
+
+	private volatile List<Rule> rules = Collections.emptyList();
+	private volatile Map<StreamsObjectType, List<Rule>> rulesByType = new EnumMap<StreamsObjectType, List<Rule>>(StreamsObjectType.class);
+
+	/* Throws IllegalArgumentException if two rules would export the same series */
+	public void setRules(List<Rule> rules) {
+		Map<StreamsObjectType, List<Rule>> byType = new EnumMap<StreamsObjectType, List<Rule>>(StreamsObjectType.class);
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = rules.get(i);
+			rule.checkSeries(rules.subList(0, i));
+			List<Rule> typeRules = byType.get(rule.type);
+			if (typeRules == null) {
+				typeRules = new ArrayList<Rule>();
+				byType.put(rule.type, typeRules);
+			}
+			typeRules.add(rule);
+		}
+		this.rulesByType = byType;
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	public boolean isEnabled() {
+		return !rules.isEmpty();
+	}
+
+	/* Aggregates of a single refresh of a single job */
+	public JobAggregation forJob() {
+		return new JobAggregation(rulesByType);
+	}
+
+	public static class JobAggregation {
+		private final Map<StreamsObjectType, List<Rule>> forRules;
+		private final Map<String, Aggregate> aggregates = new LinkedHashMap<String, Aggregate>();
+
+		private JobAggregation(Map<StreamsObjectType, List<Rule>> forRules) {
+			this.forRules = forRules;
+		}
+
+		/* Offer a sample to the rules of its object type, labelValues are those of the series */
+		public void add(StreamsObjectType type, String metricName, long value, String... labelValues) {
+			List<Rule> typeRules = forRules.get(type);
+			if (typeRules == null) {
+				return;
+			}
+			for (Rule rule : typeRules) {
+				if (!rule.matches(metricName)) {
+					continue;
+				}
+				String group = rule.groupOf(labelValues);
+				String key = rule.text + '\0' + metricName + '\0' + group;
+				Aggregate aggregate = aggregates.get(key);
+				if (aggregate == null) {
+					aggregate = new Aggregate(rule, metricName, group);
+					aggregates.put(key, aggregate);
+				}
+				aggregate.add(value);
+			}
+		}
+
+		public Collection<Aggregate> getAggregates() {
+			return aggregates.values();
+		}
+	}
+
+	public static class Aggregate {
+		private final Rule rule;
+		private final String name;
+		private final String group;
+		private long count = 0;
+		private double sum = 0;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+
+		private Aggregate(Rule rule, String metricName, String group) {
+			this.rule = rule;
+			this.name = rule.function.name().toLowerCase() + "_" + metricName;
+			this.group = group;
+		}
+
+		private void add(long value) {
+			count++;
+			sum += value;
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+
+		/* Metric name, function_metric */
+		public String getName() {
+			return name;
+		}
+
+		/* Group by label names, null if the rule aggregates over the whole job */
+		public String getGroupBy() {
+			return rule.groupBy;
+		}
+
+		public String getGroup() {
+			return group;
+		}
+
+		public double getValue() {
+			switch (rule.function) {
+			case SUM:
+				return sum;
+			case MIN:
+				return min;
+			case MAX:
+				return max;
+			case AVG:
+				return sum / count;
+			default:
+				return count;
+			}
+		}
+	}
+
+	/*
+	 * A single rule, written as function:type:metric[:label,label...], e.g.
+	 * sum:operator_ip:nTuplesProcessed:operatorkind or max:operator_ip:queueSize
+	 * 
+	 * function is sum, min, max, avg or count, type is a pe or operator
+	 * object type name or its metric prefix without streams_, metric is a
+	 * glob using * and ? or a regular expression between slashes and the
+	 * labels are labels of the object type below the job.
+	 */
+	public static class Rule {
+		private final String text;
+		private final Function function;
+		private final StreamsObjectType type;
+		private final String metric;
+		private final Pattern metricPattern;
+		private final String groupBy;
+		private final int[] groupByIndexes;
+		private final Map<String, Boolean> matchedMetrics = new ConcurrentHashMap<String, Boolean>();
+
+		private Rule(String text, Function function, StreamsObjectType type, String metric, Pattern metricPattern, String groupBy, int[] groupByIndexes) {
+			this.text = text;
+			this.function = function;
+			this.type = type;
+			this.metric = metric;
+			this.metricPattern = metricPattern;
+			this.groupBy = groupBy;
+			this.groupByIndexes = groupByIndexes;
+		}
+
+		/* Throws IllegalArgumentException if the rule is not valid */
+		public static Rule parse(String text) {
+			String[] fields = text.trim().split(":", 4);
+			if (fields.length < 3) {
+				throw new IllegalArgumentException("Expected function:type:metric[:label,label...]");
+			}
+			Function function = Function.valueOf(fields[0].trim().toUpperCase());
+			StreamsObjectType type = MetricFilter.Rule.toType(fields[1].trim());
+			if (!AGGREGATED_TYPES.contains(type)) {
+				throw new IllegalArgumentException("Object type " + fields[1].trim() + " is not a pe or operator type");
+			}
+			String metric = fields[2].trim();
+			Pattern metricPattern = MetricFilter.compilePattern(metric);
+
+			String groupBy = null;
+			int[] groupByIndexes = new int[0];
+			if (fields.length > 3 && fields[3].trim().length() > 0) {
+				String[] labels = fields[3].trim().split(",");
+				List<String> typeLabels = Arrays.asList(type.metricLabelNames());
+				groupByIndexes = new int[labels.length];
+				for (int i = 0; i < labels.length; i++) {
+					labels[i] = labels[i].trim();
+					groupByIndexes[i] = typeLabels.indexOf(labels[i]);
+					if (groupByIndexes[i] < JOB_LABELS) {
+						throw new IllegalArgumentException("Object type " + type.name().toLowerCase()
+								+ " can not be grouped by " + labels[i] + ", labels are " + typeLabels.subList(JOB_LABELS, typeLabels.size()));
+					}
+				}
+				groupBy = String.join(",", labels);
+			} else {
+				String prefix = function.name().toLowerCase() + "_";
+				for (Map.Entry<String, StreamsObjectType> builtIn : BUILT_IN_AGGREGATES.entrySet()) {
+					String metricName = builtIn.getKey().substring(builtIn.getKey().indexOf('_') + 1);
+					if (builtIn.getValue() == type && builtIn.getKey().startsWith(prefix)
+							&& (metricPattern == null || metricPattern.matcher(metricName).matches())) {
+						throw new IllegalArgumentException(builtIn.getKey() + " is already exported for each job, group by a label or leave out " + metricName);
+					}
+				}
+			}
+			return new Rule(text.trim(), function, type, metric, metricPattern, groupBy, groupByIndexes);
+		}
+
+		/*
+		 * Throws IllegalArgumentException if this rule can export the same series
+		 * as one of the earlier rules: the same function and group by labels for
+		 * metrics both rules match.  The object type is not part of the series.
+		 */
+		public void checkSeries(List<Rule> earlier) {
+			for (Rule rule : earlier) {
+				if (function == rule.function && Objects.equals(groupBy, rule.groupBy) && metricsOverlap(rule)) {
+					throw new IllegalArgumentException("Exports the same series as " + rule.text
+							+ ", narrow the metrics or group them by other labels");
+				}
+			}
+		}
+
+		// Regular expressions are assumed to match the same metrics as anything but a metric name they do not match
+		private boolean metricsOverlap(Rule rule) {
+			if (metricPattern == null || rule.metricPattern == null) {
+				return true;
+			}
+			boolean regex = isRegex(metric), ruleRegex = isRegex(rule.metric);
+			if (regex || ruleRegex) {
+				if (!regex && isMetricName(metric)) {
+					return rule.metricPattern.matcher(metric).matches();
+				}
+				if (!ruleRegex && isMetricName(rule.metric)) {
+					return metricPattern.matcher(rule.metric).matches();
+				}
+				return true;
+			}
+			return globsOverlap(metric, 0, rule.metric, 0, new boolean[metric.length() + 1][rule.metric.length() + 1]);
+		}
+
+		private static boolean isRegex(String metric) {
+			return metric.length() > 1 && metric.startsWith("/") && metric.endsWith("/");
+		}
+
+		private static boolean isMetricName(String glob) {
+			return glob.indexOf('*') < 0 && glob.indexOf('?') < 0;
+		}
+
+		// Is there a metric name both globs match from these positions on, failed remembers positions that have none
+		private static boolean globsOverlap(String a, int i, String b, int j, boolean[][] failed) {
+			if (failed[i][j]) {
+				return false;
+			}
+			boolean overlap;
+			if (i < a.length() && a.charAt(i) == '*') {
+				overlap = globsOverlap(a, i + 1, b, j, failed) || (j < b.length() && globsOverlap(a, i, b, j + 1, failed));
+			} else if (j < b.length() && b.charAt(j) == '*') {
+				overlap = globsOverlap(a, i, b, j + 1, failed) || (i < a.length() && globsOverlap(a, i + 1, b, j, failed));
+			} else if (i == a.length() || j == b.length()) {
+				overlap = (i == a.length() && j == b.length());
+			} else {
+				char ca = a.charAt(i), cb = b.charAt(j);
+				overlap = (ca == '?' || cb == '?' || ca == cb) && globsOverlap(a, i + 1, b, j + 1, failed);
+			}
+			if (!overlap) {
+				failed[i][j] = true;
+			}
+			return overlap;
+		}
+
+		private boolean matches(String metricName) {
+			if (metricPattern == null) {
+				return true;
+			}
+			Boolean matched = matchedMetrics.get(metricName);
+			if (matched == null) {
+				matched = metricPattern.matcher(metricName).matches();
+				matchedMetrics.put(metricName, matched);
+			}
+			return matched;
+		}
+
+		private String groupOf(String... labelValues) {
+			if (groupByIndexes.length == 0) {
+				return "";
+			}
+			StringBuilder group = new StringBuilder();
+			for (int i = 0; i < groupByIndexes.length; i++) {
+				if (i > 0) {
+					group.append(',');
+				}
+				String value = labelValues[groupByIndexes[i]];
+				group.append(value == null ? "" : value);
+			}
+			return group.toString();
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+}
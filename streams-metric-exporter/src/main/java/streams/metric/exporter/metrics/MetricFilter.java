@@ -0,0 +1,250 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+/*
+ * MetricFilter
+ * 
+ * Ordered allow and deny rules applied to job series before the exporter
+ * is asked for them, so filtered series are never looked up, registered or
+ * exposed.  The first rule that matches the object type, metric name and
+ * job name decides, series no rule matches are kept.
+ * 
+ * Each job caches the rule that decides each of its metric names, so the
+ * patterns are only matched the first time a job reports a metric.
+ */
+public class MetricFilter {
+
+	public enum Action {
+		ALLOW, DENY
+	}
+
+	// Singleton Pattern
+	static MetricFilter singletonFilter = null;
+
+	static public synchronized MetricFilter getInstance() {
+		if (singletonFilter == null) {
+			singletonFilter = new MetricFilter();
+		}
+		return singletonFilter;
+	}
+
+	private volatile List<Rule> rules = Collections.emptyList();
+
+	// Counts the series no rule matched
+	private final Rule defaultRule = new Rule("default", Action.ALLOW, null, null, null);
+
+	public void setRules(List<Rule> rules) {
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	public Rule getDefaultRule() {
+		return defaultRule;
+	}
+
+	public boolean isEnabled() {
+		return !rules.isEmpty();
+	}
+
+	/* Decisions for the series of a single job, not shared between jobs */
+	public JobFilter forJob(String jobName) {
+		return new JobFilter(jobName);
+	}
+
+	private Rule findRule(StreamsObjectType type, String metricName, String jobName) {
+		for (Rule rule : rules) {
+			if (rule.matches(type, metricName, jobName)) {
+				return rule;
+			}
+		}
+		return defaultRule;
+	}
+
+	/*
+	 * Regular expression between slashes, otherwise a glob using * and ?,
+	 * null for patterns that match anything
+	 */
+	public static Pattern compilePattern(String pattern) {
+		if (pattern.length() == 0 || "*".equals(pattern)) {
+			return null;
+		}
+		if (pattern.length() > 1 && pattern.startsWith("/") && pattern.endsWith("/")) {
+			return Pattern.compile(pattern.substring(1, pattern.length() - 1));
+		}
+		StringBuilder regex = new StringBuilder();
+		for (String part : pattern.split("(?=[*?])|(?<=[*?])")) {
+			if ("*".equals(part)) {
+				regex.append(".*");
+			} else if ("?".equals(part)) {
+				regex.append('.');
+			} else if (part.length() > 0) {
+				regex.append(Pattern.quote(part));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	public class JobFilter {
+		private final String jobName;
+		private final List<Rule> forRules = rules;
+		private final Map<StreamsObjectType, Map<String, Rule>> decisions = new EnumMap<StreamsObjectType, Map<String, Rule>>(StreamsObjectType.class);
+
+		private JobFilter(String jobName) {
+			this.jobName = jobName;
+			for (StreamsObjectType type : StreamsObjectType.values()) {
+				decisions.put(type, new ConcurrentHashMap<String, Rule>());
+			}
+		}
+
+		public String getJobName() {
+			return jobName;
+		}
+
+		/* Still built from the current rules */
+		public boolean isCurrent() {
+			return forRules == rules;
+		}
+
+		/* Should the series be exported, counted against the rule that decided */
+		public boolean accept(StreamsObjectType type, String metricName) {
+			if (forRules.isEmpty()) {
+				return true;
+			}
+			return decide(type, metricName).count();
+		}
+
+		/* Would the series be exported, without counting it */
+		public boolean allows(StreamsObjectType type, String metricName) {
+			if (forRules.isEmpty()) {
+				return true;
+			}
+			return decide(type, metricName).action == Action.ALLOW;
+		}
+
+		private Rule decide(StreamsObjectType type, String metricName) {
+			Map<String, Rule> typeDecisions = decisions.get(type);
+			Rule rule = typeDecisions.get(metricName);
+			if (rule == null) {
+				rule = findRule(type, metricName, jobName);
+				typeDecisions.put(metricName, rule);
+			}
+			return rule;
+		}
+	}
+
+	/*
+	 * A single rule, written as action:type:metric[:job], e.g.
+	 * deny:operator_inputport:* or allow:pe_op_connection:congestionFactor:prod_*
+	 * 
+	 * type is a StreamsObjectType name, its metric prefix without streams_ or
+	 * *, metric and job are globs using * and ? or regular expressions
+	 * between slashes.
+	 */
+	public static class Rule {
+		private final String text;
+		private final Action action;
+		private final StreamsObjectType type;
+		private final Pattern metricPattern;
+		private final Pattern jobPattern;
+		private final LongAdder kept = new LongAdder();
+		private final LongAdder dropped = new LongAdder();
+
+		private Rule(String text, Action action, StreamsObjectType type, Pattern metricPattern, Pattern jobPattern) {
+			this.text = text;
+			this.action = action;
+			this.type = type;
+			this.metricPattern = metricPattern;
+			this.jobPattern = jobPattern;
+		}
+
+		/* Throws IllegalArgumentException if the rule is not valid */
+		public static Rule parse(String text) {
+			String[] fields = text.trim().split(":", 4);
+			if (fields.length < 3) {
+				throw new IllegalArgumentException("Expected action:type:metric[:job]");
+			}
+			Action action = Action.valueOf(fields[0].trim().toUpperCase());
+			String typeName = fields[1].trim();
+			StreamsObjectType type = "*".equals(typeName) ? null : toType(typeName);
+			Pattern metricPattern = compilePattern(fields[2].trim());
+			Pattern jobPattern = fields.length > 3 ? compilePattern(fields[3].trim()) : null;
+			return new Rule(text.trim(), action, type, metricPattern, jobPattern);
+		}
+
+		/* Object type name (pe_outputport_connection) or its metric prefix (pe_op_connection) */
+		static StreamsObjectType toType(String typeName) {
+			for (StreamsObjectType type : StreamsObjectType.values()) {
+				if (type.name().equalsIgnoreCase(typeName)) {
+					return type;
+				}
+			}
+			for (StreamsObjectType type : StreamsObjectType.values()) {
+				if (type.metricPrefix().equalsIgnoreCase("streams_" + typeName + "_")) {
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("Unknown object type " + typeName);
+		}
+
+		boolean matches(StreamsObjectType type, String metricName, String jobName) {
+			return (this.type == null || this.type == type)
+					&& (metricPattern == null || metricPattern.matcher(metricName).matches())
+					&& (jobPattern == null || (jobName != null && jobPattern.matcher(jobName).matches()));
+		}
+
+		private boolean count() {
+			if (action == Action.ALLOW) {
+				kept.increment();
+				return true;
+			}
+			dropped.increment();
+			return false;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public long getKept() {
+			return kept.sum();
+		}
+
+		public long getDropped() {
+			return dropped.sum();
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+/*
+ * MetricRates
+ * 
+ * Per second rates of cumulative Streams counters (nTuplesProcessed,
+ * nCpuMilliseconds, ...) computed when the metrics are processed, so
+ * dashboards do not have to rate() every raw series.  Rates are exported
+ * as rate_metric series of the same object type and labels.
+ * 
+ * Each job keeps the previous value, collection time and pe launch count
+ * of its rated series in a Store of primitive arrays.  A refresh fills a
+ * new store from the previous one, series that were not refreshed are
+ * left behind with it.  When the launch count changes or the value goes
+ * down the pe was restarted, the counter starts over and no rate is
+ * exported until the next sample, as the time of the restart is unknown.
+ */
+public class MetricRates {
+
+	// Singleton Pattern
+	static MetricRates singletonRates = null;
+
+	static public synchronized MetricRates getInstance() {
+		if (singletonRates == null) {
+			singletonRates = new MetricRates();
+		}
+		return singletonRates;
+	}
+
+	private volatile List<Pattern> patterns = Collections.emptyList();
+	private volatile Map<String, Boolean> ratedMetrics = new ConcurrentHashMap<String, Boolean>();
+
+	/* Metric name patterns, null matches any metric */
+	public void setPatterns(List<Pattern> patterns) {
+		this.ratedMetrics = new ConcurrentHashMap<String, Boolean>();
+		this.patterns = Collections.unmodifiableList(new ArrayList<Pattern>(patterns));
+	}
+
+	public List<Pattern> getPatterns() {
+		return patterns;
+	}
+
+	public boolean isEnabled() {
+		return !patterns.isEmpty();
+	}
+
+	/* Is a rate exported for the metric, decided once for each metric name */
+	public boolean isRated(String metricName) {
+		Boolean rated = ratedMetrics.get(metricName);
+		if (rated == null) {
+			rated = Boolean.FALSE;
+			for (Pattern pattern : patterns) {
+				if (pattern == null || pattern.matcher(metricName).matches()) {
+					rated = Boolean.TRUE;
+					break;
+				}
+			}
+			ratedMetrics.put(metricName, rated);
+		}
+		return rated;
+	}
+
+	/* 64 bit FNV-1a hash of the series, 0 is kept for free slots */
+	public static long seriesKey(StreamsObjectType type, String metricName, String... labelValues) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ type.ordinal()) * 0x100000001b3L;
+		hash = hash(hash, metricName);
+		for (String labelValue : labelValues) {
+			hash = hash(hash, labelValue);
+		}
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static long hash(long hash, String value) {
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+			}
+		}
+		// Separator, so label boundaries count
+		return (hash ^ 0xff) * 0x100000001b3L;
+	}
+
+	/*
+	 * Samples of the rated series of one job, open addressing on the
+	 * series key.  Not thread safe, a job is refreshed by one thread at
+	 * a time.
+	 */
+	public static class Store {
+		private long[] keys;
+		private long[] values;
+		private long[] times;
+		private long[] launches;
+		private double[] rates;
+		private int size = 0;
+
+		public Store(int expected) {
+			int capacity = 16;
+			while (capacity < expected * 2) {
+				capacity <<= 1;
+			}
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			values = new long[capacity];
+			times = new long[capacity];
+			launches = new long[capacity];
+			rates = new double[capacity];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		private int slot(long key) {
+			int mask = keys.length - 1;
+			int i = (int) (key ^ (key >>> 32)) & mask;
+			while (keys[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void put(long key, long value, long time, long launchCount, double rate) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+			}
+			int i = slot(key);
+			if (keys[i] == 0) {
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+			times[i] = time;
+			launches[i] = launchCount;
+			rates[i] = rate;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys, oldValues = values, oldTimes = times, oldLaunches = launches;
+			double[] oldRates = rates;
+			allocate(keys.length * 2);
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					put(oldKeys[i], oldValues[i], oldTimes[i], oldLaunches[i], oldRates[i]);
+				}
+			}
+		}
+
+		/*
+		 * Record a sample and return the per second rate since the previous
+		 * sample of the series in previous, NaN when there is none
+		 */
+		public double update(Store previous, long key, long value, long time, long launchCount) {
+			int i = previous == null ? -1 : previous.slot(key);
+			if (i < 0 || previous.keys[i] == 0) {
+				put(key, value, time, launchCount, Double.NaN);
+				return Double.NaN;
+			}
+			long previousTime = previous.times[i];
+			if (time <= previousTime) {
+				// Same sample again, keep the baseline and the rate it gave
+				put(key, previous.values[i], previousTime, previous.launches[i], previous.rates[i]);
+				return previous.rates[i];
+			}
+			double rate = Double.NaN;
+			if (launchCount == previous.launches[i] && value >= previous.values[i]) {
+				rate = (value - previous.values[i]) * 1000.0 / (time - previousTime);
+			}
+			put(key, value, time, launchCount, rate);
+			return rate;
+		}
+	}
+}
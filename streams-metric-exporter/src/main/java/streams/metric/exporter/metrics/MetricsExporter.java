@@ -21,10 +21,14 @@ import org.slf4j.LoggerFactory;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 public abstract class MetricsExporter {
 	private static final Logger LOGGER = LoggerFactory.getLogger("root." + MetricsExporter.class.getName());
@@ -38,20 +42,62 @@ public abstract class MetricsExporter {
 
 	public abstract void removeStreamsMetric(String metricName, StreamsObjectType type, String... labelValues);
 
+	public abstract void removeStreamsMetric(Metric metric);
+
 	public abstract void removeAllChildStreamsMetrics(String... labelValues);
 
+	/* Filtered series are set on this metric, it is never registered or indexed */
+	private final Metric discardMetric = new Metric("discard", Collections.<String>emptyList()) {
+		public void set(double val) {
+		}
+	};
+
+	public Metric getDiscardMetric() {
+		return discardMetric;
+	}
+
+	/* Update metrics about the exporter itself, called before metrics are exposed */
+	public void refreshExporterMetrics() {
+	}
+
 	static protected String getStreamsMetricFullName(String metricName, StreamsObjectType type, String... labelValues) {
 		return type.metricPrefix() + metricName;
 	}
 	
-	protected void addStreamsMetricToIndex(Metric m) {
-		this.metricIndex.add(m);
+	/*
+	 * Returns the metric already in the index for the series if there is one,
+	 * otherwise creates one with the factory and adds it.  The factory runs
+	 * while removals are locked out, so whatever it registers can not be
+	 * removed before the metric is in the index.
+	 */
+	protected Metric addStreamsMetricToIndexIfAbsent(String metricFullName, List<String> labelValues, MetricFactory factory) {
+		return this.metricIndex.addIfAbsent(metricFullName, labelValues, factory);
+	}
+
+	/*
+	 * Called for each metric removed from the index, with the index write lock
+	 * held so no thread can index the same series again until it returns.
+	 * Implementations release what they registered for the metric here.
+	 */
+	protected void metricRemovedFromIndex(Metric m) {
+	}
+
+	public interface MetricFactory {
+		Metric create();
+	}
+
+	protected Metric getStreamsMetricFromIndex(String metricFullName, String... labelValues) {
+		return this.metricIndex.get(metricFullName, labelValues);
 	}
 	
 	public MetricLabelIndex getMetricIndex() {
 		return metricIndex;
 	}
 	
+	protected void removeStreamsMetricFromIndex(Metric m) {
+		this.metricIndex.remove(m);
+	}
+	
 	protected Set<Metric> removeAllChildMetricsFromIndex(String... labelValues) {
 		return this.metricIndex.removeWithChildren(labelValues);
 	}
@@ -62,13 +108,18 @@ public abstract class MetricsExporter {
 		RESOURCE("streams_resource_", new String[] { "domainname","instancename", "resource"}),
 		RESOURCE_ROLE("streams_resource_", new String[] { "domainname","instancename", "resource", "role"}),
 		JOB("streams_job_",new String[] { "domainname","instancename", "jobname" }),
+		JOB_GROUP("streams_job_group_",new String[] { "domainname","instancename", "jobname", "groupby", "group" }),
 		PE("streams_pe_",new String[] { "domainname", "instancename", "jobname", "resource", "peid"}),
 		PE_INPUTPORT("streams_pe_ip_",new String[] {"domainname","instancename", "jobname", "resource", "peid","index"}),
 		PE_OUTPUTPORT("streams_pe_op_",new String[] {"domainname","instancename","jobname", "resource", "peid","index"}),
 		PE_OUTPUTPORT_CONNECTION("streams_pe_op_connection_",new String[] {"domainname","instancename","jobname","resource","peid","index","connectionid"}),
 		OPERATOR("streams_operator_",new String[] { "domainname","instancename", "jobname", "resource", "peid", "operatorname", "operatorkind" }), 
 		OPERATOR_INPUTPORT("streams_operator_ip_",new String[] { "domainname","instancename", "jobname", "resource", "peid", "operatorname", "operatorkind", "inputportname" }), 
-		OPERATOR_OUTPUTPORT("streams_operator_op_",new String[] { "domainname","instancename", "jobname", "resource", "peid", "operatorname", "operatorkind", "outputportname" });
+		OPERATOR_OUTPUTPORT("streams_operator_op_",new String[] { "domainname","instancename", "jobname", "resource", "peid", "operatorname", "operatorkind", "outputportname" }),
+		EXPORTER("streams_exporter_",new String[] {}),
+		EXPORTER_INSTANCE("streams_exporter_instance_",new String[] { "domainname","instancename" }),
+		EXPORTER_JOB("streams_exporter_",new String[] { "domainname","instancename","jobname" }),
+		EXPORTER_FILTER("streams_exporter_filter_",new String[] { "rule" });
 
 		private final String metric_prefix;
 		private final String[] labels;
@@ -104,6 +155,9 @@ public abstract class MetricsExporter {
 			case JOB:
 				description = "Streams job metric";
 				break;
+			case JOB_GROUP:
+				description = "Streams job metric aggregated by group";
+				break;
 			case PE:
 				description = "Streams pe metric";
 				break;
@@ -124,6 +178,19 @@ public abstract class MetricsExporter {
 				break;
 			case OPERATOR_OUTPUTPORT:
 				description = "Streams operator output port metric";
+				break;
+			case EXPORTER:
+				description = "Streams metric exporter metric";
+				break;
+			case EXPORTER_INSTANCE:
+				description = "Streams metric exporter instance tracking metric";
+				break;
+			case EXPORTER_JOB:
+				description = "Streams metric exporter job metric";
+				break;
+			case EXPORTER_FILTER:
+				description = "Streams metric exporter metric filter rule";
+				break;
 			default:
 				description = "Streams metric";
 			}
@@ -134,14 +201,24 @@ public abstract class MetricsExporter {
 
 
 
+	/*
+	 * A single series.  Metrics are resolved once by the exporter and cached
+	 * in the index, later lookups of the same series return the same object
+	 * so implementations can hold on to their underlying handle.
+	 */
 	public abstract class Metric {
 		protected final String name;
 		protected final List<String> labelValues;
+		// name and labels never change, hash once rather than for every set lookup
+		private final int hashCode;
+		// Set once the series is removed from the index, holders of the handle look it up again
+		private volatile boolean removed = false;
 
 		protected Metric(String name, List<String> labelValues) {
-			LOGGER.trace("Creating Metric: name={}, labelValues={}",name,String.join(",",labelValues));
+			LOGGER.trace("Creating Metric: name={}, labelValues={}",name,labelValues);
 			this.name = name;
 			this.labelValues = labelValues;
+			this.hashCode = new HashCodeBuilder().append(this.name).append(this.labelValues).toHashCode();
 		}
 		
 		public String getName() {
@@ -154,6 +231,11 @@ public abstract class MetricsExporter {
 
 		abstract public void set(double val);
 
+		/* Has the series been removed, setting it no longer exports anything */
+		public boolean isRemoved() {
+			return removed;
+		}
+
 		/* Determine if this metrics labels are a child of the set passed in */
 		/* "I1","J1","Op1" is a labelChildOf("I1","J1") */
 		public boolean labelChildOf(String... compareLabelValues) {
@@ -173,7 +255,7 @@ public abstract class MetricsExporter {
 		// Hashcode builder for use in HashSet
 		@Override
 		public int hashCode() {
-			return new HashCodeBuilder().append(this.name).append(this.labelValues).toHashCode();
+			return hashCode;
 		}
 
 		// Equals method for use in HashSet
@@ -186,6 +268,9 @@ public abstract class MetricsExporter {
 				return true;
 			}
 			final Metric otherObject = (Metric)obj;
+			if (this.hashCode != otherObject.hashCode) {
+				return false;
+			}
 
 			return new EqualsBuilder().append(this.name,otherObject.name)
 				.append(this.labelValues, otherObject.labelValues)
@@ -194,41 +279,178 @@ public abstract class MetricsExporter {
 
 	}
 	
+	/*
+	 * MetricLabelIndex
+	 * 
+	 * Prefix tree keyed by the label values of each metric
+	 * (domain -> instance -> job -> resource -> peid ...), each metric is
+	 * stored on the node at the end of its label path.  Removing a job or an
+	 * instance detaches its subtree and only visits the metrics within it.
+	 * 
+	 * Lookups do not lock, they only read the concurrent maps of each node.
+	 * Adds take the read lock, removals take the write lock so a metric can
+	 * not be added to a subtree while it is being detached, and
+	 * metricRemovedFromIndex() runs before another thread can add the series
+	 * again.
+	 */
 	public class MetricLabelIndex {
-		private Set<Metric> metrics;
+		// ConcurrentHashMap does not allow null keys, labels may be null
+		private static final String NULL_LABEL = "\u0000null";
+
+		private final LabelNode root = new LabelNode();
+		private final AtomicInteger size = new AtomicInteger();
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 		
 		public MetricLabelIndex() {
-			this.metrics = new HashSet<Metric>();
 		}
 		
 		public void add(Metric... newMetrics) {
-			synchronized (this.metrics){
-				for (Metric m : newMetrics) {
-					this.metrics.add(m);
+			for (final Metric m : newMetrics) {
+				addIfAbsent(m.getName(), m.getLabelValues(), new MetricFactory() {
+					public Metric create() {
+						return m;
+					}
+				});
+			}
+		}
+
+		/* Add the metric the factory creates unless the series is already indexed, returns the indexed metric */
+		public Metric addIfAbsent(String name, List<String> labelValues, final MetricFactory factory) {
+			lock.readLock().lock();
+			try {
+				LabelNode node = root;
+				for (String labelValue : labelValues) {
+					node = node.getOrCreateChild(labelValue);
 				}
+				final boolean[] created = new boolean[1];
+				Metric indexed = node.metrics.computeIfAbsent(name, new Function<String, Metric>() {
+					public Metric apply(String key) {
+						created[0] = true;
+						return factory.create();
+					}
+				});
+				if (created[0]) {
+					size.incrementAndGet();
+				}
+				return indexed;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/* Lookup a series, null if it is not indexed */
+		public Metric get(String name, String... labelValues) {
+			LabelNode node = root;
+			for (int i = 0; i < labelValues.length && node != null; i++) {
+				node = node.getChild(labelValues[i]);
+			}
+			return (node == null ? null : node.metrics.get(name));
+		}
+		
+		public void remove(Metric... oldMetrics) {
+			lock.writeLock().lock();
+			try {
+				for (Metric m : oldMetrics) {
+					List<String> labelValues = m.getLabelValues();
+					LabelNode[] path = new LabelNode[labelValues.size() + 1];
+					path[0] = root;
+					for (int i = 0; i < labelValues.size() && path[i] != null; i++) {
+						path[i + 1] = path[i].getChild(labelValues.get(i));
+					}
+					LabelNode node = path[labelValues.size()];
+					// Remove the indexed handle of the series, which is the one to flag
+					Metric indexed = (node == null ? null : node.metrics.get(m.getName()));
+					if (indexed == null || !indexed.equals(m) || !node.metrics.remove(m.getName(), indexed)) {
+						continue;
+					}
+					size.decrementAndGet();
+					indexed.removed = true;
+					metricRemovedFromIndex(indexed);
+					// Prune the nodes left empty so the tree does not grow with label churn
+					for (int i = labelValues.size(); i > 0 && path[i].isEmpty(); i--) {
+						path[i - 1].children.remove(key(labelValues.get(i - 1)));
+					}
+				}
+			} finally {
+				lock.writeLock().unlock();
 			}
 		}
 		
 		public int size() {
-			return metrics.size();
+			return size.get();
 		}
 		
 		public Set<Metric> removeWithChildren(String... labelValues) {	
 			Set<Metric> removedMetrics = new HashSet<Metric>();
-			synchronized (this.metrics){
-				Iterator<Metric> it = this.metrics.iterator();
-				while (it.hasNext()) {
-					Metric metric = it.next();
-					if (metric.labelChildOf(labelValues)) {
-						removedMetrics.add(metric);
-						it.remove();
+			lock.writeLock().lock();
+			try {
+				LabelNode subtree;
+				if (labelValues.length == 0) {
+					subtree = new LabelNode();
+					subtree.children.putAll(root.children);
+					subtree.metrics.putAll(root.metrics);
+					root.children.clear();
+					root.metrics.clear();
+				} else {
+					LabelNode parent = root;
+					for (int i = 0; i < labelValues.length - 1 && parent != null; i++) {
+						parent = parent.getChild(labelValues[i]);
 					}
+					subtree = (parent == null ? null : parent.children.remove(key(labelValues[labelValues.length - 1])));
 				}
+				if (subtree != null) {
+					subtree.collect(removedMetrics);
+					size.addAndGet(-removedMetrics.size());
+					for (Metric m : removedMetrics) {
+						m.removed = true;
+						metricRemovedFromIndex(m);
+					}
+				}
+			} finally {
+				lock.writeLock().unlock();
 			}
 			
 			return removedMetrics;
 			
 		}
+
+		private String key(String labelValue) {
+			return (labelValue == null ? NULL_LABEL : labelValue);
+		}
+
+		private class LabelNode {
+			final ConcurrentHashMap<String, LabelNode> children = new ConcurrentHashMap<String, LabelNode>();
+			// Metrics whose label values end at this node, by metric name
+			final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+			LabelNode getChild(String labelValue) {
+				return children.get(key(labelValue));
+			}
+
+			LabelNode getOrCreateChild(String labelValue) {
+				String key = key(labelValue);
+				LabelNode child = children.get(key);
+				if (child == null) {
+					LabelNode newChild = new LabelNode();
+					child = children.putIfAbsent(key, newChild);
+					if (child == null) {
+						child = newChild;
+					}
+				}
+				return child;
+			}
+
+			boolean isEmpty() {
+				return metrics.isEmpty() && children.isEmpty();
+			}
+
+			void collect(Set<Metric> collected) {
+				collected.addAll(metrics.values());
+				for (LabelNode child : children.values()) {
+					child.collect(collected);
+				}
+			}
+		}
 	}
 
 }
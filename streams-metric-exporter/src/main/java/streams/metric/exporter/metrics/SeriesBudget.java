@@ -0,0 +1,204 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+/*
+ * SeriesBudget
+ * 
+ * Limits the number of series a job (or all jobs of an instance) exports.
+ * A refresh starts with the series it is about to ask for by object type
+ * and drops whole types, lowest priority first, until the remaining types
+ * fit in the budget, so what is dropped follows the rank of the types and
+ * not the order series are asked for in.  Types come back only once they
+ * fit with a tenth of the budget to spare, demand around the limit does
+ * not flap.  Should a refresh ask for more than it said, series of dropped
+ * types are refused once the budget is used up.  Job series are never
+ * dropped, they are only counted.
+ * 
+ * A job budget can have the budget of its instance as parent, a series has
+ * to be admitted by both.  The instance starts a refresh cycle with the
+ * series all its jobs are about to ask for, so what it drops never depends
+ * on the order jobs are refreshed in.  Refreshes of a job outside the
+ * refresh cycle are not counted by the parent, it counts the job again
+ * when the next cycle refreshes it.  Counters are atomic so the jobs of an
+ * instance can be refreshed in parallel.
+ */
+public class SeriesBudget {
+
+	// Dropped first to last, types without a rank are never dropped
+	private static final int[] DROP_RANK = new int[StreamsObjectType.values().length];
+	private static final int MAX_DROP_RANK = 5;
+	static {
+		DROP_RANK[StreamsObjectType.OPERATOR_INPUTPORT.ordinal()] = 1;
+		DROP_RANK[StreamsObjectType.OPERATOR_OUTPUTPORT.ordinal()] = 1;
+		DROP_RANK[StreamsObjectType.OPERATOR.ordinal()] = 2;
+		DROP_RANK[StreamsObjectType.PE_OUTPUTPORT_CONNECTION.ordinal()] = 3;
+		DROP_RANK[StreamsObjectType.PE_INPUTPORT.ordinal()] = 4;
+		DROP_RANK[StreamsObjectType.PE_OUTPUTPORT.ordinal()] = 4;
+		DROP_RANK[StreamsObjectType.PE.ordinal()] = 5;
+	}
+
+	private final int limit;
+	private final SeriesBudget parent;
+
+	// Series asked for by type this refresh and the last one
+	private final AtomicLongArray demand = new AtomicLongArray(DROP_RANK.length);
+	private long[] lastDemand = new long[DROP_RANK.length];
+	private final AtomicLongArray admitted = new AtomicLongArray(2);
+	private static final int ADMITTED = 0;
+	private static final int DROPPED = 1;
+	private volatile int dropLevel = 0;
+	private volatile boolean outOfCycle = false;
+
+	public SeriesBudget(int limit, SeriesBudget parent) {
+		this.limit = limit;
+		this.parent = parent;
+	}
+
+	/* Is there a budget to enforce here or in a parent */
+	public boolean isEnabled() {
+		return limit > 0 || (parent != null && parent.isEnabled());
+	}
+
+	/* Start counting again, expecting as many series as the last refresh asked for */
+	public void startRefresh() {
+		startRefresh(null);
+	}
+
+	/*
+	 * Start counting again, expecting the series by type this refresh is about
+	 * to ask for, null for as many as the last refresh.  Types that are never
+	 * dropped are expected as asked for by the last refresh, job series like
+	 * aggregates are only known once the refresh is done.
+	 */
+	public synchronized void startRefresh(long[] expectedByType) {
+		long[] expected = new long[DROP_RANK.length];
+		for (int i = 0; i < lastDemand.length; i++) {
+			lastDemand[i] = demand.getAndSet(i, 0);
+			expected[i] = (expectedByType == null || DROP_RANK[i] == 0 ? lastDemand[i] : expectedByType[i]);
+		}
+		admitted.set(ADMITTED, 0);
+		admitted.set(DROPPED, 0);
+
+		int level = 0;
+		if (limit > 0) {
+			level = dropLevel(expected, limit);
+			if (level < dropLevel) {
+				level = Math.min(dropLevel, dropLevel(expected, limit - limit / 10));
+			}
+		}
+		this.dropLevel = level;
+		this.outOfCycle = false;
+	}
+
+	/* Start a refresh outside the refresh cycle, e.g. after a notification, the parent does not count it */
+	public void startOutOfCycleRefresh() {
+		startOutOfCycleRefresh(null);
+	}
+
+	public synchronized void startOutOfCycleRefresh(long[] expectedByType) {
+		startRefresh(expectedByType);
+		this.outOfCycle = true;
+	}
+
+	// Lowest drop level at which the series of the remaining types fit
+	private static int dropLevel(long[] demandByType, long fit) {
+		long total = 0;
+		for (long d : demandByType) {
+			total += d;
+		}
+		int level = 0;
+		while (total > fit && level < MAX_DROP_RANK) {
+			level++;
+			for (int i = 0; i < demandByType.length; i++) {
+				if (DROP_RANK[i] == level) {
+					total -= demandByType[i];
+				}
+			}
+		}
+		return level;
+	}
+
+	/* Count a series asked for, true if it may be exported */
+	public boolean admit(StreamsObjectType type) {
+		if (!allows(type) || (limit > 0 && DROP_RANK[type.ordinal()] > 0 && admitted.get(ADMITTED) >= limit)) {
+			count(type, DROPPED);
+			return false;
+		}
+		count(type, ADMITTED);
+		return true;
+	}
+
+	// Job series have no rank, they are always exported.  Only the drop level of
+	// the parent applies, its budget is shared by jobs refreshed in parallel
+	private boolean allows(StreamsObjectType type) {
+		int rank = DROP_RANK[type.ordinal()];
+		if (rank > 0 && rank <= dropLevel) {
+			return false;
+		}
+		return parent == null || parent.allows(type);
+	}
+
+	private void count(StreamsObjectType type, int outcome) {
+		demand.incrementAndGet(type.ordinal());
+		admitted.incrementAndGet(outcome);
+		if (parent != null && !outOfCycle) {
+			parent.count(type, outcome);
+		}
+	}
+
+	/* Series that were admitted earlier and are kept without asking again, e.g. unchanged snapshot series */
+	public void readmit(long[] demandByType, int series) {
+		for (int i = 0; i < demandByType.length; i++) {
+			demand.addAndGet(i, demandByType[i]);
+		}
+		admitted.addAndGet(ADMITTED, series);
+		if (parent != null && !outOfCycle) {
+			parent.readmit(demandByType, series);
+		}
+	}
+
+	/* Series asked for by type so far this refresh */
+	public long[] getDemand() {
+		long[] current = new long[DROP_RANK.length];
+		for (int i = 0; i < current.length; i++) {
+			current[i] = demand.get(i);
+		}
+		return current;
+	}
+
+	/* Highest rank of the object types being dropped, including the parent's */
+	public int getDropLevel() {
+		return parent == null ? dropLevel : Math.max(dropLevel, parent.getDropLevel());
+	}
+
+	public long getAdmitted() {
+		return admitted.get(ADMITTED);
+	}
+
+	public long getDropped() {
+		return admitted.get(DROPPED);
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+}
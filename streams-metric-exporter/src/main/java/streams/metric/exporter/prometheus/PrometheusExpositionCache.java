@@ -0,0 +1,145 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.prometheus;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import streams.metric.exporter.metrics.MetricsExporter;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+/*
+ * Metric values only change when the domain tracker refreshes, so the text
+ * exposition is rendered once per refresh generation and the same bytes are
+ * served to every scraper until the next refresh completes.
+ */
+public class PrometheusExpositionCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger("root." + PrometheusExpositionCache.class.getName());
+
+	private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+	// Generations start over when the exporter restarts, prefix them so ETags from one run never match the next
+	private static final String ETAG_PREFIX = Long.toHexString(System.currentTimeMillis());
+
+	// Singleton Pattern
+	static PrometheusExpositionCache singletonCache = null;
+
+	static public synchronized PrometheusExpositionCache getInstance() {
+		if (singletonCache == null) {
+			singletonCache = new PrometheusExpositionCache();
+		}
+		return singletonCache;
+	}
+
+	private final MetricsExporter metricsExporter = PrometheusMetricsExporter.getInstance();
+	private final AtomicLong renders = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private volatile Exposition current = null;
+
+	protected PrometheusExpositionCache() {}
+
+	/*
+	 * Returns the exposition of the given refresh generation, rendering it if
+	 * it is not the one cached
+	 */
+	public Exposition getExposition(long generation) throws IOException {
+		Exposition exposition = current;
+		if (exposition != null && exposition.getGeneration() == generation) {
+			hits.incrementAndGet();
+			return exposition;
+		}
+		synchronized (this) {
+			exposition = current;
+			if (exposition != null && exposition.getGeneration() == generation) {
+				hits.incrementAndGet();
+				return exposition;
+			}
+			renders.incrementAndGet();
+			// Exporter metrics are published as of the render
+			metricsExporter.refreshExporterMetrics();
+			metricsExporter.getStreamsMetric("expositionCache_renders", StreamsObjectType.EXPORTER).set(renders.get());
+			metricsExporter.getStreamsMetric("expositionCache_hits", StreamsObjectType.EXPORTER).set(hits.get());
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(current == null ? WRITER_BUFFER_SIZE : current.plain.length);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+			TextFormat.write004(writer, CollectorRegistry.defaultRegistry.metricFamilySamples());
+			writer.flush();
+
+			exposition = new Exposition(generation, out.toByteArray());
+			LOGGER.trace("Rendered exposition of generation {}, {} bytes", generation, exposition.plain.length);
+			current = exposition;
+			return exposition;
+		}
+	}
+
+	/*
+	 * Immutable rendering of one refresh generation.  The gzip encoding is only
+	 * created if a scraper asks for it.
+	 */
+	public static class Exposition {
+		private final long generation;
+		private final byte[] plain;
+		private final String etag;
+		private final String gzipETag;
+		private byte[] gzip = null;
+
+		Exposition(long generation, byte[] plain) {
+			this.generation = generation;
+			this.plain = plain;
+			this.etag = "\"" + ETAG_PREFIX + "-" + generation + "\"";
+			this.gzipETag = "\"" + ETAG_PREFIX + "-" + generation + "-gzip\"";
+		}
+
+		public long getGeneration() {
+			return generation;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public String getGzipETag() {
+			return gzipETag;
+		}
+
+		public byte[] getPlain() {
+			return plain;
+		}
+
+		public synchronized byte[] getGzip() throws IOException {
+			if (gzip == null) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 8 + 64);
+				GZIPOutputStream gz = new GZIPOutputStream(out);
+				gz.write(plain);
+				gz.close();
+				gzip = out.toByteArray();
+			}
+			return gzip;
+		}
+	}
+}
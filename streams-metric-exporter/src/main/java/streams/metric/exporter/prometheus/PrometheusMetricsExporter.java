@@ -18,11 +18,13 @@ package streams.metric.exporter.prometheus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import io.prometheus.client.Gauge;
@@ -49,7 +51,7 @@ public class PrometheusMetricsExporter extends MetricsExporter {
 		return singletonExporter;
 	}
 
-	final Map<String, Gauge> gaugeMap = new HashMap<String, Gauge>();	
+	final Map<String, Gauge> gaugeMap = new ConcurrentHashMap<String, Gauge>();	
 
   // Prometheus has some rules for valid metric names
   // We will pre-sanitize metric names before using Promethus version
@@ -66,10 +68,48 @@ public class PrometheusMetricsExporter extends MetricsExporter {
         SPACES_PATTERN.matcher(metricName).replaceAll("_")
       ).replaceAll(""));
   }
+
+  // The set of Streams metric names is small, so cache the full name of each
+  // (metric name, object type) rather than running the regular expressions on
+  // every update.  Bounded in case custom metrics use generated names.
+  static final int MAX_CACHED_METRIC_NAMES = 10000;
+  private final Map<StreamsObjectType, ConcurrentHashMap<String, String>> metricNameCache =
+      new EnumMap<StreamsObjectType, ConcurrentHashMap<String, String>>(StreamsObjectType.class);
+  private final AtomicInteger metricNameCacheSize = new AtomicInteger();
+  private final AtomicLong metricNameCacheHits = new AtomicLong();
+  private final AtomicLong metricNameCacheMisses = new AtomicLong();
+
+  {
+    for (StreamsObjectType type : StreamsObjectType.values()) {
+      metricNameCache.put(type, new ConcurrentHashMap<String, String>());
+    }
+  }
+
+  private String getMetricFullName(String metricName, StreamsObjectType type) {
+    ConcurrentHashMap<String, String> typeCache = metricNameCache.get(type);
+    String metricFullName = typeCache.get(metricName);
+    if (metricFullName != null) {
+      metricNameCacheHits.incrementAndGet();
+      return metricFullName;
+    }
+    metricNameCacheMisses.incrementAndGet();
+    metricFullName = getStreamsMetricFullName(sanitizeMetricName(metricName), type);
+    if (metricNameCacheSize.get() < MAX_CACHED_METRIC_NAMES
+        && typeCache.putIfAbsent(metricName, metricFullName) == null) {
+      metricNameCacheSize.incrementAndGet();
+    }
+    return metricFullName;
+  }
+
+	public void refreshExporterMetrics() {
+		getStreamsMetric("metricNameCache_hits", StreamsObjectType.EXPORTER).set(metricNameCacheHits.get());
+		getStreamsMetric("metricNameCache_misses", StreamsObjectType.EXPORTER).set(metricNameCacheMisses.get());
+		getStreamsMetric("metricNameCache_size", StreamsObjectType.EXPORTER).set(metricNameCacheSize.get());
+	}
 	
-	public void createStreamsMetric(String metricName, StreamsObjectType type, String description) {
-    String sanitizedName = sanitizeMetricName(metricName);
-		String metricFullName = getStreamsMetricFullName(sanitizedName, type);
+	// Synchronized so two refresh threads can not both register the same gauge
+	public synchronized void createStreamsMetric(String metricName, StreamsObjectType type, String description) {
+		String metricFullName = getMetricFullName(metricName, type);
 		if (!gaugeMap.containsKey(metricFullName)) {
 			gaugeMap.put(metricFullName,
 					Gauge.build().name(metricFullName).help(description).labelNames(type.metricLabelNames()).register());
@@ -77,38 +117,53 @@ public class PrometheusMetricsExporter extends MetricsExporter {
 	}
 
 	public Metric getStreamsMetric(String metricName, StreamsObjectType type, String... labelValues) {
-    String sanitizedName = sanitizeMetricName(metricName);
-		String metricFullName = getStreamsMetricFullName(sanitizedName, type);
-		if (!gaugeMap.containsKey(metricFullName)) {
+		final String metricFullName = getMetricFullName(metricName, type);
+		// Series already resolved, return the cached handle
+		Metric m = super.getStreamsMetricFromIndex(metricFullName, labelValues);
+		if (m != null) {
+			return m;
+		}
+		Gauge g = gaugeMap.get(metricFullName);
+		if (g == null) {
 			// Create with default help text
 			createStreamsMetric(metricName, type, type.metricDescriptionPrefix() + ": " + metricName);
+			g = gaugeMap.get(metricFullName);
 		}
-		PrometheusMetric pm = new PrometheusMetric(metricFullName, Arrays.asList(labelValues));
-		super.addStreamsMetricToIndex(pm);	
-		return pm;
+		// The child is resolved while removals are locked out, a removal can not
+		// remove it from the gauge between resolving it and indexing the handle
+		final Gauge gauge = g;
+		final List<String> labelList = Arrays.asList(labelValues.clone());
+		return super.addStreamsMetricToIndexIfAbsent(metricFullName, labelList, new MetricFactory() {
+			public Metric create() {
+				return new PrometheusMetric(metricFullName, labelList, gauge);
+			}
+		});
 	}
 	
 	public void removeAllChildStreamsMetrics(String... labelValues) {
 		LOGGER.trace("PROMETHEUS metrics: removeAllChildStreamsMetrics({})",Arrays.asList(labelValues));
-		Set<Metric> metricsToRemove;
-		metricsToRemove = super.removeAllChildMetricsFromIndex(labelValues);
+		Set<Metric> metricsToRemove = super.removeAllChildMetricsFromIndex(labelValues);
 		LOGGER.trace("metricsToRemove.size: {}",metricsToRemove.size());
-		Iterator<Metric> it = metricsToRemove.iterator();
-		while (it.hasNext()) {
-			Metric metric = it.next();
-			if (gaugeMap.containsKey(metric.getName())) {
-				Gauge g = gaugeMap.get(metric.getName());
-				g.remove((String[])metric.getLabelValues().toArray());
-			}
-		}		
 	}
 
 	public void removeStreamsMetric(String metricName, StreamsObjectType type, String... labelValues) {
-    String sanitizedName = sanitizeMetricName(metricName);
-		String metricFullName = getStreamsMetricFullName(sanitizedName, type);
-		if (gaugeMap.containsKey(metricFullName)) {
-			Gauge g = gaugeMap.get(metricFullName);
-			g.remove(labelValues);
+		String metricFullName = getMetricFullName(metricName, type);
+		Metric m = super.getStreamsMetricFromIndex(metricFullName, labelValues);
+		if (m != null) {
+			super.removeStreamsMetricFromIndex(m);
+		}
+	}
+
+	public void removeStreamsMetric(Metric metric) {
+		super.removeStreamsMetricFromIndex(metric);
+	}
+
+	/* Called with the index write lock held, the series can not be indexed again until the child is gone */
+	protected void metricRemovedFromIndex(Metric metric) {
+		Gauge g = getGauge(metric.getName());
+		if (g != null) {
+			List<String> labelValues = metric.getLabelValues();
+			g.remove(labelValues.toArray(new String[labelValues.size()]));
 		}
 	}
 
@@ -119,23 +174,36 @@ public class PrometheusMetricsExporter extends MetricsExporter {
 		return g;
 	}
 
+	/*
+	 * Handle on a single Gauge child.  The child is resolved once when the
+	 * series is first used, set() is then a plain update of the child value.
+	 */
 	class PrometheusMetric extends MetricsExporter.Metric {
-		protected PrometheusMetric(String name, List<String> labelValues) {
+		private final Gauge.Child child;
+
+		protected PrometheusMetric(String name, List<String> labelValues, Gauge gauge) {
 			super(name, labelValues);
+			this.child = resolveChild(gauge);
 		}
 
-		public void set(double val) {
-			Gauge g = getGauge(name);
+		private Gauge.Child resolveChild(Gauge gauge) {
+			if (gauge == null) {
+				LOGGER.debug("Tried to create a metric for a gauge that did not exist name={}",name);
+				return null;
+			}
 			try {
-				if (g != null)
-					g.labels((String[]) labelValues.toArray()).set(val);
-				else {
-					LOGGER.debug("Tried to do a set on a gauge that did not exist name={}",name);
-				}
+				return gauge.labels(labelValues.toArray(new String[labelValues.size()]));
 			} catch (IllegalArgumentException e) {
-				LOGGER.error("Attempting to set Prometheus Metric value returned IllegalArgumentException");
-				LOGGER.error("Metric: name={}, labelValues={}",name,String.join(",",labelValues));
+				LOGGER.error("Attempting to create Prometheus Metric returned IllegalArgumentException");
+				LOGGER.error("Metric: name={}, labelValues={}",name,labelValues);
 				LOGGER.error("This should not occur.  Usually caused by invalid labels for metric.  Get this fixed!!");
+				return null;
+			}
+		}
+
+		public void set(double val) {
+			if (child != null) {
+				child.set(val);
 			}
 		}
 	}
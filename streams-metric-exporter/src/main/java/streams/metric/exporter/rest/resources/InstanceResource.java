@@ -16,6 +16,7 @@
 
 package streams.metric.exporter.rest.resources;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -30,6 +31,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import streams.metric.exporter.error.StreamsTrackerErrorCode;
 import streams.metric.exporter.error.StreamsTrackerException;
 import streams.metric.exporter.streamstracker.instance.StreamsInstanceTracker;
 import streams.metric.exporter.streamstracker.metrics.AllJobMetrics;
@@ -75,9 +77,17 @@ public class InstanceResource {
 
 		AllJobMetrics ajm = sit.getAllJobMetrics();
 
+		// Metrics are streamed by refreshes, they keep the raw json once it has been asked for
+		String allMetrics = null;
+		try {
+			allMetrics = ajm.retrieveAllMetrics();
+		} catch (IOException e) {
+			throw new StreamsTrackerException(StreamsTrackerErrorCode.ALL_METRICS_NOT_AVAILABLE, e);
+		}
+
 		// Create return format
 		InstanceMetricsBody body = new InstanceMetricsBody(sit.getInstanceInfo().getInstanceName(),ajm.getLastMetricsRefresh(), ajm.getLastMetricsFailure(),
-				ajm.isLastMetricsRefreshFailed(), ajm.getAllMetrics());
+				ajm.isLastMetricsRefreshFailed(), ajm.getLastRetrieved(), allMetrics);
 
 		// If the metrics refresh failed, use NOT_MODIFIED so client can
 		// understand we are sending cached info
@@ -101,9 +111,17 @@ public class InstanceResource {
 
 		AllJobSnapshots ajs = sit.getAllJobSnapshots();
 
+		// Refreshes only stream the snapshots of changed jobs, the raw json is retrieved at most once per refresh
+		String allSnapshots = null;
+		try {
+			allSnapshots = ajs.retrieveAllSnapshots();
+		} catch (IOException e) {
+			throw new StreamsTrackerException(StreamsTrackerErrorCode.ALL_SNAPSHOTS_NOT_AVAILABLE, e);
+		}
+
 		// Create return format
 		InstanceSnapshotsBody body = new InstanceSnapshotsBody(sit.getInstanceInfo().getInstanceName(),ajs.getLastSnaphostRefresh(), ajs.getLastSnapshotFailure(),
-				ajs.isLastSnapshotRefreshFailed(), ajs.getAllSnapshots());
+				ajs.isLastSnapshotRefreshFailed(), ajs.getLastRetrieved(), allSnapshots);
 
 		// If the snapshots refresh failed, use NOT_MODIFIED so client can
 		// understand we are sending cached info
@@ -140,16 +158,19 @@ public class InstanceResource {
 		public Date lastMetricsFailure = null;
 		@SuppressWarnings("unused")
 		public boolean lastMetricsRefreshFailed = false;
+		@SuppressWarnings("unused")
+		public Date metricsRetrieved = null;
 		@JsonRawValue
 		public String instanceMetrics;
 
 		public InstanceMetricsBody(String instanceName, Date lastMetricsRefresh, Date lastMetricsFailure, boolean lastMetricsRefreshFailed,
-				String instanceMetrics) {
+				Date metricsRetrieved, String instanceMetrics) {
 			this.instanceName = instanceName;
 
 			this.lastMetricsRefresh = lastMetricsRefresh;
 			this.lastMetricsFailure = lastMetricsFailure;
 			this.lastMetricsRefreshFailed = lastMetricsRefreshFailed;
+			this.metricsRetrieved = metricsRetrieved;
 			this.instanceMetrics = instanceMetrics;
 		}
 	}
@@ -163,15 +184,18 @@ public class InstanceResource {
 		public Date lastSnapshotsFailure = null;
 		@SuppressWarnings("unused")
 		public boolean lastSnapshotsRefreshFailed = false;
+		@SuppressWarnings("unused")
+		public Date snapshotsRetrieved = null;
 		@JsonRawValue
 		public String instanceSnapshots;
 
 		public InstanceSnapshotsBody(String instanceName, Date lastSnapshotsRefresh, Date lastSnapshotsFailure, boolean lastSnapshotsRefreshFailed,
-				String instanceSnapshots) {
+				Date snapshotsRetrieved, String instanceSnapshots) {
 			this.instanceName = instanceName;
 			this.lastSnapshotsRefresh = lastSnapshotsRefresh;
 			this.lastSnapshotsFailure = lastSnapshotsFailure;
 			this.lastSnapshotsRefreshFailed = lastSnapshotsRefreshFailed;
+			this.snapshotsRetrieved = snapshotsRetrieved;
 			this.instanceSnapshots = instanceSnapshots;
 		}
 	}
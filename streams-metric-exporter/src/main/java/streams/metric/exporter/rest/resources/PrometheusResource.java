@@ -19,11 +19,12 @@ package streams.metric.exporter.rest.resources;
 
 
 import java.io.IOException;
-import java.io.StringWriter;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -32,14 +33,17 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.WebApplicationException;
 
-import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 import streams.metric.exporter.error.StreamsTrackerException;
+import streams.metric.exporter.prometheus.PrometheusExpositionCache;
 import streams.metric.exporter.streamstracker.StreamsDomainTracker;
 
 @Path("/{parameter: metrics|prometheus}")
 public class PrometheusResource {
     private static final Logger LOGGER = LoggerFactory.getLogger("root."
             + PrometheusResource.class.getName());
+
+    public static final String GENERATION_HEADER = "X-Streams-Exporter-Generation";
     
     public PrometheusResource() {
     }
@@ -47,7 +51,8 @@ public class PrometheusResource {
     // if Instance does not exist, returns 404
     @GET
     @Produces(MediaType.TEXT_PLAIN)
-    public Response getDomainInfo() throws IOException,
+    public Response getDomainInfo(@HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) throws IOException,
             WebApplicationException,
     		StreamsTrackerException{
     	
@@ -57,13 +62,65 @@ public class PrometheusResource {
         
         LOGGER.trace("/metrics endpoint handler: domainAvailable={}",jobTracker.isDomainAvailable());
         
-        // Create streams_exporter_metrics_available and streams_exporter_instance_available
-        
-    	StringWriter writer = new StringWriter();
-    	
-    	io.prometheus.client.exporter.common.TextFormat.write004(writer, CollectorRegistry.defaultRegistry.metricFamilySamples());
+        // Rendered once per refresh, every scrape until the next refresh gets the same bytes
+        PrometheusExpositionCache.Exposition exposition = PrometheusExpositionCache.getInstance()
+                .getExposition(jobTracker.getRefreshGeneration());
+
+        final boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? exposition.getGzipETag() : exposition.getETag();
 
-        return Response.status(200).entity(writer.toString())
+        Response.ResponseBuilder response;
+        if (matchesETag(ifNoneMatch, etag)) {
+            response = Response.notModified();
+        } else {
+            response = Response.status(200).entity(gzip ? exposition.getGzip() : exposition.getPlain())
+                    .type(TextFormat.CONTENT_TYPE_004);
+            if (gzip) {
+                response.header("Content-Encoding", "gzip");
+            }
+        }
+        return response.header(HttpHeaders.ETAG, etag)
+                .header(GENERATION_HEADER, exposition.getGeneration())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
                 .build();
     }
+
+    static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                // gzip;q=0 means gzip is not acceptable
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
 }
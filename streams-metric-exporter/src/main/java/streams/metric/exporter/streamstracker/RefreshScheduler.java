@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import streams.metric.exporter.metrics.MetricsExporter;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+import streams.metric.exporter.prometheus.PrometheusMetricsExporter;
+
+/*
+ * Runs the automatic refresh.  Each cycle is scheduled once the previous one
+ * has finished, so cycles never overlap and a refresh that overruns its period
+ * does not cause catch-up cycles back to back:
+ *   FIXEDRATE  - cycles start on the refresh rate grid, grid slots that passed
+ *                while a refresh was running are skipped and counted as missed
+ *   FIXEDDELAY - the next cycle starts the refresh rate after the previous ended
+ * A random delay of up to jitter milliseconds is added to every start.
+ */
+public class RefreshScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger("root." + RefreshScheduler.class.getName());
+
+    // A cycle that starts this much later than planned is counted as late
+    private static final long LATE_TOLERANCE_MILLIS = 1000;
+
+    public enum Mode {
+        FIXEDRATE, FIXEDDELAY
+    }
+
+    private final MetricsExporter metricsExporter = PrometheusMetricsExporter.getInstance();
+
+    private final Mode mode;
+    private final long periodMillis;
+    private final long jitterMillis;
+    private final Runnable task;
+    private final ScheduledExecutorService executor;
+
+    // Only used by the scheduler thread
+    private long nextSlot = 0;
+    private long plannedStart = 0;
+    private long lastStart = 0;
+    private long cycles = 0;
+    private long missedCycles = 0;
+    private long lateCycles = 0;
+
+    public RefreshScheduler(Mode mode, long periodMillis, long jitterMillis, Runnable task) {
+        this.mode = mode;
+        this.periodMillis = periodMillis;
+        this.jitterMillis = jitterMillis;
+        this.task = task;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Refresher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void start() {
+        LOGGER.debug("Starting {} refresh schedule, period {}ms, jitter {}ms", mode, periodMillis, jitterMillis);
+        nextSlot = System.currentTimeMillis() + periodMillis;
+        scheduleAt(nextSlot);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void scheduleAt(long slot) {
+        long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0;
+        plannedStart = slot + jitter;
+        executor.schedule(cycle, Math.max(0, plannedStart - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Set the cycle counters.  Called as a cycle starts and by the task before
+     * it publishes its values, so the counters are exposed along with them.
+     * Slots the running cycle has already overrun count as missed.
+     */
+    public void updateExporterMetrics() {
+        long missed = missedCycles;
+        if (mode == Mode.FIXEDRATE) {
+            missed += slotsPassed(nextSlot + periodMillis, System.currentTimeMillis(), periodMillis);
+        }
+        metricsExporter.getStreamsMetric("refreshCycles", StreamsObjectType.EXPORTER).set(cycles);
+        metricsExporter.getStreamsMetric("refreshCyclesMissed", StreamsObjectType.EXPORTER).set(missed);
+        metricsExporter.getStreamsMetric("refreshCyclesLate", StreamsObjectType.EXPORTER).set(lateCycles);
+    }
+
+    /* Grid slots from slot on that are not after time, they passed while a cycle was running */
+    static long slotsPassed(long slot, long time, long periodMillis) {
+        return (slot <= time ? (time - slot) / periodMillis + 1 : 0);
+    }
+
+    private final Runnable cycle = new Runnable() {
+        public void run() {
+            long start = System.currentTimeMillis();
+            cycles++;
+            if (start - plannedStart > LATE_TOLERANCE_MILLIS) {
+                lateCycles++;
+                LOGGER.debug("Refresh started {}ms late", start - plannedStart);
+            }
+            if (lastStart > 0) {
+                metricsExporter.getStreamsMetric("refreshIntervalMilliseconds", StreamsObjectType.EXPORTER)
+                        .set(start - lastStart);
+            }
+            lastStart = start;
+            updateExporterMetrics();
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // Unlike a Timer, keep the schedule alive
+                LOGGER.error("Automatic refresh failed, will try again next cycle", t);
+            }
+
+            long end = System.currentTimeMillis();
+            if (mode == Mode.FIXEDDELAY) {
+                nextSlot = end + periodMillis;
+            } else {
+                nextSlot += periodMillis;
+                long missed = slotsPassed(nextSlot, end, periodMillis);
+                if (missed > 0) {
+                    missedCycles += missed;
+                    nextSlot += missed * periodMillis;
+                    LOGGER.debug("Refresh took {}ms, skipping {} cycle(s)", end - start, missed);
+                }
+            }
+
+            if (!executor.isShutdown()) {
+                scheduleAt(nextSlot);
+            }
+        }
+    };
+}
@@ -17,14 +17,25 @@
 package streams.metric.exporter.streamstracker;
 
 import java.net.MalformedURLException;
-import java.util.TimerTask;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 
@@ -44,9 +55,13 @@ import streams.metric.exporter.Constants;
 import streams.metric.exporter.ServiceConfig;
 import streams.metric.exporter.error.StreamsTrackerErrorCode;
 import streams.metric.exporter.error.StreamsTrackerException;
+import streams.metric.exporter.httpclient.WebClient;
 import streams.metric.exporter.jmx.JmxServiceContext;
 import streams.metric.exporter.jmx.MXBeanSource;
 import streams.metric.exporter.jmx.MXBeanSourceProviderListener;
+import streams.metric.exporter.metrics.MetricAggregation;
+import streams.metric.exporter.metrics.MetricFilter;
+import streams.metric.exporter.metrics.MetricRates;
 import streams.metric.exporter.metrics.MetricsExporter;
 import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
 import streams.metric.exporter.prometheus.PrometheusMetricsExporter;
@@ -116,6 +131,46 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
      * INSTANCE MAP
      **************************************/
     private InstanceTrackerMap instanceTrackerMap = null;
+
+    /*****************************************
+     * INSTANCE REFRESH THREADS
+     **************************************/
+    private ExecutorService instanceRefreshExecutor = null;
+
+    /*****************************************
+     * JOB REFRESH POOL
+     * Work stealing pool shared by all instances, null when jobs are
+     * processed on the instance refresh thread
+     **************************************/
+    private ForkJoinPool jobRefreshPool = null;
+
+    /*****************************************
+     * AUTOMATIC REFRESH SCHEDULER
+     **************************************/
+    private RefreshScheduler refreshScheduler = null;
+
+    /*****************************************
+     * INSTANCE REFRESH SCHEDULES
+     * Instances with their own refresh rate are only refreshed by the
+     * domain refresh once their rate has passed
+     **************************************/
+    private Map<String, Integer> instanceRefreshRates = null;
+    private final Map<String, Long> instanceLastRefresh = new ConcurrentHashMap<String, Long>();
+
+    /*****************************************
+     * REFRESH GENERATION
+     * Incremented each time a refresh or reset has published new values
+     **************************************/
+    private final AtomicLong refreshGeneration = new AtomicLong();
+
+    /*****************************************
+     * ON-DEMAND REFRESH (NO_REFRESH)
+     **************************************/
+    private final Object onDemandLock = new Object();
+    private final AtomicLong refreshesStarted = new AtomicLong();
+    private volatile long lastRefreshCompleted = 0;
+    private long onDemandRefreshes = 0;
+    private long onDemandCoalesced = 0;
   
 
     /*************************************************************
@@ -154,19 +209,40 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
         }
         
         if (domainTrackerSingleton.refreshRateSeconds == Constants.NO_REFRESH) {
-        		LOGGER.debug("DOMAIN: On-demand refresh of metrics and snapshots...");
-        		domainTrackerSingleton.refresh();
+        		domainTrackerSingleton.refreshOnDemand();
         }   
         return domainTrackerSingleton;
     }   
     
+    /*
+     * Concurrent requests share one refresh: a request waiting for a refresh
+     * in progress is answered by the next refresh that started after it
+     * arrived, and within the max age by the last completed refresh
+     */
+    private void refreshOnDemand() {
+        long startedBeforeRequest = refreshesStarted.get();
+        synchronized (onDemandLock) {
+            if (refreshesStarted.get() > startedBeforeRequest
+                    || System.currentTimeMillis() - lastRefreshCompleted <= config.getRefreshMaxAge()) {
+                LOGGER.trace("DOMAIN: On-demand request answered by the last refresh");
+                onDemandCoalesced++;
+                metricsExporter.getStreamsMetric("onDemandCoalesced", StreamsObjectType.EXPORTER).set(onDemandCoalesced);
+            } else {
+                LOGGER.debug("DOMAIN: On-demand refresh of metrics and snapshots...");
+                onDemandRefreshes++;
+                // Set before the refresh so the count is published with its values
+                metricsExporter.getStreamsMetric("onDemandRefreshes", StreamsObjectType.EXPORTER).set(onDemandRefreshes);
+                refresh();
+            }
+        }
+    }
+    
     
     /***************************************************************
-     * AUTOMATIC REFRESH TIMER TASK
+     * AUTOMATIC REFRESH TASK
      ***************************************************************/
     
-    private TimerTask refresher = new TimerTask() {
-        @Override
+    private Runnable refresher = new Runnable() {
         public void run() {
     			LOGGER.debug("DOMAIN: Automatic refresh of metrics and snapshots...");
             refresh();
@@ -188,8 +264,35 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
         this.protocol = protocol;
         this.jmxContext.getBeanSourceProvider().addBeanSourceProviderListener(this);
         this.requestedInstances = requestedInstances;
+        this.instanceRefreshRates = config.getInstanceRefreshRateMap();
+        MetricFilter.getInstance().setRules(config.getMetricFilterRules());
+        MetricAggregation.getInstance().setRules(config.getAggregationRules());
+        MetricRates.getInstance().setPatterns(config.getRatePatterns());
         
         instanceTrackerMap = new InstanceTrackerMap();
+        instanceRefreshExecutor = Executors.newFixedThreadPool(config.getRefreshThreads(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "InstanceRefresher-" + threadNumber.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        if (config.getJobThreads() > 1) {
+            jobRefreshPool = new ForkJoinPool(config.getJobThreads(),
+                    new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                            t.setName("JobRefresher-" + threadNumber.getAndIncrement());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, null, false);
+        }
         // Are we tracking all instances
         if (requestedInstances.size() == 0) {
         		this.trackAllInstances = true;
@@ -206,11 +309,11 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
         initStreamsDomain(true);
 
         if (this.autoRefresh != true) {
-        	LOGGER.debug("Refresh rate set to {}, setting up timer process",this.refreshRateSeconds);
-        	// Create timer to automatically refresh the status and metrics
-        	Timer timer = new Timer("Refresher");
-        	timer.scheduleAtFixedRate(refresher, this.refreshRateSeconds * 1000,
-                refreshRateSeconds * 1000);
+        	LOGGER.debug("Refresh rate set to {}, setting up refresh scheduler",this.refreshRateSeconds);
+        	// Create scheduler to automatically refresh the status and metrics
+        	refreshScheduler = new RefreshScheduler(config.getRefreshScheduleMode(),
+        			this.refreshRateSeconds * 1000L, config.getRefreshJitter(), refresher);
+        	refreshScheduler.start();
         } else {
         	LOGGER.debug("Refresh rate set to NO_REFRESH, Refreshes will be on-demand, not automatic");
         }
@@ -244,6 +347,8 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
             timers = new LinkedHashMap<String, Long>();
         }
 		
+        long refreshStart = System.currentTimeMillis();
+        refreshesStarted.incrementAndGet();
         try {
         	//*** REFRESH LOGIC ***
             
@@ -273,25 +378,16 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
             
             
             // Refresh Instances
-            LOGGER.trace("Loop over instances we are tracking...");
-            Iterator<Map.Entry<String, StreamsInstanceTracker>> iit = this.getInstanceTrackerMap().entrySet().iterator();
-            while (iit.hasNext()) {
-                    Map.Entry<String, StreamsInstanceTracker> InstanceEntry = iit.next();
-                    
-                    LOGGER.trace("Retrieved StreamsInstanceTracker for instance: {}",InstanceEntry.getKey());
-            		StreamsInstanceTracker sit = InstanceEntry.getValue();    
-                    
-                    LOGGER.trace("  Calling refresh on instance");
-            		sit.refresh();
-            		
-            		if (LOGGER.isDebugEnabled()) {
-            			stopwatch.stop();
-            			timers.put("refreshInstance(" + sit.getInstanceInfo().getInstanceName() + ")",stopwatch.getTime());
-            			stopwatch.reset();
-            			stopwatch.start();
-            		}
+            refreshInstances(timers);
+            metricsExporter.getStreamsMetric("refreshMilliseconds", StreamsObjectType.EXPORTER)
+                    .set(System.currentTimeMillis() - refreshStart);
+            updateExportedHttpClientMetrics();
+            updateExportedFilterMetrics();
+            
+            if (LOGGER.isDebugEnabled()) {
+                stopwatch.stop();
+                timers.put("refreshInstances", stopwatch.getTime());
             }
-            LOGGER.trace("Instance loop done");
             
             if (LOGGER.isDebugEnabled()) {
             		outerwatch.stop();
@@ -327,7 +423,128 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
                     "DOMAIN Refresh Unexpected Exception: {}.  Report so it can be caught appropriately.",
                     e);
             resetDomainTracker();
-        }		
+        } finally {
+            lastRefreshCompleted = System.currentTimeMillis();
+            // Exporter metrics about this refresh are published with its values
+            if (refreshScheduler != null) {
+                refreshScheduler.updateExporterMetrics();
+            }
+            refreshGeneration.incrementAndGet();
+        }
+    }
+
+    /*
+     * Instances without their own rate are refreshed by every domain refresh.
+     * Half a domain refresh period of slack keeps an instance rate that is a
+     * multiple of the refresh rate from slipping a cycle because of jitter.
+     */
+    private boolean isInstanceRefreshDue(String instanceName) {
+        Integer rateSeconds = instanceRefreshRates.get(instanceName);
+        Long lastStart = instanceLastRefresh.get(instanceName);
+        if (rateSeconds == null || lastStart == null) {
+            return true;
+        }
+        long slack = this.refreshRateSeconds * 1000L / 2;
+        return System.currentTimeMillis() - lastStart + slack >= rateSeconds * 1000L;
+    }
+
+    /*
+     * Generation of the metric values, changes when a refresh has completed
+     */
+    public long getRefreshGeneration() {
+        return refreshGeneration.get();
+    }
+
+    /*
+     * Called by instance trackers that changed metric values outside of a
+     * refresh, e.g. when handling job notifications
+     */
+    public void metricsChanged() {
+        refreshGeneration.incrementAndGet();
+    }
+
+    /* Pool shared by the instance trackers to process jobs, null when jobs are processed on the refresh thread */
+    public ForkJoinPool getJobRefreshPool() {
+        return jobRefreshPool;
+    }
+
+    /******************************************************************
+     * REFRESH INSTANCES
+     * 
+     * Instance trackers are independent of each other so they are
+     * refreshed concurrently on the instance refresh threads.  Waits for
+     * every instance to finish before returning so a refresh is complete
+     * before metrics are published.  The first exception thrown by an
+     * instance refresh is re-thrown once all of them are done.
+     *****************************************************************/
+    private void refreshInstances(LinkedHashMap<String, Long> timers) throws StreamsTrackerException {
+        LOGGER.trace("Submit refresh of instances we are tracking...");
+        
+        final Map<String, Future<Long>> refreshes = new LinkedHashMap<String, Future<Long>>();
+        Iterator<Map.Entry<String, StreamsInstanceTracker>> iit = this.getInstanceTrackerMap().entrySet().iterator();
+        while (iit.hasNext()) {
+            Map.Entry<String, StreamsInstanceTracker> InstanceEntry = iit.next();
+            
+            LOGGER.trace("Retrieved StreamsInstanceTracker for instance: {}",InstanceEntry.getKey());
+            final StreamsInstanceTracker sit = InstanceEntry.getValue();
+            final String instanceName = InstanceEntry.getKey();
+            
+            if (!isInstanceRefreshDue(instanceName)) {
+                LOGGER.trace("  Instance {} is not due for a refresh", instanceName);
+                continue;
+            }
+            
+            refreshes.put(instanceName, instanceRefreshExecutor.submit(new Callable<Long>() {
+                public Long call() throws StreamsTrackerException {
+                    LOGGER.trace("  Calling refresh on instance {}", instanceName);
+                    long start = System.currentTimeMillis();
+                    Long lastStart = instanceLastRefresh.put(instanceName, start);
+                    if (lastStart != null) {
+                        metricsExporter.getStreamsMetric("refreshIntervalMilliseconds", StreamsObjectType.EXPORTER_INSTANCE,
+                                domainName, instanceName).set(start - lastStart);
+                    }
+                    sit.refresh();
+                    long refreshTime = System.currentTimeMillis() - start;
+                    metricsExporter.getStreamsMetric("refreshMilliseconds", StreamsObjectType.EXPORTER_INSTANCE,
+                            domainName, instanceName).set(refreshTime);
+                    return refreshTime;
+                }
+            }));
+        }
+        
+        // Wait for all of them, remember the first failure
+        Throwable failure = null;
+        for (Map.Entry<String, Future<Long>> refresh : refreshes.entrySet()) {
+            try {
+                long refreshTime = refresh.getValue().get();
+                if (timers != null) {
+                    timers.put("refreshInstance(" + refresh.getKey() + ")", refreshTime);
+                }
+            } catch (ExecutionException e) {
+                LOGGER.debug("Refresh of instance {} failed: {}", refresh.getKey(), e.getCause());
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for instance refreshes to complete");
+                for (Future<Long> f : refreshes.values()) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        LOGGER.trace("Instance refreshes done");
+        
+        if (failure instanceof StreamsTrackerException) {
+            throw (StreamsTrackerException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new StreamsTrackerException(failure);
+        }
     }
 
     /*******************************************************************************
@@ -452,6 +669,7 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
         domainInfo.close();
         removeExportedDomainMetrics();
         createExportedDomainMetrics();
+        refreshGeneration.incrementAndGet();
     }
     
     
@@ -597,7 +815,7 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
 				LOGGER.debug("    Instance ({}) not currently being tracked, initializing instance tracking...", instanceName);
 				try {
 					StreamsInstanceTracker newInstanceTracker = new StreamsInstanceTracker(this.jmxContext,
-							this.domainName,
+							this,
                             instanceName,
                             this.isAutoRefresh(),
 							this.config);
@@ -618,6 +836,7 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
 				LOGGER.debug("    Instance ({}) no longer needs to be tracked.  Removing from Instance Tracker Map.",curInstance);
 				instanceTrackerMap.getInstanceTracker(curInstance).close();
 				instanceTrackerMap.removeInstanceTrackerFromMap(curInstance);
+				instanceLastRefresh.remove(curInstance);
 			}
 		}
 		LOGGER.debug("*** Setting streams instances to track complete.");
@@ -670,6 +889,30 @@ public class StreamsDomainTracker implements NotificationListener, MXBeanSourceP
         }
     }
     
+    private void updateExportedHttpClientMetrics() {
+        WebClient webClient = this.jmxContext.getWebClient();
+        metricsExporter.getStreamsMetric("httpRequests", StreamsObjectType.EXPORTER).set(webClient.getRequestCount());
+        metricsExporter.getStreamsMetric("httpFailedRequests", StreamsObjectType.EXPORTER).set(webClient.getFailedRequestCount());
+        metricsExporter.getStreamsMetric("httpConnections", StreamsObjectType.EXPORTER).set(webClient.getConnectionCount());
+        metricsExporter.getStreamsMetric("httpActiveRequests", StreamsObjectType.EXPORTER).set(webClient.getActiveRequestCount());
+        metricsExporter.getStreamsMetric("httpBytesReceived", StreamsObjectType.EXPORTER).set(webClient.getBytesReceived());
+        metricsExporter.getStreamsMetric("httpBytesDecoded", StreamsObjectType.EXPORTER).set(webClient.getBytesDecoded());
+    }
+    
+    /* Series kept and dropped by each metric filter rule, nothing when there are no rules */
+    private void updateExportedFilterMetrics() {
+        MetricFilter metricFilter = MetricFilter.getInstance();
+        if (!metricFilter.isEnabled()) {
+            return;
+        }
+        List<MetricFilter.Rule> rules = new ArrayList<MetricFilter.Rule>(metricFilter.getRules());
+        rules.add(metricFilter.getDefaultRule());
+        for (MetricFilter.Rule rule : rules) {
+            metricsExporter.getStreamsMetric("samplesKept", StreamsObjectType.EXPORTER_FILTER, rule.getText()).set(rule.getKept());
+            metricsExporter.getStreamsMetric("samplesDropped", StreamsObjectType.EXPORTER_FILTER, rule.getText()).set(rule.getDropped());
+        }
+    }
+
     private double getDomainStatusAsMetric() {
             double value = 0;
             if (this.isDomainAvailable()) {
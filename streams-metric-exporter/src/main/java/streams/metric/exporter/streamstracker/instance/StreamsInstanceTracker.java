@@ -18,25 +18,54 @@ package streams.metric.exporter.streamstracker.instance;
 
 import java.net.MalformedURLException;
 import java.text.Format;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.Date;
 import java.text.SimpleDateFormat;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigInteger;
 
 import javax.management.InstanceNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.apache.commons.lang.time.StopWatch;
+import com.ibm.streams.management.Notifications;
+import com.ibm.streams.management.ObjectNameBuilder;
 import com.ibm.streams.management.instance.InstanceMXBean;
+import com.ibm.streams.management.job.JobMXBean;
 import com.ibm.streams.management.resource.ResourceMXBean;
 
 import streams.metric.exporter.ServiceConfig;
@@ -45,13 +74,21 @@ import streams.metric.exporter.error.StreamsTrackerException;
 import streams.metric.exporter.jmx.JmxServiceContext;
 import streams.metric.exporter.jmx.MXBeanSource;
 import streams.metric.exporter.jmx.MXBeanSourceProviderListener;
+import streams.metric.exporter.metrics.MetricRates;
 import streams.metric.exporter.metrics.MetricsExporter;
 import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+import streams.metric.exporter.metrics.SeriesBudget;
 import streams.metric.exporter.prometheus.PrometheusMetricsExporter;
+import streams.metric.exporter.streamstracker.StreamsDomainTracker;
 import streams.metric.exporter.streamstracker.job.JobDetails;
 import streams.metric.exporter.streamstracker.job.JobMap;
+import streams.metric.exporter.streamstracker.job.JobTrackingFilter;
 import streams.metric.exporter.streamstracker.metrics.AllJobMetrics;
+import streams.metric.exporter.streamstracker.metrics.JobMetrics;
+import streams.metric.exporter.streamstracker.metrics.PeMetrics;
 import streams.metric.exporter.streamstracker.snapshots.AllJobSnapshots;
+import streams.metric.exporter.streamstracker.snapshots.JobSnapshot;
+import streams.metric.exporter.streamstracker.snapshots.PeSnapshot;
 import com.ibm.streams.management.Metric;
 
 /*
@@ -66,9 +103,11 @@ import com.ibm.streams.management.Metric;
  *  		* Update JobMap using snapshot lists
  *  Notification of Instance change
  *  		* Update Instance Info
+ *  Notification of Job added, removed or changed
+ *  		* Retrieve the snapshots of those jobs and update the JobMap
+ *  		  so the full snapshot is only a periodic consistency check
  */
-//public class StreamsInstanceTracker implements NotificationListener, MXBeanSourceProviderListener {
-public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
+public class StreamsInstanceTracker implements NotificationListener, MXBeanSourceProviderListener {
         private static final Logger LOGGER = LoggerFactory.getLogger("root."
             + StreamsInstanceTracker.class.getName());
 
@@ -98,6 +137,62 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
     /* Job Map */
     private JobMap jobMap = null;
 
+    /* When snapshots and resource metrics were last retrieved, they can have their own interval */
+    private long lastSnapshotRefresh = 0;
+    private long lastResourceRefresh = 0;
+    private volatile boolean snapshotsStale = true;
+    private long snapshotsReconciled = 0;
+
+    /* Resource roles by resource id, written by the resource fetch and cleared by resetTracker */
+    private final Map<String, ResourceRoles> resourceRoleCache = new ConcurrentHashMap<String, ResourceRoles>();
+
+    /* Resources with status and role series, so the series are removed when they no longer apply */
+    private Set<String> statusResources = new HashSet<String>();
+    private Set<String> applicationResources = new HashSet<String>();
+    private Set<String> serviceResources = new HashSet<String>();
+
+    /* Pool for processing jobs in parallel, null to process them on the refresh thread */
+    private ForkJoinPool jobRefreshPool = null;
+
+    /* Domain tracker, told when job notifications change metric values between refreshes */
+    private StreamsDomainTracker domainTracker = null;
+
+    /* Jobs tracked for this instance, null to track all of them, and whether each job is tracked */
+    private JobTrackingFilter jobTrackingFilter = null;
+    private final Map<BigInteger, Boolean> jobTracked = new ConcurrentHashMap<BigInteger, Boolean>();
+
+    /* Series budget shared by the jobs of this instance, parent of the budget of each job */
+    private SeriesBudget seriesBudget = null;
+
+    /* Jobs from notifications waiting to be applied, true if the job was removed */
+    private final Map<String, Boolean> pendingJobChanges = new ConcurrentHashMap<String, Boolean>();
+    private final AtomicBoolean jobChangesScheduled = new AtomicBoolean(false);
+    private final AtomicLong jobNotifications = new AtomicLong();
+
+    /* Jobs whose topology was rebuilt or kept since the last refresh started, guarded by the tracker lock */
+    private int jobsTopologyRebuilt = 0;
+    private int jobsTopologyUnchanged = 0;
+
+    /*
+     * Threads for the resource and job metrics round trips of each refresh, for
+     * applying job notifications, and for the resource status reads of the
+     * resource fetch.  At most one resource fetch, one metrics fetch and one
+     * notification batch run at a time, each can run alongside the others,
+     * plus at most RESOURCE_STATUS_READERS status reads.  FETCH_THREADS covers
+     * all of them at once, so no task waits in the queue for a thread held by
+     * a task that waits for it, e.g. the resource fetch for its status reads.
+     * Created when first needed, shut down by resetTracker and close.
+     */
+    private static final int RESOURCE_STATUS_READERS = 4;
+    private static final int FETCH_THREADS = 3 + RESOURCE_STATUS_READERS;
+    private static final AtomicInteger fetchThreadNumber = new AtomicInteger(1);
+    private final Object fetchExecutorLock = new Object();
+    private ExecutorService fetchExecutor = null;
+
+    /* Parsed job metrics waiting for the refresh thread, the fetch pauses while it is full */
+    private static final int JOB_METRICS_QUEUE_SIZE = 64;
+    private static final JobMetrics END_OF_JOB_METRICS = new JobMetrics(null, Collections.<PeMetrics>emptyList());
+
 
     /**************************************************************************
      * Constructor
@@ -106,14 +201,20 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
      * confused with streams instance
      ***************************************************************************/
     public StreamsInstanceTracker(JmxServiceContext jmxContext,
-            String domainName, String instanceName, boolean autoRefresh,
+            StreamsDomainTracker domainTracker, String instanceName, boolean autoRefresh,
             ServiceConfig config) throws StreamsTrackerException {
         LOGGER.debug("** Initializing StreamsInstanceTracker for: " + instanceName);
         this.config = config;
         this.jmxContext = jmxContext;
-        this.domainName = domainName;
+        this.domainTracker = domainTracker;
+        this.domainName = domainTracker.getDomainName();
         this.instanceInfo.setInstanceName(instanceName);
         this.autoRefresh = autoRefresh;
+        this.jobRefreshPool = domainTracker.getJobRefreshPool();
+        if (config.getJobTrackingFilter().appliesTo(instanceName)) {
+            this.jobTrackingFilter = config.getJobTrackingFilter();
+        }
+        this.seriesBudget = new SeriesBudget(config.getInstanceSeriesBudget(), null);
         this.jmxContext.getBeanSourceProvider().addBeanSourceProviderListener(this);
 
         initStreamsInstanceTracker();
@@ -134,6 +235,7 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
      *     * Job Metrics Handler
      *     * Job Snapshot Handler
      *     * Job Map
+     *   Register for job notifications
      * 
      *******************************************************************************/
     private synchronized void initStreamsInstanceTracker() throws StreamsTrackerException {
@@ -143,7 +245,7 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
         setInstanceInfo();
 
         // Initialize Snapshots Handler
-        LOGGER.debug("  Initialize or clear Snapshots Handler (allJobSnapshots)");
+        LOGGER.debug("  Initialize Snapshots Handler (allJobSnapshots)");
 
         try {
             if (allJobSnapshots == null) {
@@ -151,9 +253,9 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
                 this.domainName,
                 this.instanceInfo.getInstanceName(),
                 this.config.getJmxHttpHost(), 
-                this.config.getJmxHttpPort());
-            } else {
-                allJobSnapshots.clear();
+                this.config.getJmxHttpPort(),
+                this.config.getSnapshotDepth(),
+                this.config.isSnapshotStatic());
             }
         } catch (IOException e) {
             LOGGER.warn("JMX IO Exception when initializing all job snapshots, resetting the tracker: " + e.getLocalizedMessage());
@@ -161,7 +263,7 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
         }
 
         // Initialize Metrics Handler
-        LOGGER.debug("  Initialize or clear Metrics Handler (allJobMetrics)");
+        LOGGER.debug("  Initialize Metrics Handler (allJobMetrics)");
         try {
             if (allJobMetrics == null) {
                 allJobMetrics = new AllJobMetrics(this.jmxContext, 
@@ -169,8 +271,6 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
                 this.instanceInfo.getInstanceName(),
                 this.config.getJmxHttpHost(), 
                 this.config.getJmxHttpPort());
-            } else {
-                allJobMetrics.clear();
             }
         } catch (IOException e) {
             LOGGER.warn("JMX IO Exception when initializing all job metrics, resetting the tracker: " + e.getLocalizedMessage());
@@ -190,10 +290,56 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
 
         createExportedInstanceMetrics();
 
+        if (this.instanceInfo.isInstanceAvailable()) {
+            LOGGER.debug("  Register for Job Notifications");
+            registerJobNotifications();
+        }
+
         LOGGER.debug("DONE...initStreamsInstanceTracker()");
     }
 
 
+    /***************************************************************************************
+     *   R E G I S T E R   J O B   N O T I F I C A T I O N S
+     * 
+     *   Failing to register is not fatal, jobs are still discovered by the job snapshots
+     * 
+     **************************************************************************************/
+    private void registerJobNotifications() {
+        try {
+            MXBeanSource beanSource = jmxContext.getBeanSourceProvider().getBeanSource();
+            ObjectName instanceObjName = ObjectNameBuilder.instance(this.domainName, this.instanceInfo.getInstanceName());
+            NotificationFilterSupport filter = new NotificationFilterSupport();
+            filter.disableAllTypes();
+            filter.enableType(Notifications.JOB_ADDED);
+            filter.enableType(Notifications.JOB_REMOVED);
+            filter.enableType(Notifications.JOB_CHANGED);
+
+            // Remove any existing notification listener
+            try {
+                beanSource.getMBeanServerConnection()
+                        .removeNotificationListener(instanceObjName, this);
+            } catch (Exception e) {
+                // Ignore because we do not care if this fails
+            }
+            beanSource.getMBeanServerConnection().addNotificationListener(
+                    instanceObjName, this, filter, null);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to register for job notifications of instance '{}', jobs will only be discovered by job snapshots: {}",
+                    this.instanceInfo.getInstanceName(), e.toString());
+        }
+    }
+
+    private void unregisterJobNotifications() {
+        try {
+            jmxContext.getBeanSourceProvider().getBeanSource().getMBeanServerConnection()
+                    .removeNotificationListener(ObjectNameBuilder.instance(this.domainName, this.instanceInfo.getInstanceName()), this);
+        } catch (Exception e) {
+            // Ignore because the connection or instance may already be gone
+        }
+    }
+
+
     /***************************************************************************************
      *   S E T   I N S T A N C E   I N F O
      * 
@@ -290,18 +436,27 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
         if (this.allJobMetrics != null) {
         	this.allJobMetrics.setLastMetricsFailure(new Date());
             this.allJobMetrics.setLastMetricsRefreshFailed(true);
-            this.allJobMetrics.clear();
         }
         // Set Snapshot Failure on metrics Object
         if (this.allJobSnapshots != null) {
         	this.allJobSnapshots.setLastSnapshotFailure(new Date());
             this.allJobSnapshots.setLastSnapshotRefreshFailed(true);
-            this.allJobSnapshots.clear();
         }
         // Clear Job Map
         if (this.jobMap != null) {
             this.jobMap.clear();
         }
+        // Fetches already submitted finish on the old threads, new ones get new threads
+        shutdownFetchExecutor();
+        // Roles, snapshots and resources are retrieved again once the instance is back
+        this.resourceRoleCache.clear();
+        this.statusResources = new HashSet<String>();
+        this.applicationResources = new HashSet<String>();
+        this.serviceResources = new HashSet<String>();
+        this.pendingJobChanges.clear();
+        this.jobTracked.clear();
+        this.snapshotsStale = true;
+        this.lastResourceRefresh = 0;
         LOGGER.debug("  removeExportedInstanceMetrics()...");
         removeExportedInstanceMetrics();
         LOGGER.debug("  createExportedInstanceMetrics()...");
@@ -374,31 +529,79 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
                 this.domainName, this.instanceInfo.getInstanceName()).set(this.instanceInfo.getInstanceCreationTime());
 
 
-                    
-            LOGGER.trace("** Calling updateInstanceResourceMetrics()");
-            updateInstanceResourceMetrics();
-        
+
+            // Snapshots and metrics are only retrieved for the tracked jobs
+            if (jobTrackingFilter != null) {
+                updateTrackedJobs();
+                if (LOGGER.isDebugEnabled()) {
+                    stopwatch.stop();
+                    timers.put("Update Tracked Jobs",stopwatch.getTime());
+                    stopwatch.reset();
+                    stopwatch.start();
+                }
+            }
+
+            // Metrics are retrieved every refresh, snapshots and resources only when their interval has passed.
+            // Rates need the current launch count of each pe, the shallow snapshot has it and only
+            // jobs whose pes were restarted have their complete snapshot retrieved
+            long now = System.currentTimeMillis();
+            boolean snapshotsDue = snapshotsStale || MetricRates.getInstance().isEnabled()
+                    || isDue(lastSnapshotRefresh, now, this.config.getSnapshotInterval());
+            boolean resourcesDue = isDue(lastResourceRefresh, now, this.config.getResourceInterval());
+
+            // The resource and job metrics round trips are independent of the snapshots
+            // until the jobs are refreshed, so issue them concurrently on fetch threads
+            LOGGER.trace("** Submitting resource and job metrics fetches");
+            Future<InstanceResourceFetch> resourceFetch = null;
+            if (resourcesDue) {
+                resourceFetch = getFetchExecutor().submit(new Callable<InstanceResourceFetch>() {
+                    public InstanceResourceFetch call() throws StreamsTrackerException {
+                        return fetchInstanceResourceMetrics();
+                    }
+                });
+            }
+            final AllJobMetrics fetchJobMetrics = this.allJobMetrics;
+            final BlockingQueue<JobMetrics> fetchedMetrics = new ArrayBlockingQueue<JobMetrics>(JOB_METRICS_QUEUE_SIZE);
+            Future<Void> metricsFetch = getFetchExecutor().submit(new Callable<Void>() {
+                public Void call() throws IOException, StreamsTrackerException {
+                    fetchAllJobMetrics(fetchJobMetrics, fetchedMetrics);
+                    return null;
+                }
+            });
+
+            if (snapshotsDue) {
+            	LOGGER.trace("** Calling updateAllJobSnapshots(true)");
+                updateAllJobSnapshots(true);
+            }
             if (LOGGER.isDebugEnabled()) {
                 stopwatch.stop();
-                timers.put("Update Instance Resource Metrics",stopwatch.getTime());
+                timers.put("Update All Job Snapshots",stopwatch.getTime());
                 stopwatch.reset();
                 stopwatch.start();
             }
 
-        	LOGGER.trace("** Calling updateAllJobSnapshots(true)");
-            updateAllJobSnapshots(true);
+            if (resourceFetch != null) {
+                LOGGER.trace("** Calling updateInstanceResourceMetrics()");
+                try {
+                    updateInstanceResourceMetrics(waitForFetch(resourceFetch));
+                    lastResourceRefresh = now;
+                } catch (IOException e) {
+                    // fetchInstanceResourceMetrics wraps its IOExceptions, here for completeness
+                    throw new StreamsTrackerException("JMX IO Exception when retrieving instance bean", e);
+                }
+            }
             if (LOGGER.isDebugEnabled()) {
                 stopwatch.stop();
-                timers.put("Update All Job Snapshots",stopwatch.getTime());
+                timers.put("Wait for and Update Instance Resource Metrics",stopwatch.getTime());
                 stopwatch.reset();
                 stopwatch.start();
             }
 
-        	LOGGER.trace("** Calling updateAllJobMetrics(true)");
-            updateAllJobMetrics(true);
+        	LOGGER.trace("** Calling updateAllJobMetrics()");
+            updateAllJobMetrics(metricsFetch, fetchedMetrics, snapshotsDue);
             if (LOGGER.isDebugEnabled()) {
                 stopwatch.stop();
-                timers.put("Update All Job Metrics",stopwatch.getTime());
+                timers.put("Wait for and Update All Job Metrics",stopwatch.getTime());
                 stopwatch.reset();
                 stopwatch.start();
             }
@@ -440,11 +643,88 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
         // Get currently tracked jobs
         if (jobMap != null) {
             Set<String> currentJobIds = new HashSet<String>(jobMap.getJobIds());
-
-            LOGGER.debug("Refresh All Jobs, number of jobs: {}", currentJobIds.size());
+            List<JobDetails> jobs = new ArrayList<JobDetails>(currentJobIds.size());
             for (String jobId : currentJobIds) {
                 JobDetails jd = jobMap.getJob(jobId);
+                if (jd != null) {
+                    jobs.add(jd);
+                }
+            }
+
+            LOGGER.debug("Refresh All Jobs, number of jobs: {}", jobs.size());
+            // What the instance drops this cycle follows the series all jobs are about to ask for
+            long[] plannedSeries = null;
+            if (seriesBudget.isEnabled()) {
+                plannedSeries = new long[StreamsObjectType.values().length];
+                for (JobDetails jd : jobs) {
+                    long[] jobSeries = jd.planRefresh();
+                    for (int i = 0; i < plannedSeries.length; i++) {
+                        plannedSeries[i] += jobSeries[i];
+                    }
+                }
+            }
+            seriesBudget.startRefresh(plannedSeries);
+            if (jobRefreshPool == null || jobs.size() < 2) {
+                for (JobDetails jd : jobs) {
+                    jd.refresh(jd.getJobSnapshot(),jd.getJobMetrics());
+                }
+            } else {
+                // Jobs share no state other than the thread safe metrics exporter
+                jobRefreshPool.invoke(new RefreshJobsTask(jobs, 0, jobs.size()));
+            }
+
+            int rebuilt = 0;
+            for (JobDetails jd : jobs) {
+                if (jd.isTopologyRebuilt()) {
+                    rebuilt++;
+                }
+            }
+            LOGGER.debug("Rebuilt topology of {} jobs, {} unchanged", rebuilt, jobs.size() - rebuilt);
+            jobsTopologyRebuilt = rebuilt;
+            jobsTopologyUnchanged = jobs.size() - rebuilt;
+            updateTopologyMetrics();
+            if (seriesBudget.isEnabled() || config.getJobSeriesBudget() > 0) {
+                metricsExporter.getStreamsMetric("series_current", StreamsObjectType.EXPORTER_INSTANCE,
+                        this.domainName, this.instanceInfo.getInstanceName()).set(seriesBudget.getAdmitted());
+                metricsExporter.getStreamsMetric("series_dropped", StreamsObjectType.EXPORTER_INSTANCE,
+                        this.domainName, this.instanceInfo.getInstanceName()).set(seriesBudget.getDropped());
+            }
+        }
+    }
+
+    /* Jobs whose topology was rebuilt or kept since the last refresh started, by the refresh and by notifications */
+    private void updateTopologyMetrics() {
+        metricsExporter.getStreamsMetric("jobsTopologyRebuilt", StreamsObjectType.EXPORTER_INSTANCE,
+                this.domainName, this.instanceInfo.getInstanceName()).set(jobsTopologyRebuilt);
+        metricsExporter.getStreamsMetric("jobsTopologyUnchanged", StreamsObjectType.EXPORTER_INSTANCE,
+                this.domainName, this.instanceInfo.getInstanceName()).set(jobsTopologyUnchanged);
+    }
+
+    /*
+     * Splits the jobs in half until a single job is left so idle workers can
+     * steal the remaining halves, a few large jobs do not hold up the others
+     */
+    private static class RefreshJobsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<JobDetails> jobs;
+        private final int from;
+        private final int to;
+
+        RefreshJobsTask(List<JobDetails> jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                JobDetails jd = jobs.get(from);
                 jd.refresh(jd.getJobSnapshot(),jd.getJobMetrics());
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RefreshJobsTask(jobs, from, middle), new RefreshJobsTask(jobs, middle, to));
             }
         }
     }
@@ -453,7 +733,7 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
     /***********************************************************
      * Add Job to job map
      ***********************************************************/
-    private synchronized void addJobToMap(String jobid, String jobname, String jobSnapshot) {
+    private synchronized void addJobToMap(String jobid, String jobname, JobSnapshot jobSnapshot) {
         LOGGER.trace("AddJobToMap({})...", jobid);
 
         JobDetails jd = new JobDetails(this, jobid, jobname);
@@ -481,80 +761,101 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
      * 
      * Triggered by: Refresh
      * 
+     * Job snapshots are streamed from the server and each job is applied to
+     * the job map as soon as it is parsed.  Once jobs are tracked only a
+     * shallow snapshot of all jobs is retrieved, the complete snapshots are
+     * retrieved for the jobs that are new or whose state, health or PEs changed.
      ********************************************************************************/
     private synchronized void updateAllJobSnapshots(boolean refreshFromServer)
             throws StreamsTrackerException {
         LOGGER.trace("***** Entered updateAllJobSnapshots, refreshFromServer {}",
                 refreshFromServer);
         
-        // Current Job IDs for use in determine missing jobs or jobs that need to be removed
-        Set<String> currentJobIds = null;
-        
         if (this.allJobSnapshots != null) {
-            // Refresh Snapshots if requested
+            // Snapshots are not cached, nothing to do unless we are retrieving them
             if (refreshFromServer) {
+                // Current Job IDs for use in determine missing jobs or jobs that need to be removed
+                final Set<String> currentJobIds = new HashSet<String>(jobMap.getJobIds());
+                final Set<BigInteger> changedJobIds = new HashSet<BigInteger>();
+                boolean shallow = !currentJobIds.isEmpty();
+
                 try {
-                    this.allJobSnapshots.refresh();
+                    if (shallow) {
+                        this.allJobSnapshots.refreshShallow(new AllJobSnapshots.JobSnapshotHandler() {
+                            public void handleJobSnapshot(JobSnapshot jobSnapshot) {
+                                String jobId = jobSnapshot.getId();
+                                currentJobIds.remove(jobId);
+                                JobDetails jd = jobMap.getJob(jobId);
+                                if (jd == null || jd.getJobSnapshot() == null
+                                        || !jd.getJobSnapshot().matchesShallow(jobSnapshot)) {
+                                    LOGGER.trace("Job ({}) is new or changed, retrieving its complete snapshot", jobId);
+                                    changedJobIds.add(new BigInteger(jobId));
+                                }
+                            }
+                        });
+                    } else {
+                        this.allJobSnapshots.refresh(new AllJobSnapshots.JobSnapshotHandler() {
+                            public void handleJobSnapshot(JobSnapshot jobSnapshot) {
+                                applyJobSnapshot(jobSnapshot);
+                            }
+                        });
+                    }
                 } catch (IOException e) {
                     LOGGER.error("Updating all snapshots received IO Exception from JMX Connection Pool.  Resetting monitor.  Exception Message: "
                             + e.getLocalizedMessage());
                     resetTracker();
+                    return;
                 }
-            }
 
-            if (allJobSnapshots.isLastSnapshotRefreshFailed()) {
-                LOGGER.debug("updateAllJobSnapshots, isLastSnapshotRefreshFailed is true");
-            } else {
-                // We retrieved them successfully
-                
-                    // Get currently tracked jobs
-                    currentJobIds = new HashSet<String>(jobMap.getJobIds());
-                    
-                    // Get the snapshot json
-                String allSnapshots = this.allJobSnapshots.getAllSnapshots();
-
-                // Parse and update each jobInfo
-                if (allSnapshots != null) {
-
-                    try {
-                        JSONParser parser = new JSONParser();
-                        JSONObject snapshotsObject = (JSONObject) parser
-                                .parse(allSnapshots);
-                        JSONArray jobArray = (JSONArray) snapshotsObject
-                                .get("jobs");
-
-                        for (int j = 0; j < jobArray.size(); j++) {
-                            JSONObject jobObject = (JSONObject) jobArray.get(j);
-                            String jobId = (String) jobObject.get("id");
-                            String jobname = (String) jobObject.get("name");
-                            JobDetails jd = jobMap.getJob(jobId);
-                            if (jd != null) {
-                                jd.setJobSnapshot(jobObject.toString());
-                                // Remove it from our set we are using to check for jobs no longer existing
-                                LOGGER.trace("Updated snapshot for jobId({}), removing from set used to track leftovers",jobId);
-                                currentJobIds.remove(jobId);
+                if (allJobSnapshots.isLastSnapshotRefreshFailed()) {
+                    LOGGER.debug("updateAllJobSnapshots, isLastSnapshotRefreshFailed is true");
+                } else {
+                    // We retrieved them successfully, only now is it safe to decide what is missing
+                    // Are there any jobs in the map that we did not get snapshots for?  Remove them
+                    if (!currentJobIds.isEmpty()) {
+                        LOGGER.trace("There are jobs in the job map that we did not receive a snapshot for, removing them...");
+                        for (String jobId : currentJobIds) {
+                            LOGGER.warn("Removing JobId({})",jobId);
+                            removeJobFromMap(jobId);
+                        }
+                    }
 
-                            } else {
-                                LOGGER.info("Adding new job({}): {}", jobId, jobname);
-                                addJobToMap(jobId,jobname,jobObject.toString());
-                            }
+                    if (!changedJobIds.isEmpty()) {
+                        LOGGER.debug("Retrieving complete snapshots of {} new or changed jobs", changedJobIds.size());
+                        // Jobs removed since the shallow snapshot was taken do not come back
+                        final Set<String> missingJobIds = new HashSet<String>();
+                        for (BigInteger id : changedJobIds) {
+                            missingJobIds.add(id.toString());
                         }
-                        
-                        // Are there any jobs in the map that we did not get snapshots for?  Remove them
-                        if (!currentJobIds.isEmpty()) {
-                                LOGGER.trace("There are jobs in the job map that we did not receive a snapshot for, removing them...");
-                                for (String jobId : currentJobIds) {
-                                    LOGGER.warn("Removing JobId({})",jobId);
-                                    removeJobFromMap(jobId);
+                        try {
+                            this.allJobSnapshots.refreshJobs(changedJobIds, new AllJobSnapshots.JobSnapshotHandler() {
+                                public void handleJobSnapshot(JobSnapshot jobSnapshot) {
+                                    missingJobIds.remove(jobSnapshot.getId());
+                                    applyJobSnapshot(jobSnapshot);
                                 }
+                            });
+                        } catch (IOException e) {
+                            LOGGER.error("Updating changed job snapshots received IO Exception from JMX Connection Pool.  Resetting monitor.  Exception Message: "
+                                    + e.getLocalizedMessage());
+                            resetTracker();
+                            return;
+                        } catch (StreamsTrackerException e) {
+                            // Try them again with the next refresh
+                            snapshotsStale = true;
+                            throw e;
+                        }
+                        for (String jobId : missingJobIds) {
+                            if (jobMap.getJob(jobId) != null) {
+                                LOGGER.warn("Removing JobId({})",jobId);
+                                removeJobFromMap(jobId);
+                            }
                         }
-                        
-                    } catch (Exception e) {
-                        LOGGER.error("Exception Parsing Snapsnots JSON...exiting");
-                        LOGGER.error(e.toString());
-                        e.printStackTrace();
-                        System.exit(1);
                     }
+
+                    lastSnapshotRefresh = System.currentTimeMillis();
+                    snapshotsStale = false;
+                    metricsExporter.getStreamsMetric("jobsSnapshotRetrieved", StreamsObjectType.EXPORTER_INSTANCE,
+                            this.domainName, this.instanceInfo.getInstanceName()).set(shallow ? changedJobIds.size() : jobMap.size());
                 }
             }
         } else {
@@ -563,71 +864,491 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
 
         LOGGER.trace("Exit updateAllJobSnapshots");
     }    
+
+    /* Give a job its new snapshot, adding it to the job map if it is new */
+    private void applyJobSnapshot(JobSnapshot jobSnapshot) {
+        String jobId = jobSnapshot.getId();
+        JobDetails jd = jobMap.getJob(jobId);
+        if (jd != null) {
+            jd.setJobSnapshot(jobSnapshot);
+        } else {
+            LOGGER.info("Adding new job({}): {}", jobId, jobSnapshot.getName());
+            addJobToMap(jobId,jobSnapshot.getName(),jobSnapshot);
+        }
+    }
     
+    /********************************************************************************
+     * fetchAllJobMetrics
+     * 
+     * Runs on a fetch thread: job metrics are streamed from the server and
+     * queued for the refresh thread as each job is parsed, the end of the
+     * jobs is always queued.  Must not touch the job map or call synchronized
+     * methods of the tracker, refresh() holds the lock while it waits for us
+     ********************************************************************************/
+    private void fetchAllJobMetrics(AllJobMetrics fetchJobMetrics, final BlockingQueue<JobMetrics> fetched)
+            throws IOException, StreamsTrackerException {
+        try {
+            if (fetchJobMetrics != null) {
+                fetchJobMetrics.refresh(new AllJobMetrics.JobMetricsHandler() {
+                    public void handleJobMetrics(JobMetrics jobMetrics) {
+                        queueJobMetrics(fetched, jobMetrics);
+                    }
+                });
+            }
+        } finally {
+            queueJobMetrics(fetched, END_OF_JOB_METRICS);
+        }
+    }
+
+    /* Cancelling the fetch interrupts a fetch thread waiting for the refresh thread */
+    private static void queueJobMetrics(BlockingQueue<JobMetrics> fetched, JobMetrics jobMetrics) {
+        try {
+            fetched.put(jobMetrics);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Job metrics fetch cancelled");
+        }
+    }
+
     /********************************************************************************
      * updateAllJobMetrics
      * 
      * Triggered by: Refresh
+     * 
+     * Hands the metrics of each job to its JobDetails as the fetch parses
+     * them, only the metrics of jobs that are not in the job map are held
+     * until the snapshots are reconciled
      ********************************************************************************/
-    private synchronized void updateAllJobMetrics(boolean refreshFromServer)
-            throws StreamsTrackerException {
-        LOGGER.trace("***** Entered updateAllJobMetrics, refreshFromServer {}",
-                refreshFromServer);
+    private synchronized void updateAllJobMetrics(Future<Void> metricsFetch, BlockingQueue<JobMetrics> fetchedMetrics,
+            boolean snapshotsRefreshed) throws StreamsTrackerException {
+        LOGGER.trace("***** Entered updateAllJobMetrics");
         
-        // Refresh Metrics if requested
         if (this.allJobMetrics != null) {
-            if (refreshFromServer) {
-                try {
-                    this.allJobMetrics.refresh();
-                } catch (IOException e) {
-                    LOGGER.error("Updating all metrics received IO Exception from JMX Connection Pool.  Resetting monitor.  Exception Message: "
-                            + e.getLocalizedMessage());
-                    resetTracker();
+            boolean drained = false;
+            try {
+                // Snapshots not retrieved this refresh must still describe the jobs the metrics are for
+                Set<String> metricsJobIds = new HashSet<String>();
+                List<JobMetrics> unknownJobs = new ArrayList<JobMetrics>();
+                boolean snapshotsMatch = true;
+                JobMetrics jobMetrics;
+                while ((jobMetrics = takeJobMetrics(metricsFetch, fetchedMetrics)) != END_OF_JOB_METRICS) {
+                    String jobId = jobMetrics.getId();
+                    metricsJobIds.add(jobId);
+                    JobDetails jd = jobMap.getJob(jobId);
+                    if (!snapshotsRefreshed && !snapshotMatches(jd, jobMetrics)) {
+                        snapshotsMatch = false;
+                    }
+                    if (jd != null) {
+                        jd.setJobMetrics(jobMetrics);
+                    } else {
+                        unknownJobs.add(jobMetrics);
+                    }
+                }
+                drained = true;
+                waitForFetch(metricsFetch);
+
+                if (!snapshotsRefreshed && (!snapshotsMatch || !jobMap.getJobIds().equals(metricsJobIds))) {
+                    LOGGER.debug("Jobs or PEs changed since the last snapshots were retrieved, retrieving them now");
+                    snapshotsReconciled++;
+                    metricsExporter.getStreamsMetric("snapshotsReconciled", StreamsObjectType.EXPORTER_INSTANCE,
+                            this.domainName, this.instanceInfo.getInstanceName()).set(snapshotsReconciled);
+                    updateAllJobSnapshots(true);
+                }
+                for (JobMetrics unknownJob : unknownJobs) {
+                    String jobId = unknownJob.getId();
+                    JobDetails jd = jobMap.getJob(jobId);
+                    if (jd != null) {
+                        jd.setJobMetrics(unknownJob);
+                    } else {
+                        LOGGER.warn(
+                                "Received Metrics for jobId({}) that is not found in the current job map, should be rectified by updateAllSnapshots, if it persists, report an issue.",
+                                jobId);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("Updating all metrics received IO Exception from JMX Connection Pool.  Resetting monitor.  Exception Message: "
+                        + e.getLocalizedMessage());
+                resetTracker();
+            } finally {
+                // Do not leave the fetch thread waiting for us to take more jobs
+                if (!drained) {
+                    metricsFetch.cancel(true);
                 }
             }
 
             if (allJobMetrics.isLastMetricsRefreshFailed()) {
                 LOGGER.debug("updateAllJobMetrics, isLastMetricsRefreshFailed is true");
+            }
+        } else {
+            LOGGER.error("Attempted to update metrics but did not have an allJobMetrics object available");
+        }
 
-            } else {
-                // We retrieved them successfully
-                String allMetrics = this.allJobMetrics.getAllMetrics();
+        LOGGER.trace("Exit updateAllJobMetrics");
 
-                // Parse and update each jobInfo
-                if (allMetrics != null) {
+    }
 
-                    try {
-                        JSONParser parser = new JSONParser();
-                        JSONObject metricsObject = (JSONObject) parser
-                                .parse(allMetrics);
-                        JSONArray jobArray = (JSONArray) metricsObject
-                                .get("jobs");
-                        for (int j = 0; j < jobArray.size(); j++) {
-                            JSONObject jobObject = (JSONObject) jobArray.get(j);
-                            String jobId = (String) jobObject.get("id");
-                            JobDetails jd = jobMap.getJob(jobId);
-                            if (jd != null) {
-                                jd.setJobMetrics(jobObject.toString());
-                            } else {
-                                LOGGER.warn(
-                                        "Received Metrics for jobId({}) that is not found in the current job map, should be rectified by updateAllSnapshots, if it persists, report an issue.",
-                                        jobId);
-                            }
+    /* Next job parsed by the fetch, or what the fetch threw if it ended without queueing the end */
+    private JobMetrics takeJobMetrics(Future<Void> metricsFetch, BlockingQueue<JobMetrics> fetchedMetrics)
+            throws IOException, StreamsTrackerException {
+        try {
+            JobMetrics jobMetrics;
+            while ((jobMetrics = fetchedMetrics.poll(1, TimeUnit.SECONDS)) == null) {
+                if (metricsFetch.isDone() && fetchedMetrics.isEmpty()) {
+                    waitForFetch(metricsFetch);
+                    return END_OF_JOB_METRICS;
+                }
+            }
+            return jobMetrics;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamsTrackerException("Interrupted waiting for job metrics", e);
+        }
+    }
+
+    /* Does the snapshot of the job have the PEs of its metrics */
+    private boolean snapshotMatches(JobDetails jd, JobMetrics jobMetrics) {
+        JobSnapshot jobSnapshot = jd == null ? null : jd.getJobSnapshot();
+        if (jobSnapshot == null || jobSnapshot.getPes().size() != jobMetrics.getPes().size()) {
+            return false;
+        }
+        Set<String> snapshotPeIds = new HashSet<String>();
+        for (PeSnapshot pe : jobSnapshot.getPes()) {
+            snapshotPeIds.add(pe.getId());
+        }
+        for (PeMetrics pe : jobMetrics.getPes()) {
+            if (!snapshotPeIds.contains(pe.getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Has the interval passed since the last retrieval, half a refresh period
+     * early counts so an interval that is a multiple of the refresh rate
+     * does not slip a cycle
+     */
+    private boolean isDue(long lastRetrieval, long now, int intervalSeconds) {
+        long slack = this.config.getRefreshRateSeconds() * 1000L / 2;
+        return now - lastRetrieval + slack >= intervalSeconds * 1000L;
+    }
+
+    /*
+     * Have the next refresh retrieve job snapshots whatever the snapshot interval
+     */
+    public void invalidateSnapshots() {
+        snapshotsStale = true;
+    }
+
+    /**************************************************************************
+     * Streams Instance handleNotification
+     * 
+     * Job lifecycle notifications are queued and applied on a fetch thread,
+     * the JMX notification thread must not wait for a refresh to release
+     * the tracker lock
+     **************************************************************************/
+    public void handleNotification(Notification notification, Object handback) {
+        try {
+            String notificationType = notification.getType();
+            LOGGER.trace("Streams Instance Notification: " + notification
+                    + "; User Data: " + notification.getUserData());
+
+            String jobId = getNotificationJobId(notification);
+            if (jobId == null) {
+                LOGGER.debug("Job notification {} without a job id, retrieving all job snapshots next refresh", notificationType);
+                invalidateSnapshots();
+                return;
+            }
+
+            switch (notificationType) {
+                case Notifications.JOB_ADDED:
+                case Notifications.JOB_CHANGED:
+                    LOGGER.debug("Job ({}) added or changed, retrieving its snapshot", jobId);
+                    pendingJobChanges.put(jobId, Boolean.FALSE);
+                    break;
+                case Notifications.JOB_REMOVED:
+                    LOGGER.debug("Job ({}) removed, removing it from the job map", jobId);
+                    pendingJobChanges.put(jobId, Boolean.TRUE);
+                    break;
+                default:
+                    return;
+            }
+            metricsExporter.getStreamsMetric("jobNotifications", StreamsObjectType.EXPORTER_INSTANCE,
+                    this.domainName, this.instanceInfo.getInstanceName()).set(jobNotifications.incrementAndGet());
+
+            scheduleJobChanges();
+        } catch (Exception e) {
+            LOGGER.error("Streams Instance Notification Handler caught exception: {}", e.toString());
+        }
+    }
+
+    /* Job id from the user data of the notification, or the id key of the job bean that sent it */
+    private String getNotificationJobId(Notification notification) {
+        Object userData = notification.getUserData();
+        if (userData instanceof BigInteger || userData instanceof Long || userData instanceof String) {
+            return userData.toString();
+        }
+        if (notification.getSource() instanceof ObjectName) {
+            return ((ObjectName) notification.getSource()).getKeyProperty("id");
+        }
+        return null;
+    }
+
+    /*
+     * One batch of job changes is applied at a time, changes that arrive
+     * while a batch is being applied go in the next one
+     */
+    private void scheduleJobChanges() {
+        if (jobChangesScheduled.compareAndSet(false, true)) {
+            try {
+                getFetchExecutor().submit(new Runnable() {
+                    public void run() {
+                        try {
+                            applyJobChanges();
+                        } catch (Exception e) {
+                            LOGGER.warn("Applying job notifications failed, retrieving all job snapshots next refresh: {}", e.toString());
+                            invalidateSnapshots();
+                        } finally {
+                            jobChangesScheduled.set(false);
+                        }
+                        if (!pendingJobChanges.isEmpty()) {
+                            scheduleJobChanges();
                         }
-                    } catch (Exception e) {
-                        LOGGER.error("Exception Parsing Metrics JSON...exiting");
-                        LOGGER.error(e.toString());
-                        e.printStackTrace();
-                        System.exit(1);
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                // The tracker was reset or closed, the next refresh retrieves all job snapshots
+                pendingJobChanges.clear();
+                jobChangesScheduled.set(false);
+            }
+        }
+    }
+
+    /* Fetch threads of this tracker, not synchronized on the tracker so notifications never wait for a refresh */
+    private ExecutorService getFetchExecutor() {
+        synchronized (fetchExecutorLock) {
+            if (fetchExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS,
+                        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "InstanceFetcher-" + fetchThreadNumber.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                // Idle trackers do not keep threads around
+                executor.allowCoreThreadTimeOut(true);
+                fetchExecutor = executor;
+            }
+            return fetchExecutor;
+        }
+    }
+
+    /* Submitted fetches still run, their threads exit once they are done */
+    private void shutdownFetchExecutor() {
+        synchronized (fetchExecutorLock) {
+            if (fetchExecutor != null) {
+                fetchExecutor.shutdown();
+                fetchExecutor = null;
+            }
+        }
+    }
+
+    /*
+     * Runs on a fetch thread: retrieves the snapshots of the added and changed
+     * jobs without the tracker lock, then updates the job map with it
+     */
+    private void applyJobChanges() {
+        Set<String> removedJobIds = new HashSet<String>();
+        Set<BigInteger> changedJobIds = new HashSet<BigInteger>();
+        for (String jobId : new ArrayList<String>(pendingJobChanges.keySet())) {
+            Boolean removed = pendingJobChanges.remove(jobId);
+            if (removed == null) {
+                continue;
+            }
+            if (removed) {
+                removedJobIds.add(jobId);
+            } else {
+                try {
+                    changedJobIds.add(new BigInteger(jobId));
+                } catch (NumberFormatException e) {
+                    LOGGER.debug("Job notification with invalid job id ({}), retrieving all job snapshots next refresh", jobId);
+                    invalidateSnapshots();
                 }
             }
-        } else {
-            LOGGER.error("Attempted to update metrics but did not have an allJobMetrics object available");
         }
 
-        LOGGER.trace("Exit updateAllJobMetrics");
+        // Jobs that are not tracked are left alone, they were never added to the job map
+        if (jobTrackingFilter != null) {
+            for (String jobId : removedJobIds) {
+                jobTracked.remove(new BigInteger(jobId));
+            }
+            try {
+                MXBeanSource beanSource = jmxContext.getBeanSourceProvider().getBeanSource();
+                InstanceMXBean instanceBean = beanSource.getInstanceBean(this.domainName, this.instanceInfo.getInstanceName());
+                for (Iterator<BigInteger> it = changedJobIds.iterator(); it.hasNext();) {
+                    if (!isJobTracked(beanSource, instanceBean, it.next())) {
+                        it.remove();
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Deciding if changed jobs are tracked failed, retrieving all job snapshots next refresh: {}", e.toString());
+                invalidateSnapshots();
+                changedJobIds.clear();
+            }
+        }
+
+        final Map<String, JobSnapshot> changedSnapshots = new HashMap<String, JobSnapshot>();
+        AllJobSnapshots fetchSnapshots = this.allJobSnapshots;
+        if (!changedJobIds.isEmpty() && fetchSnapshots != null) {
+            try {
+                fetchSnapshots.refreshJobs(changedJobIds, new AllJobSnapshots.JobSnapshotHandler() {
+                    public void handleJobSnapshot(JobSnapshot jobSnapshot) {
+                        changedSnapshots.put(jobSnapshot.getId(), jobSnapshot);
+                    }
+                });
+            } catch (IOException | StreamsTrackerException e) {
+                LOGGER.debug("Retrieving snapshots of changed jobs failed, retrieving all job snapshots next refresh: {}", e.toString());
+                invalidateSnapshots();
+                changedJobIds.clear();
+            }
+        }
+
+        // Publish the changed jobs, and the notification count that was set as they arrived
+        updateJobsFromNotifications(removedJobIds, changedJobIds, changedSnapshots);
+        domainTracker.metricsChanged();
+    }
+
+    /*
+     * Adds, refreshes or removes the notified jobs, a changed job without a
+     * snapshot was removed before its snapshot was taken.  Returns true if
+     * the job map changed.
+     */
+    private synchronized boolean updateJobsFromNotifications(Set<String> removedJobIds,
+            Set<BigInteger> changedJobIds, Map<String, JobSnapshot> changedSnapshots) {
+        // The next refresh initializes the instance and retrieves all job snapshots
+        if (!this.instanceInfo.isInstanceAvailable() || jobMap == null) {
+            return false;
+        }
+
+        boolean changed = false;
+        for (String jobId : removedJobIds) {
+            if (jobMap.getJob(jobId) != null) {
+                LOGGER.info("Removing job({}), it was removed from the instance", jobId);
+                removeJobFromMap(jobId);
+                changed = true;
+            }
+        }
+        for (BigInteger id : changedJobIds) {
+            String jobId = id.toString();
+            JobSnapshot jobSnapshot = changedSnapshots.get(jobId);
+            JobDetails jd = jobMap.getJob(jobId);
+            if (jobSnapshot == null) {
+                if (jd != null) {
+                    LOGGER.info("Removing job({}), it no longer has a snapshot", jobId);
+                    removeJobFromMap(jobId);
+                    changed = true;
+                }
+            } else {
+                if (jd == null) {
+                    LOGGER.info("Adding new job({}): {}", jobId, jobSnapshot.getName());
+                    addJobToMap(jobId, jobSnapshot.getName(), jobSnapshot);
+                    // Snapshot series are exported now, metrics follow with the next refresh
+                    jd = jobMap.getJob(jobId);
+                    jd.refreshOutOfCycle(jobSnapshot, null);
+                } else {
+                    jd.refreshOutOfCycle(jobSnapshot, jd.getJobMetrics());
+                }
+                if (jd.isTopologyRebuilt()) {
+                    jobsTopologyRebuilt++;
+                } else {
+                    jobsTopologyUnchanged++;
+                }
+                changed = true;
+            }
+        }
+        if (changed) {
+            updateTopologyMetrics();
+        }
+        return changed;
+    }
 
+    /*
+     * Decide which jobs of the instance are tracked and limit the snapshots
+     * and metrics to them.  Job names and groups do not change so each job
+     * is only looked up the first time it is seen.
+     */
+    private void updateTrackedJobs() throws StreamsTrackerException {
+        Set<BigInteger> trackedJobIds = new HashSet<BigInteger>();
+        int jobCount = 0;
+        try {
+            MXBeanSource beanSource = jmxContext.getBeanSourceProvider().getBeanSource();
+            InstanceMXBean instanceBean = beanSource.getInstanceBean(this.domainName, this.instanceInfo.getInstanceName());
+            Set<BigInteger> jobIds = instanceBean.getJobs();
+            jobCount = jobIds.size();
+            jobTracked.keySet().retainAll(jobIds);
+            for (BigInteger jobId : jobIds) {
+                if (isJobTracked(beanSource, instanceBean, jobId)) {
+                    trackedJobIds.add(jobId);
+                }
+            }
+        } catch (UndeclaredThrowableException e) {
+            Throwable t = e.getUndeclaredThrowable();
+            if (t instanceof IOException) {
+                throw new StreamsTrackerException("JMX IO Exception when retrieving the jobs of the instance", t);
+            }
+            throw e;
+        } catch (IOException e) {
+            throw new StreamsTrackerException("JMX IO Exception when retrieving the jobs of the instance", e);
+        }
+        LOGGER.debug("Instance ({}) tracking {} of {} jobs", this.instanceInfo.getInstanceName(), trackedJobIds.size(), jobCount);
+        this.allJobSnapshots.setJobIds(trackedJobIds);
+        this.allJobMetrics.setJobIds(trackedJobIds);
+        metricsExporter.getStreamsMetric("jobsNotTracked", StreamsObjectType.EXPORTER_INSTANCE,
+                this.domainName, this.instanceInfo.getInstanceName()).set(jobCount - trackedJobIds.size());
+    }
+
+    /* Does the job match the job filter, a job that can not be looked up is not tracked this time */
+    private boolean isJobTracked(MXBeanSource beanSource, InstanceMXBean instanceBean, BigInteger jobId) throws IOException {
+        Boolean tracked = jobTracked.get(jobId);
+        if (tracked == null) {
+            try {
+                instanceBean.registerJob(jobId);
+                JobMXBean job = beanSource.getJobBean(this.domainName, this.instanceInfo.getInstanceName(), jobId);
+                tracked = jobTrackingFilter.isTracked(this.instanceInfo.getInstanceName(), job.getName(), job.getJobGroup());
+                jobTracked.put(jobId, tracked);
+            } catch (UndeclaredThrowableException e) {
+                if (e.getUndeclaredThrowable() instanceof IOException) {
+                    throw (IOException) e.getUndeclaredThrowable();
+                }
+                LOGGER.debug("Unable to look up job ({}), it may have been removed: {}", jobId, e.getUndeclaredThrowable().toString());
+                return false;
+            }
+        }
+        return tracked;
+    }
+
+    /* Wait for a fetch submitted by refresh(), re-throwing what it threw */
+    private <T> T waitForFetch(Future<T> fetch) throws IOException, StreamsTrackerException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            fetch.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new StreamsTrackerException("Interrupted waiting for instance fetch to complete", e);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t instanceof StreamsTrackerException) {
+                throw (StreamsTrackerException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new StreamsTrackerException(t);
+        }
     }
     
     
@@ -635,6 +1356,10 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
      
     
     
+    public SeriesBudget getSeriesBudget() {
+        return seriesBudget;
+    }
+
     public ServiceConfig getConfig() {
 		return config;
 	}
@@ -702,55 +1427,74 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
     private synchronized void updateInstanceResourceMetrics() throws StreamsTrackerException {
         verifyInstanceExists();
 
+        updateInstanceResourceMetrics(fetchInstanceResourceMetrics());
+    }
+
+    /*
+     * Retrieve resource metrics, status and roles from JMX.  Does not touch
+     * tracker state so it can run on a fetch thread while the tracker is locked
+     * by refresh()
+     */
+    private InstanceResourceFetch fetchInstanceResourceMetrics() throws StreamsTrackerException {
         MXBeanSource beanSource = null;
-        
-        Map<String, Map<String, Long>> prevInstanceResourceMetrics = new HashMap<String, Map<String, Long>>(instanceResourceMetrics);
+        String instanceName = this.instanceInfo.getInstanceName();
+        InstanceResourceFetch fetch = new InstanceResourceFetch();
                 
         try {
             beanSource = jmxContext.getBeanSourceProvider().getBeanSource();
 
-            InstanceMXBean instance = beanSource.getInstanceBean(domainName,
-                this.instanceInfo.getInstanceName());
+            InstanceMXBean instance = beanSource.getInstanceBean(domainName, instanceName);
 
             Map<String, Set<Metric>> jmxResourceMetrics = instance.retrieveResourceMetrics(false);
-            instanceResourceMetrics.clear();
             for (Map.Entry<String, Set<Metric>> jmxEntry : jmxResourceMetrics.entrySet()) {
                 Map<String, Long> metrics = new HashMap<String, Long>();
                 for (Metric m : jmxEntry.getValue()) {
                     metrics.put(m.getName(), m.getValue());
                 }
 
-                instanceResourceMetrics.put(jmxEntry.getKey(), metrics);
+                fetch.resourceMetrics.put(jmxEntry.getKey(), metrics);
             }
-            
-            instanceResourceMetricsLastUpdated = System.currentTimeMillis();
-
 
             // Attempt to get resource status by retrieving each resourceMXBean
             // Resource Role is a special type of metric that allows graphs to be limited
             // to resources within a role and also allows resources to have multiple roles (e.g. application and service)
  
+            // Status is an operation per instance, there is no bulk read of it, so the calls
+            // are made a few at a time.  Roles almost never change so they are cached and
+            // only retrieved again when they expire
+            long now = System.currentTimeMillis();
+            long roleTtlMillis = this.config.getResourceRoleTtl() * 1000L;
+            int roleLookups = 0;
             Set<String> resourceIDs = instance.getResources();
+            fetch.resourceStatus.putAll(readResourceStatus(beanSource, resourceIDs, instanceName));
             for (String resourceId : resourceIDs) {         
-                ResourceMXBean resource = beanSource.getResourceBean(domainName, resourceId);
-                ResourceMXBean.Status resourceStatus = resource.getStatus(this.instanceInfo.getInstanceName());
-                boolean isApplicationResource = resource.isApplicationResource(this.instanceInfo.getInstanceName());
-                boolean isServiceResource = (resource.isDomainServiceResource() || resource.isInstanceServiceResource(this.instanceInfo.getInstanceName()));
-                metricsExporter.getStreamsMetric("status", StreamsObjectType.RESOURCE,
-                    this.domainName, this.instanceInfo.getInstanceName(), resourceId).set(getResourceStatusAsMetric(resourceStatus));
-                if (isApplicationResource) {
-                    metricsExporter.getStreamsMetric("role", StreamsObjectType.RESOURCE_ROLE,
-                        this.domainName, this.instanceInfo.getInstanceName(), resourceId, "application").set(1);
+                ResourceRoles roles = resourceRoleCache.get(resourceId);
+                if (roles == null || now - roles.retrieved >= roleTtlMillis) {
+                    try {
+                        ResourceMXBean resource = beanSource.getResourceBean(domainName, resourceId);
+                        roles = new ResourceRoles(resource.isApplicationResource(instanceName),
+                                resource.isDomainServiceResource() || resource.isInstanceServiceResource(instanceName),
+                                now);
+                        resourceRoleCache.put(resourceId, roles);
+                        roleLookups++;
+                    } catch (RuntimeException e) {
+                        // Expired roles are still better than none, they are retrieved again next time
+                        LOGGER.warn("Could not read the roles of resource {}: {}", resourceId, e.toString());
+                        if (roles == null) {
+                            continue;
+                        }
+                    }
                 }
-                if (isServiceResource) {
-                    metricsExporter.getStreamsMetric("role", StreamsObjectType.RESOURCE_ROLE,
-                        this.domainName, this.instanceInfo.getInstanceName(), resourceId, "service").set(1);
+                if (roles.application) {
+                    fetch.applicationResources.add(resourceId);
+                }
+                if (roles.service) {
+                    fetch.serviceResources.add(resourceId);
                 }
             }
-
-
-
-
+            // Forget resources that left the instance, they are looked up again if they come back
+            resourceRoleCache.keySet().retainAll(resourceIDs);
+            LOGGER.trace("Retrieved roles of {} out of {} resources", roleLookups, resourceIDs.size());
         }
         catch (MalformedURLException me) {
             throw new StreamsTrackerException("Invalid JMX URL when retrieving instance bean", me);
@@ -758,12 +1502,130 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
         catch (IOException ioe) {
             throw new StreamsTrackerException("JMX IO Exception when retrieving instance bean", ioe);
         }
+
+        return fetch;
+    }
+
+    /* Status of each resource in the instance, read by up to RESOURCE_STATUS_READERS fetch threads */
+    private Map<String, ResourceMXBean.Status> readResourceStatus(MXBeanSource beanSource, Set<String> resourceIds,
+            String instanceName) throws IOException, StreamsTrackerException {
+        Map<String, ResourceMXBean.Status> resourceStatus = new ConcurrentHashMap<String, ResourceMXBean.Status>();
+        Queue<String> unread = new ConcurrentLinkedQueue<String>(resourceIds);
+        List<Future<Void>> reads = new ArrayList<Future<Void>>();
+        ExecutorService executor = getFetchExecutor();
+        for (int i = 0; i < RESOURCE_STATUS_READERS && i < resourceIds.size(); i++) {
+            ResourceStatusReader reader = new ResourceStatusReader(beanSource, instanceName, unread, resourceStatus);
+            try {
+                reads.add(executor.submit(reader));
+            } catch (RejectedExecutionException e) {
+                // The tracker was reset while we were fetching, read the rest on this thread
+                reader.call();
+            }
+        }
+        try {
+            for (Future<Void> read : reads) {
+                waitForFetch(read);
+            }
+        } finally {
+            // Readers of a fetch that failed stop with the resource they are reading
+            unread.clear();
+        }
+        return resourceStatus;
+    }
+
+    /* Reads the status of resources until there are none left to read */
+    private class ResourceStatusReader implements Callable<Void> {
+        private final MXBeanSource beanSource;
+        private final String instanceName;
+        private final Queue<String> unread;
+        private final Map<String, ResourceMXBean.Status> resourceStatus;
+
+        ResourceStatusReader(MXBeanSource beanSource, String instanceName, Queue<String> unread,
+                Map<String, ResourceMXBean.Status> resourceStatus) {
+            this.beanSource = beanSource;
+            this.instanceName = instanceName;
+            this.unread = unread;
+            this.resourceStatus = resourceStatus;
+        }
+
+        public Void call() {
+            String resourceId;
+            while ((resourceId = unread.poll()) != null) {
+                try {
+                    ResourceMXBean.Status status = beanSource.getResourceBean(domainName, resourceId).getStatus(instanceName);
+                    if (status != null) {
+                        resourceStatus.put(resourceId, status);
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. the resource left the instance after it was listed, the others are still read
+                    LOGGER.warn("Could not read the status of resource {}, skipping it: {}", resourceId, e.toString());
+                }
+            }
+            return null;
+        }
+    }
+
+    private synchronized void updateInstanceResourceMetrics(InstanceResourceFetch fetch) {
+        Map<String, Map<String, Long>> prevInstanceResourceMetrics = new HashMap<String, Map<String, Long>>(instanceResourceMetrics);
+
+        synchronized (instanceResourceMetrics) {
+            instanceResourceMetrics.clear();
+            instanceResourceMetrics.putAll(fetch.resourceMetrics);
+        }
+        instanceResourceMetricsLastUpdated = System.currentTimeMillis();
+
+        for (Map.Entry<String, ResourceMXBean.Status> status : fetch.resourceStatus.entrySet()) {
+            metricsExporter.getStreamsMetric("status", StreamsObjectType.RESOURCE,
+                this.domainName, this.instanceInfo.getInstanceName(), status.getKey()).set(getResourceStatusAsMetric(status.getValue()));
+        }
+        for (String resourceId : fetch.applicationResources) {
+            metricsExporter.getStreamsMetric("role", StreamsObjectType.RESOURCE_ROLE,
+                this.domainName, this.instanceInfo.getInstanceName(), resourceId, "application").set(1);
+        }
+        for (String resourceId : fetch.serviceResources) {
+            metricsExporter.getStreamsMetric("role", StreamsObjectType.RESOURCE_ROLE,
+                this.domainName, this.instanceInfo.getInstanceName(), resourceId, "service").set(1);
+        }
+
+        // Remove the status and roles that no longer apply, e.g. a resource that is no longer a service resource
+        for (String resourceId : this.statusResources) {
+            if (!fetch.resourceStatus.containsKey(resourceId)) {
+                metricsExporter.removeStreamsMetric("status", StreamsObjectType.RESOURCE,
+                    this.domainName, this.instanceInfo.getInstanceName(), resourceId);
+            }
+        }
+        for (String resourceId : this.applicationResources) {
+            if (!fetch.applicationResources.contains(resourceId)) {
+                metricsExporter.removeStreamsMetric("role", StreamsObjectType.RESOURCE_ROLE,
+                    this.domainName, this.instanceInfo.getInstanceName(), resourceId, "application");
+            }
+        }
+        for (String resourceId : this.serviceResources) {
+            if (!fetch.serviceResources.contains(resourceId)) {
+                metricsExporter.removeStreamsMetric("role", StreamsObjectType.RESOURCE_ROLE,
+                    this.domainName, this.instanceInfo.getInstanceName(), resourceId, "service");
+            }
+        }
+        this.statusResources = new HashSet<String>(fetch.resourceStatus.keySet());
+        this.applicationResources = fetch.applicationResources;
+        this.serviceResources = fetch.serviceResources;
         
         /* Process resource metrics for export */
-        // Loop through old list and remove any not in the new list
-        for (String key : prevInstanceResourceMetrics.keySet()) {
-        	if (!instanceResourceMetrics.containsKey(key))
+        // Loop through old list and remove any not in the new list, a resource that still
+        // has a status only loses the metrics it no longer reports
+        for (Map.Entry<String, Map<String, Long>> prev : prevInstanceResourceMetrics.entrySet()) {
+        	String key = prev.getKey();
+        	if (!instanceResourceMetrics.containsKey(key) && !statusResources.contains(key)) {
         		metricsExporter.removeAllChildStreamsMetrics(this.domainName,this.instanceInfo.getInstanceName(),key);
+        		continue;
+        	}
+        	Map<String, Long> rmap = instanceResourceMetrics.get(key);
+        	for (String metricName : prev.getValue().keySet()) {
+        		if (rmap == null || !rmap.containsKey(metricName)) {
+        			metricsExporter.removeStreamsMetric(metricName, StreamsObjectType.RESOURCE,
+        					this.domainName, this.instanceInfo.getInstanceName(), key);
+        		}
+        	}
         }
         // Set exiting and new ones
         for (String resourceName : instanceResourceMetrics.keySet()) {
@@ -778,6 +1640,27 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
         }
     }
 
+    /* Roles of a resource and when they were retrieved */
+    private static class ResourceRoles {
+        final boolean application;
+        final boolean service;
+        final long retrieved;
+
+        ResourceRoles(boolean application, boolean service, long retrieved) {
+            this.application = application;
+            this.service = service;
+            this.retrieved = retrieved;
+        }
+    }
+
+    /* Resource information retrieved by a fetch thread, applied by updateInstanceResourceMetrics */
+    private static class InstanceResourceFetch {
+        final Map<String, Map<String, Long>> resourceMetrics = new HashMap<String, Map<String, Long>>();
+        final Map<String, ResourceMXBean.Status> resourceStatus = new HashMap<String, ResourceMXBean.Status>();
+        final Set<String> applicationResources = new HashSet<String>();
+        final Set<String> serviceResources = new HashSet<String>();
+    }
+
     public synchronized AllJobMetrics getAllJobMetrics() throws StreamsTrackerException {
 
         if ((this.instanceInfo == null)
@@ -921,6 +1804,8 @@ public class StreamsInstanceTracker implements MXBeanSourceProviderListener {
     
     // Should do whatever necessary to shutdown and close this object
     public void close() {
+        this.unregisterJobNotifications();
+        this.shutdownFetchExecutor();
         this.removeExportedInstanceMetrics();
     }
 
@@ -16,24 +16,39 @@
 
 package streams.metric.exporter.streamstracker.job;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import com.ibm.streams.management.job.JobMXBean;
 import com.ibm.streams.management.job.PeMXBean;
 
+import streams.metric.exporter.metrics.MetricAggregation;
+import streams.metric.exporter.metrics.MetricFilter;
+import streams.metric.exporter.metrics.MetricRates;
 import streams.metric.exporter.metrics.MetricsExporter;
+import streams.metric.exporter.metrics.MetricsExporter.Metric;
 import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+import streams.metric.exporter.metrics.SeriesBudget;
 import streams.metric.exporter.prometheus.PrometheusMetricsExporter;
 import streams.metric.exporter.streamstracker.StreamsDomainTracker;
 import streams.metric.exporter.streamstracker.instance.StreamsInstanceTracker;
+import streams.metric.exporter.streamstracker.metrics.ConnectionMetrics;
+import streams.metric.exporter.streamstracker.metrics.JobMetrics;
+import streams.metric.exporter.streamstracker.metrics.MetricValues;
+import streams.metric.exporter.streamstracker.metrics.OperatorMetrics;
+import streams.metric.exporter.streamstracker.metrics.PeMetrics;
+import streams.metric.exporter.streamstracker.metrics.PortMetrics;
+import streams.metric.exporter.streamstracker.snapshots.JobSnapshot;
+import streams.metric.exporter.streamstracker.snapshots.OperatorSnapshot;
+import streams.metric.exporter.streamstracker.snapshots.PeSnapshot;
 
 /* Job Details including map of port names so metrics can have names for ports rather than just ids */
 public class JobDetails {
@@ -50,20 +65,55 @@ public class JobDetails {
 	private String jobname = null;
 	//private long submitTime = 0;
 
-	private String jobSnapshot = null;
-	private String jobMetrics = null;
-
-	private final Map<String, Map<String, String>> peInfoMap = new HashMap<String, Map<String, String>>();
-	private final Map<String, String> operatorKindMap = new HashMap<String, String>();
-	// port maps <operatorname, map<indexWithinOperator,portname>>
-	private final Map<String, Map<Long, String>> operatorInputPortNames = new HashMap<String, Map<Long, String>>();
-	private final Map<String, Map<Long, String>> operatorOutputPortNames = new HashMap<String, Map<Long, String>>();
+	private JobSnapshot jobSnapshot = null;
+	private JobMetrics jobMetrics = null;
+
+	// Snapshot lookups for metrics, pe info by pe id and operator kind and port names by operator name
+	private final Map<String, PeSnapshot> peSnapshotMap = new HashMap<String, PeSnapshot>();
+	private final Map<String, OperatorSnapshot> operatorSnapshotMap = new HashMap<String, OperatorSnapshot>();
+
+	// Snapshot the lookups and snapshot series were last built from, and those series
+	private JobSnapshot processedSnapshot = null;
+	private List<Metric> snapshotMetrics = new ArrayList<Metric>();
+	private boolean topologyRebuilt = false;
+
+	// Decides which series of this job are exported, follows the job name
+	private MetricFilter.JobFilter metricFilter = null;
+
+	// Limits the series of this job and, through its parent, of its instance
+	private final SeriesBudget seriesBudget;
+	// Drop level and series asked for by type when the snapshot series were set
+	private int snapshotDropLevel = 0;
+	private long[] snapshotDemand = null;
+	// Series by type the next refresh of this snapshot and these metrics asks for, counted ahead by the instance
+	private long[] plannedSeries = null;
+	private JobSnapshot plannedSnapshot = null;
+	private JobMetrics plannedMetrics = null;
+
+	// Aggregates of the metrics being processed, null when there are no aggregation rules
+	private MetricAggregation.JobAggregation aggregation = null;
+
+	// Samples of the rated series as of the last refresh, and the ones recorded by the current refresh
+	private MetricRates.Store rateStore = null;
+	private MetricRates.Store nextRateStore = null;
+	// Collection time of metrics that do not report one, and the time and launch count of the pe being processed
+	private JobMetrics ratedMetrics = null;
+	private long ratedMetricsTime = 0;
+	private long sampleTime = 0;
+	private long sampleLaunchCount = 0;
+
+	// Job and snapshot series exported by the last refresh, and the ones set so far by the current refresh
+	private Set<Metric> exportedMetrics = new HashSet<Metric>();
+	private Set<Metric> refreshedMetrics = new HashSet<Metric>();
 
 		/* Metrics Exporter*/
 	/* Temporary solution: always use Prometheus exporter */
 	/* Future: Make this pluggable, add Elasticsearch exporter */
 	private MetricsExporter metricsExporter = PrometheusMetricsExporter.getInstance();
 
+	// Handles of the pe and operator series, set directly while the job keeps its shape
+	private final SeriesHandles seriesHandles = new SeriesHandles(metricsExporter);
+
 	
 	public JobDetails(StreamsInstanceTracker monitor, String jobid, String jobname) {
 		LOGGER.trace("jobDetails constructor: jobid {}, jobname {}",jobid,jobname);
@@ -72,6 +122,7 @@ public class JobDetails {
 
 		this.domain = monitor.getDomainName();
 		this.streamsInstanceName = monitor.getInstanceInfo().getInstanceName();
+		this.seriesBudget = new SeriesBudget(monitor.getConfig().getJobSeriesBudget(), monitor.getSeriesBudget());
 
 		setJobid(jobid);
 		setJobname(jobname);
@@ -83,102 +134,216 @@ public class JobDetails {
 	}
 	
 	// Called by Instance to pass in snapshot and metrics to update exported metrics
-	public void refresh(String jobSnapshot, String jobMetrics) {
-		LOGGER.trace("refresh job: {}", this.jobname);
+	public void refresh(JobSnapshot jobSnapshot, JobMetrics jobMetrics) {
+		refresh(jobSnapshot, jobMetrics, false);
+	}
 
-		// Remove old metrics in case things moved around and new labels for things like resource are required
-		this.removeExportedMetrics();
-		this.createExportedMetrics();
+	// Called by Instance when a notification changed the job between refresh cycles
+	public void refreshOutOfCycle(JobSnapshot jobSnapshot, JobMetrics jobMetrics) {
+		refresh(jobSnapshot, jobMetrics, true);
+	}
+
+	private void refresh(JobSnapshot jobSnapshot, JobMetrics jobMetrics, boolean outOfCycle) {
+		LOGGER.trace("refresh job: {}", this.jobname);
 
 		setJobSnapshot(jobSnapshot);
 		setJobMetrics(jobMetrics);
-
+		updateMetricFilter();
+
+		// Existing series are updated in place, collect the ones this refresh sets
+		this.refreshedMetrics = new HashSet<Metric>(this.exportedMetrics.size());
+		this.seriesHandles.start();
+		long[] expectedSeries = null;
+		if (this.seriesBudget.isEnabled()) {
+			expectedSeries = (jobSnapshot == plannedSnapshot && jobMetrics == plannedMetrics && plannedSeries != null
+					? plannedSeries : countSeries(jobSnapshot, jobMetrics));
+		}
+		this.plannedSeries = null;
+		this.plannedSnapshot = null;
+		this.plannedMetrics = null;
+		if (outOfCycle) {
+			this.seriesBudget.startOutOfCycleRefresh(expectedSeries);
+		} else {
+			this.seriesBudget.startRefresh(expectedSeries);
+		}
 		this.processSnapshot(jobSnapshot);
 		this.processMetrics(jobMetrics);
-	}
-
-	// Create Mappings for Metric Lookup and Snapshot based metrics
-	private void processSnapshot(String jobSnapshot) {
-		LOGGER.trace("processSnapshot job: {}", this.jobname);
-
-		// clear maps
-		peInfoMap.clear();
-		operatorKindMap.clear();
-		operatorInputPortNames.clear();
-		operatorOutputPortNames.clear();
 
-		if (jobSnapshot != null) {
+		// Remove only the series that were not set this time, e.g. things moved around and
+		// new labels for things like resource are now used
+		this.reconcileExportedMetrics();
+		this.updateSeriesBudgetMetrics();
+	}
 
-			JSONParser parser = new JSONParser();
-			try {
-				JSONObject snapshotObject = (JSONObject) parser.parse(jobSnapshot);
+	/* Series by object type the next refresh of the current snapshot and metrics asks for */
+	public long[] planRefresh() {
+		updateMetricFilter();
+		this.plannedSnapshot = this.jobSnapshot;
+		this.plannedMetrics = this.jobMetrics;
+		this.plannedSeries = countSeries(this.jobSnapshot, this.jobMetrics);
+		return this.plannedSeries;
+	}
 
-				String instance = (String)snapshotObject.get("instance");
-				String status = (String)snapshotObject.get("status");
-				String health = (String)snapshotObject.get("health");
-				String jobname = (String)snapshotObject.get("name");
-				Long submitTime = (Long)snapshotObject.get("submitTime");
+	// Pe and operator series processSnapshot and processMetrics will ask for, filtered series are not
+	// asked for and rated series are counted with their rate.  Job series are left to the budget.
+	private long[] countSeries(JobSnapshot jobSnapshot, JobMetrics jobMetrics) {
+		long[] series = new long[StreamsObjectType.values().length];
+		if (jobSnapshot == null) {
+			return series;
+		}
+		Set<String> healthyPes = new HashSet<String>();
+		for (PeSnapshot pe : jobSnapshot.getPes()) {
+			countSeries(series, "status", StreamsObjectType.PE, false);
+			countSeries(series, "health", StreamsObjectType.PE, false);
+			countSeries(series, "launchCount", StreamsObjectType.PE, false);
+			if ("healthy".equalsIgnoreCase(pe.getHealth())) {
+				healthyPes.add(pe.getId());
+			}
+		}
+		if (jobMetrics == null) {
+			return series;
+		}
+		boolean rated = MetricRates.getInstance().isEnabled();
+		for (PeMetrics pe : jobMetrics.getPes()) {
+			if (!healthyPes.contains(pe.getId())) {
+				continue;
+			}
+			countSeries(series, pe.getMetrics(), StreamsObjectType.PE, rated);
+			for (PortMetrics port : pe.getInputPorts()) {
+				countSeries(series, port.getMetrics(), StreamsObjectType.PE_INPUTPORT, rated);
+			}
+			for (PortMetrics port : pe.getOutputPorts()) {
+				countSeries(series, port.getMetrics(), StreamsObjectType.PE_OUTPUTPORT, rated);
+				for (ConnectionMetrics connection : port.getConnections()) {
+					countSeries(series, connection.getMetrics(), StreamsObjectType.PE_OUTPUTPORT_CONNECTION, rated);
+				}
+			}
+			for (OperatorMetrics operator : pe.getOperators()) {
+				countSeries(series, operator.getMetrics(), StreamsObjectType.OPERATOR, rated);
+				for (PortMetrics port : operator.getInputPorts()) {
+					countSeries(series, port.getMetrics(), StreamsObjectType.OPERATOR_INPUTPORT, rated);
+				}
+				for (PortMetrics port : operator.getOutputPorts()) {
+					countSeries(series, port.getMetrics(), StreamsObjectType.OPERATOR_OUTPUTPORT, rated);
+				}
+			}
+		}
+		return series;
+	}
 
-				this.instance = instance;
-				this.status = status;
-				this.health = health;
-				this.jobname = jobname;
+	private void countSeries(long[] series, MetricValues metrics, StreamsObjectType type, boolean rated) {
+		for (int m = 0; m < metrics.size(); m++) {
+			countSeries(series, metrics.getName(m), type, rated);
+		}
+	}
 
-				metricsExporter.getStreamsMetric("submitTime", StreamsObjectType.JOB, this.domain, instance, jobname).set(submitTime);
-				metricsExporter.getStreamsMetric("healthy", StreamsObjectType.JOB, this.domain, instance, jobname).set(getHealthAsMetric(health));
-				metricsExporter.getStreamsMetric("health", StreamsObjectType.JOB, this.domain, instance, jobname).set(getHealthAsMetric(health));
-				metricsExporter.getStreamsMetric("status", StreamsObjectType.JOB, this.domain, instance, jobname).set(getStatusAsMetric(status));
+	private void countSeries(long[] series, String metricName, StreamsObjectType type, boolean rated) {
+		if (this.metricFilter.allows(type, metricName)) {
+			series[type.ordinal()]++;
+		}
+		if (rated && MetricRates.getInstance().isRated(metricName)
+				&& this.metricFilter.allows(type, SeriesHandles.rateName(metricName))) {
+			series[type.ordinal()]++;
+		}
+	}
 
-				JSONArray peArray = (JSONArray) snapshotObject.get("pes");
-				
-				/* PE Loop */
-				for (int i = 0; i < peArray.size(); i++) {
-					JSONObject pe = (JSONObject) peArray.get(i);
+	// Create Mappings for Metric Lookup and Snapshot based metrics
+	private void processSnapshot(JobSnapshot jobSnapshot) {
+		LOGGER.trace("processSnapshot job: {}", this.jobname);
 
-					String peid = (String)pe.get("id");
-					String resource = (String)pe.get("resource");
-					String pestatus = (String)pe.get("status");
-					String pehealth = (String)pe.get("health");
-					long launchCount = (long)pe.get("launchCount");
+		// Nothing in the snapshot changed, the lookups and snapshot series are still current
+		// unless the series budget now drops other object types
+		if (jobSnapshot != null && processedSnapshot != null
+				&& (jobSnapshot == processedSnapshot || jobSnapshot.getFingerprint() == processedSnapshot.getFingerprint())
+				&& seriesBudget.getDropLevel() == snapshotDropLevel
+				&& !snapshotMetricsRemoved()) {
+			LOGGER.trace("Snapshot of job {} unchanged, keeping topology", this.jobname);
+			this.refreshedMetrics.addAll(snapshotMetrics);
+			this.seriesBudget.readmit(snapshotDemand, snapshotMetrics.size());
+			this.processedSnapshot = jobSnapshot;
+			this.topologyRebuilt = false;
+			return;
+		}
+		this.topologyRebuilt = true;
 
+		// clear maps
+		peSnapshotMap.clear();
+		operatorSnapshotMap.clear();
 
-					// Capture peInfo for metrics
-					HashMap<String, String> peInfo = new HashMap<String, String>();
-					peInfo.put("status",(String)pe.get("status"));
-					peInfo.put("health",(String)pe.get("health"));
-					peInfo.put("resource",(String)pe.get("resource"));
-					peInfoMap.put(peid, peInfo);
+		if (jobSnapshot != null) {
 
-					mapOperatorKindAndPortNames(pe);
+			String instance = jobSnapshot.getInstance();
+			String status = jobSnapshot.getStatus();
+			String health = jobSnapshot.getHealth();
+			String jobname = jobSnapshot.getName();
+
+			this.instance = instance;
+			this.status = status;
+			this.health = health;
+			this.jobname = jobname;
+			updateMetricFilter();
+
+			exportStreamsMetric("submitTime", StreamsObjectType.JOB, this.domain, instance, jobname).set(jobSnapshot.getSubmitTime());
+			exportStreamsMetric("healthy", StreamsObjectType.JOB, this.domain, instance, jobname).set(getHealthAsMetric(health));
+			exportStreamsMetric("health", StreamsObjectType.JOB, this.domain, instance, jobname).set(getHealthAsMetric(health));
+			exportStreamsMetric("status", StreamsObjectType.JOB, this.domain, instance, jobname).set(getStatusAsMetric(status));
+
+			/* PE Loop */
+			for (PeSnapshot pe : jobSnapshot.getPes()) {
+				String peid = pe.getId();
+				String resource = pe.getResource();
+
+				// Capture pe for metrics
+				peSnapshotMap.put(peid, pe);
+
+				mapOperators(pe);
+
+				exportStreamsMetric("status",
+						StreamsObjectType.PE,
+						this.domain,
+						instance,
+						jobname,
+						resource,
+						peid).set(getPEStatusAsMetric(pe.getStatus()));	
+
+				exportStreamsMetric("health",
+						StreamsObjectType.PE,
+						this.domain,
+						instance,
+						jobname,
+						resource,
+						peid).set(getPEHealthAsMetric(pe.getHealth()));	
+						
+				exportStreamsMetric("launchCount",
+						StreamsObjectType.PE,
+						this.domain,
+						instance,
+						jobname,
+						resource,
+						peid).set(pe.getLaunchCount());	
+			} // End pe loop
+		} // end if snapshot != null
 
-					metricsExporter.getStreamsMetric("status",
-							StreamsObjectType.PE,
-							this.domain,
-							instance,
-							jobname,
-							resource,
-							peid).set(getPEStatusAsMetric(pestatus));	
+		// Only snapshot series have been set so far this refresh
+		this.processedSnapshot = jobSnapshot;
+		this.snapshotMetrics = new ArrayList<Metric>(this.refreshedMetrics);
+		this.snapshotDropLevel = seriesBudget.getDropLevel();
+		this.snapshotDemand = seriesBudget.getDemand();
+	}
 
-					metricsExporter.getStreamsMetric("health",
-							StreamsObjectType.PE,
-							this.domain,
-							instance,
-							jobname,
-							resource,
-							peid).set(getPEHealthAsMetric(pehealth));	
-							
-					metricsExporter.getStreamsMetric("launchCount",
-							StreamsObjectType.PE,
-							this.domain,
-							instance,
-							jobname,
-							resource,
-							peid).set(launchCount);	
-				} // End pe loop
-			} catch (ParseException e) {
-				throw new IllegalStateException(e);
+	// Snapshot series can be removed from the exporter by others, e.g. when the job is removed
+	private boolean snapshotMetricsRemoved() {
+		for (Metric metric : this.snapshotMetrics) {
+			if (metric.isRemoved()) {
+				return true;
 			}
-		} // end if snapshot != null
+		}
+		return false;
+	}
+
+	/* Did the last refresh have to rebuild the snapshot lookups and series */
+	public boolean isTopologyRebuilt() {
+		return this.topologyRebuilt;
 	}
 
 	/* Stop/unregister anything you need to */
@@ -186,11 +351,11 @@ public class JobDetails {
 		removeExportedMetrics();
 	}
 
-	public String getJobMetrics() {
+	public JobMetrics getJobMetrics() {
 		return this.jobMetrics;
 	}
 
-	public void setJobMetrics(String jobMetrics) {
+	public void setJobMetrics(JobMetrics jobMetrics) {
 		this.jobMetrics = jobMetrics;
 	}
 
@@ -203,11 +368,11 @@ public class JobDetails {
 	}
 
 
-	public String getJobSnapshot() {
+	public JobSnapshot getJobSnapshot() {
 		return jobSnapshot;
 	}
 
-	public void setJobSnapshot(String jobSnapshot) {
+	public void setJobSnapshot(JobSnapshot jobSnapshot) {
 		this.jobSnapshot = jobSnapshot;
 	}
 
@@ -257,49 +422,14 @@ public class JobDetails {
 
 /*****************************************************************
  * Create Maps for easy reference when processing metrics
- * Some information is only found in the snapshot json
+ * Some information is only found in the snapshot
  *****************************************************************/
 
-	private void mapOperatorKindAndPortNames(JSONObject peObject) {
-
-		JSONArray operatorArray = (JSONArray) peObject.get("operators");
-		
+	private void mapOperators(PeSnapshot pe) {
 		/* Operator Loop */
-		for (int i = 0; i < operatorArray.size(); i++) {
-			JSONObject operator = (JSONObject) operatorArray.get(i);
-			String operatorName = (String)operator.get("name");
-			String operatorKind = (String)operator.get("operatorKind");
-			operatorKindMap.put(operatorName,operatorKind);
-			mapOperatorInputPortNames(operator, operatorName);
-			mapOperatorOutputPortNames(operator, operatorName);
-		}
-	}
-
-	// port maps <operatorname, map<indexWithinOperator,portname>>
-	private void mapOperatorInputPortNames(JSONObject operator, String operatorName) {
-		JSONArray inputPortsArray = (JSONArray) operator.get("inputPorts");
-		Map<Long,String> inputPortNames = new HashMap<Long,String>();
-
-		for (int i = 0; i < inputPortsArray.size(); i++) {
-			JSONObject ip = (JSONObject) inputPortsArray.get(i);
-			Long indexWithinOperator = (Long)ip.get("indexWithinOperator");
-			String inputPortName = (String)ip.get("name");
-			inputPortNames.put(indexWithinOperator,inputPortName);
+		for (OperatorSnapshot operator : pe.getOperators()) {
+			operatorSnapshotMap.put(operator.getName(), operator);
 		}
-		operatorInputPortNames.put(operatorName,inputPortNames);
-	}
-
-	private void mapOperatorOutputPortNames(JSONObject operator, String operatorName) {
-		JSONArray outputPortsArray = (JSONArray) operator.get("outputPorts");
-		Map<Long,String> outputPortNames = new HashMap<Long,String>();
-
-		for (int i = 0; i < outputPortsArray.size(); i++) {
-			JSONObject ip = (JSONObject) outputPortsArray.get(i);
-			Long indexWithinOperator = (Long)ip.get("indexWithinOperator");
-			String outputPortName = (String)ip.get("name");
-			outputPortNames.put(indexWithinOperator,outputPortName);
-		}
-		operatorOutputPortNames.put(operatorName,outputPortNames);
 	}
 
 	private void createExportedMetrics() {
@@ -330,236 +460,317 @@ public class JobDetails {
 		// When this job is removed, remove all metrics for this job
 		// (really its the specific instance of the metric for the streams objects of this job)
 		LOGGER.trace("removeExportedMetrics job: {}", this.jobname);
+		for (Metric metric : this.exportedMetrics) {
+			metricsExporter.removeStreamsMetric(metric);
+		}
+		this.exportedMetrics = new HashSet<Metric>();
+		this.seriesHandles.clear();
 		metricsExporter.removeAllChildStreamsMetrics(this.domain, this.streamsInstanceName,this.jobname);
+		// Series are gone, the next refresh has to rebuild them
+		this.processedSnapshot = null;
+		this.snapshotMetrics = new ArrayList<Metric>();
+		this.rateStore = null;
+	}
+
+	private void reconcileExportedMetrics() {
+		int removed = 0;
+		for (Metric metric : this.exportedMetrics) {
+			if (!this.refreshedMetrics.contains(metric) && !this.seriesHandles.isSet(metric)) {
+				metricsExporter.removeStreamsMetric(metric);
+				removed++;
+			}
+		}
+		int handles = this.seriesHandles.finish(this.refreshedMetrics);
+		LOGGER.trace("reconcileExportedMetrics job: {}, series: {}, removed: {}",
+				this.jobname, this.refreshedMetrics.size() + handles, removed);
+		this.exportedMetrics = this.refreshedMetrics;
+	}
+
+	// Export the value of a pe or operator series, offer it to the aggregation rules and export its rate
+	private void exportMetricValue(String metricName, long value, StreamsObjectType type, String... labelValues) {
+		if (this.aggregation != null) {
+			this.aggregation.add(type, metricName, value, labelValues);
+		}
+		SeriesHandles.Series series = this.seriesHandles.next(metricName, type, labelValues);
+		if (admitStreamsMetric(metricName, type)) {
+			this.seriesHandles.set(series, value);
+		}
+		if (this.nextRateStore != null && MetricRates.getInstance().isRated(metricName)) {
+			if (series.getRateKey() == 0) {
+				series.setRateKey(MetricRates.seriesKey(type, metricName, labelValues));
+			}
+			double rate = this.nextRateStore.update(this.rateStore, series.getRateKey(),
+					value, this.sampleTime, this.sampleLaunchCount);
+			// No rate for the first sample of a series or after a restart
+			if (!Double.isNaN(rate) && admitStreamsMetric(series.getRateName(), type)) {
+				this.seriesHandles.setRate(series, rate);
+			}
+		}
+	}
+
+	private void exportAggregates() {
+		if (this.aggregation == null) {
+			return;
+		}
+		for (MetricAggregation.Aggregate aggregate : this.aggregation.getAggregates()) {
+			if (aggregate.getGroupBy() == null) {
+				exportStreamsMetric(aggregate.getName(), StreamsObjectType.JOB,
+						this.domain, this.streamsInstanceName, this.jobname).set(aggregate.getValue());
+			} else {
+				exportStreamsMetric(aggregate.getName(), StreamsObjectType.JOB_GROUP,
+						this.domain, this.streamsInstanceName, this.jobname,
+						aggregate.getGroupBy(), aggregate.getGroup()).set(aggregate.getValue());
+			}
+		}
+		this.aggregation = null;
+	}
+
+	// Exporter series of this job, not part of the exported metrics so reconcile leaves them alone
+	private void updateSeriesBudgetMetrics() {
+		if (!this.seriesBudget.isEnabled()) {
+			return;
+		}
+		if (this.seriesBudget.getDropped() > 0) {
+			LOGGER.debug("Job {} over its series budget, dropped {} series", this.jobname, this.seriesBudget.getDropped());
+		}
+		metricsExporter.getStreamsMetric("series_current", StreamsObjectType.EXPORTER_JOB,
+				this.domain, this.streamsInstanceName, this.jobname).set(this.refreshedMetrics.size() + this.seriesHandles.getExported());
+		metricsExporter.getStreamsMetric("series_dropped", StreamsObjectType.EXPORTER_JOB,
+				this.domain, this.streamsInstanceName, this.jobname).set(this.seriesBudget.getDropped());
+	}
+
+	// Job name patterns of the filter rules are matched against the current job name
+	private void updateMetricFilter() {
+		if (this.metricFilter == null || !this.metricFilter.isCurrent()
+				|| !Objects.equals(this.metricFilter.getJobName(), this.jobname)) {
+			this.metricFilter = MetricFilter.getInstance().forJob(this.jobname);
+		}
+	}
+
+	// Is the series exported, not filtered out or over the budget
+	private boolean admitStreamsMetric(String metricName, StreamsObjectType type) {
+		return this.metricFilter.accept(type, metricName) && this.seriesBudget.admit(type);
+	}
+
+	// Get the metric and remember it as exported by this refresh
+	private Metric exportStreamsMetric(String metricName, StreamsObjectType type, String... labelValues) {
+		// Filtered series and series over the budget are never looked up,
+		// their values are set on a metric that is not exported
+		if (!admitStreamsMetric(metricName, type)) {
+			return metricsExporter.getDiscardMetric();
+		}
+		Metric metric = metricsExporter.getStreamsMetric(metricName, type, labelValues);
+		this.refreshedMetrics.add(metric);
+		return metric;
 	}
 
 
-	private void processMetrics(String jobMetrics) {
+	private void processMetrics(JobMetrics jobMetrics) {
 		LOGGER.trace("processMetrics job: {}", this.jobname);
 		
 		if (jobMetrics != null) {
-			JSONParser parser = new JSONParser();
-			try {
-				JSONObject metricsObject = (JSONObject) parser.parse(this.jobMetrics);
-				JSONArray peArray = (JSONArray) metricsObject.get("pes");
-				
-				// Job Metrics 
-				long ncpu = 0, nrmc = 0, nmc = 0;
-				long numconnections = 0, totalcongestion = 0, curcongestion = 0;
-				long maxcongestion = 0 , avgcongestion = 0, mincongestion = 999;
-
-				// PE Loop 
-				for (int i = 0; i < peArray.size(); i++) {
-					JSONObject pe = (JSONObject) peArray.get(i);
-					String peid = (String)pe.get("id");
-
-					// Get info from peInfoMap
-					Map<String,String> peInfo = peInfoMap.get(peid);
-
-					String health = peInfo.get("health");
-					String resource = peInfo.get("resource");
-
-					// If the PE is not healthy, then its resource may not be correct while it is being
-					// relocated, and we cannot create / update those metrics
-					if (!health.equalsIgnoreCase("healthy")) {
-						LOGGER.info("Job ({}: {}) Metrics, pe: " + peid + " is NOT healthy, NOT setting metrics",this.jobid,this.jobname);
-						continue; // skip to next pe in loop
-					}
+			// Samples are aggregated as they are exported, whether or not the raw series are kept
+			this.aggregation = MetricAggregation.getInstance().isEnabled() ? MetricAggregation.getInstance().forJob() : null;
+			if (MetricRates.getInstance().isEnabled()) {
+				this.nextRateStore = new MetricRates.Store(this.rateStore == null ? 0 : this.rateStore.size());
+				// The same metrics processed again are the same samples
+				if (jobMetrics != this.ratedMetrics) {
+					this.ratedMetrics = jobMetrics;
+					this.ratedMetricsTime = System.currentTimeMillis();
+				}
+			}
 
-					JSONArray peMetricsArray = (JSONArray) pe.get("metrics");
-					/* PE Metrics Loop */
-					for (int j = 0; j < peMetricsArray.size(); j++) {
-						JSONObject metric = (JSONObject) peMetricsArray.get(j);
-						String metricName = (String)metric.get("name");
-						switch (metricName) {
-						case "nCpuMilliseconds":
-							ncpu += (long)metric.get("value");
-							break;
-						case "nResidentMemoryConsumption":
-							nrmc += (long)metric.get("value");
-							break;
-						case "nMemoryConsumption":
-							nmc += (long)metric.get("value");
-							break;
+			// Job Metrics 
+			long ncpu = 0, nrmc = 0, nmc = 0;
+			long numconnections = 0, totalcongestion = 0, curcongestion = 0;
+			long maxcongestion = 0 , avgcongestion = 0, mincongestion = 999;
+
+			// PE Loop 
+			for (PeMetrics pe : jobMetrics.getPes()) {
+				String peid = pe.getId();
+
+				// Get info from the snapshot
+				PeSnapshot peSnapshot = peSnapshotMap.get(peid);
+				if (peSnapshot == null) {
+					LOGGER.debug("Job ({}: {}) Metrics, pe: " + peid + " is not in the snapshot, NOT setting metrics",this.jobid,this.jobname);
+					continue; // skip to next pe in loop
+				}
+
+				String health = peSnapshot.getHealth();
+				String resource = peSnapshot.getResource();
+
+				// If the PE is not healthy, then its resource may not be correct while it is being
+				// relocated, and we cannot create / update those metrics
+				if (!"healthy".equalsIgnoreCase(health)) {
+					LOGGER.info("Job ({}: {}) Metrics, pe: " + peid + " is NOT healthy, NOT setting metrics",this.jobid,this.jobname);
+					continue; // skip to next pe in loop
+				}
+
+				// Rates of the series of this pe start over when it is restarted, with rates the
+				// snapshot is checked every refresh so its launch count is as recent as the metrics
+				this.sampleTime = (pe.getLastTimeRetrieved() > 0 ? pe.getLastTimeRetrieved() : this.ratedMetricsTime);
+				this.sampleLaunchCount = peSnapshot.getLaunchCount();
+
+				/* PE Metrics Loop */
+				MetricValues peMetrics = pe.getMetrics();
+				for (int j = 0; j < peMetrics.size(); j++) {
+					String metricName = peMetrics.getName(j);
+					long value = peMetrics.getValue(j);
+					switch (metricName) {
+					case "nCpuMilliseconds":
+						ncpu += value;
+						break;
+					case "nResidentMemoryConsumption":
+						nrmc += value;
+						break;
+					case "nMemoryConsumption":
+						nmc += value;
+						break;
+					}
+					exportMetricValue(metricName, value,
+							StreamsObjectType.PE,
+							this.domain,
+							this.streamsInstanceName,
+							this.jobname,
+							resource,
+							peid);
+				}
+				
+				/* PE inputPorts Loop */
+				for (PortMetrics port : pe.getInputPorts()) {
+					String indexWithinPE = Long.toString(port.getIndex());
+					MetricValues metrics = port.getMetrics();
+					for (int m = 0; m < metrics.size(); m++) {
+						exportMetricValue(metrics.getName(m), metrics.getValue(m),
+								StreamsObjectType.PE_INPUTPORT,
+								this.domain,
+								this.streamsInstanceName,
+								this.jobname,
+								resource,
+								peid,
+								indexWithinPE);
+					}	// End PE Input Ports Metrics Loop		
+				} // End PE inputPorts loop			
+								
+				/* PE outputPorts Loop */
+				for (PortMetrics port : pe.getOutputPorts()) {
+					String indexWithinPE = Long.toString(port.getIndex());
+					MetricValues metrics = port.getMetrics();
+					for (int m = 0; m < metrics.size(); m++) {
+						exportMetricValue(metrics.getName(m), metrics.getValue(m),
+								StreamsObjectType.PE_OUTPUTPORT,
+								this.domain,
+								this.streamsInstanceName,
+								this.jobname,
+								resource,
+								peid,
+								indexWithinPE);
+					}	// End PE Output Ports Metrics Loop		
+					
+					
+					/* PE outputPorts Connections Loop */
+					for (ConnectionMetrics connection : port.getConnections()) {
+						numconnections++;
+						String connectionId = connection.getId();
+						MetricValues cMetrics = connection.getMetrics();
+						for (int m = 0; m < cMetrics.size(); m++) {
+							String metricName = cMetrics.getName(m);
+							switch (metricName) {
+							case "congestionFactor":
+								curcongestion = cMetrics.getValue(m);
+								totalcongestion += curcongestion;
+								if (curcongestion > maxcongestion) maxcongestion = curcongestion;
+								if (curcongestion < mincongestion) mincongestion = curcongestion;
+							}
+							exportMetricValue(metricName, cMetrics.getValue(m),
+									StreamsObjectType.PE_OUTPUTPORT_CONNECTION,
+									this.domain,
+									this.streamsInstanceName,
+									this.jobname,
+									resource,
+									peid,
+									indexWithinPE,
+									connectionId);								
 						}
-						metricsExporter.getStreamsMetric(metricName,
-								StreamsObjectType.PE,
+					} // End PE outputPort Connectdions Loop
+				} // End PE outputPort loop
+
+				/* PE operator Loop */
+				for (OperatorMetrics operator : pe.getOperators()) {
+					String operatorName = operator.getName();
+					OperatorSnapshot operatorSnapshot = this.operatorSnapshotMap.get(operatorName);
+					String operatorKind = (operatorSnapshot != null ? operatorSnapshot.getOperatorKind() : null);
+					MetricValues opMetrics = operator.getMetrics();
+
+					/* Operator Metrics Loop, these are non-standard metrics */
+					for (int om = 0; om < opMetrics.size(); om++) {
+						exportMetricValue(opMetrics.getName(om), opMetrics.getValue(om),
+								StreamsObjectType.OPERATOR,
 								this.domain,
 								this.streamsInstanceName,
 								this.jobname,
 								resource,
-								peid).set((long)metric.get("value"));
-					}
+								peid,
+								operatorName,
+								operatorKind);
+					}	// End Operator Metrics Loop		
 					
-					/* PE inputPorts Loop */
-					JSONArray inputPorts = (JSONArray) pe.get("inputPorts");
-					for (int portnum = 0; portnum < inputPorts.size(); portnum++) {
-						JSONObject port = (JSONObject)inputPorts.get(portnum);
-						String indexWithinPE = Long.toString((long)port.get("indexWithinPE"));
-						JSONArray metricsArray = (JSONArray) port.get("metrics");
-						for (int m = 0; m < metricsArray.size(); m++) {
-							JSONObject metric = (JSONObject) metricsArray.get(m);
-							String metricName = (String)metric.get("name");
-							metricsExporter.getStreamsMetric(metricName,
-									StreamsObjectType.PE_INPUTPORT,
+					// Loop over Operator Input Ports
+					for (PortMetrics inputPort : operator.getInputPorts()) {
+						String inputPortName = (operatorSnapshot != null ? operatorSnapshot.getInputPortName(inputPort.getIndex()) : null);
+						MetricValues ipMetrics = inputPort.getMetrics();
+						for (int opipm = 0; opipm < ipMetrics.size(); opipm++) {
+							exportMetricValue(ipMetrics.getName(opipm), ipMetrics.getValue(opipm),
+									StreamsObjectType.OPERATOR_INPUTPORT,
 									this.domain,
 									this.streamsInstanceName,
 									this.jobname,
 									resource,
 									peid,
-									indexWithinPE).set((long)metric.get("value"));
-						}	// End PE Input Ports Metrics Loop		
-					} // End PE inputPorts loop			
-									
-					/* PE outputPorts Loop */
-					JSONArray outputPorts = (JSONArray) pe.get("outputPorts");
-					for (int portnum = 0; portnum < outputPorts.size(); portnum++) {
-						JSONObject port = (JSONObject)outputPorts.get(portnum);
-						
-						String indexWithinPE = Long.toString((long)port.get("indexWithinPE"));
-						JSONArray metricsArray = (JSONArray) port.get("metrics");
-						for (int m = 0; m < metricsArray.size(); m++) {
-							JSONObject metric = (JSONObject) metricsArray.get(m);
-							String metricName = (String)metric.get("name");
-							metricsExporter.getStreamsMetric(metricName,
-									StreamsObjectType.PE_OUTPUTPORT,
+									operatorName,
+									operatorKind,
+									inputPortName);
+						} // End Input Port Metrics Loop
+					} // End Operator Input Port Loop
+
+					// Loop over Operator Output Ports
+					for (PortMetrics outputPort : operator.getOutputPorts()) {
+						String outputPortName = (operatorSnapshot != null ? operatorSnapshot.getOutputPortName(outputPort.getIndex()) : null);
+						MetricValues opopMetrics = outputPort.getMetrics();
+						for (int opopm = 0; opopm < opopMetrics.size(); opopm++) {
+							exportMetricValue(opopMetrics.getName(opopm), opopMetrics.getValue(opopm),
+									StreamsObjectType.OPERATOR_OUTPUTPORT,
 									this.domain,
 									this.streamsInstanceName,
 									this.jobname,
 									resource,
 									peid,
-									indexWithinPE).set((long)metric.get("value"));
-						}	// End PE Output Ports Metrics Loop		
-						
-						
-						/* PE outputPorts Connections Loop */
-						JSONArray connections = (JSONArray) port.get("connections");
-						for (int con = 0; con < connections.size(); con++) {
-							numconnections++;
-							JSONObject connection = (JSONObject)connections.get(con);
-							String connectionId = (String)connection.get("id");
-							JSONArray cMetricsArray = (JSONArray) connection.get("metrics");
-							for (int m = 0; m < cMetricsArray.size(); m++) {
-								JSONObject metric = (JSONObject) cMetricsArray.get(m);
-								String metricName = (String)metric.get("name");
-								switch (metricName) {
-								case "congestionFactor":
-									curcongestion = (long)metric.get("value");
-									totalcongestion += curcongestion;
-									if (curcongestion > maxcongestion) maxcongestion = curcongestion;
-									if (curcongestion < mincongestion) mincongestion = curcongestion;
-								}
-								metricsExporter.getStreamsMetric(metricName,
-										StreamsObjectType.PE_OUTPUTPORT_CONNECTION,
-										this.domain,
-										this.streamsInstanceName,
-										this.jobname,
-										resource,
-										peid,
-										indexWithinPE,
-										connectionId).set((long)metric.get("value"));								
-							}
-						} // End PE outputPort Connectdions Loop
-					} // End PE outputPort loop
-
-					/* PE operator Loop */
-					JSONArray operatorArray = (JSONArray)pe.get("operators");
-					for (int op = 0; op < operatorArray.size(); op++) {
-						JSONObject operator = (JSONObject) operatorArray.get(op);
-						String operatorName = (String)operator.get("name");
-						String operatorKind = this.operatorKindMap.get(operatorName);
-						JSONArray opMetricsArray = (JSONArray) operator.get("metrics");
-
-						/* Operator Metrics Loop, these are non-standard metrics */
-						for (int om = 0; om < opMetricsArray.size(); om++) {
-							JSONObject metric = (JSONObject) opMetricsArray.get(om);
-							String operatorMetricName = (String)metric.get("name");
-							switch (operatorMetricName) {
-							default:
-								metricsExporter.getStreamsMetric(operatorMetricName,
-										StreamsObjectType.OPERATOR,
-										this.domain,
-										this.streamsInstanceName,
-										this.jobname,
-										resource,
-										peid,
-										operatorName,
-										operatorKind).set((long)metric.get("value"));
-								break;
-							}
-						}	// End Operator Metrics Loop		
-						
-						// Loop over Operator Input Ports
-						JSONArray opipArray = (JSONArray) operator.get("inputPorts");
-						for (int opip = 0; opip < opipArray.size(); opip++) {
-							JSONObject inputPort = (JSONObject)opipArray.get(opip);
-							Long indexWithinOperator = (Long)inputPort.get("indexWithinOperator");
-							String inputPortName = this.operatorInputPortNames.get(operatorName).get(indexWithinOperator);
-							JSONArray ipMetrics = (JSONArray)inputPort.get("metrics");
-							for (int opipm = 0; opipm < ipMetrics.size(); opipm++) {
-								JSONObject metric = (JSONObject) ipMetrics.get(opipm);
-								String metricName = (String)metric.get("name");
-								switch (metricName) {
-								default:
-									metricsExporter.getStreamsMetric(metricName,
-											StreamsObjectType.OPERATOR_INPUTPORT,
-											this.domain,
-											this.streamsInstanceName,
-											this.jobname,
-											resource,
-											peid,
-											operatorName,
-											operatorKind,
-											inputPortName).set((long)metric.get("value"));
-									break;
-								}
-							} // End Input Port Metrics Loop
-						} // End Operator Input Port Loop
-
-						// Loop over Operator Output Ports
-						JSONArray opopArray = (JSONArray) operator.get("outputPorts");
-						for (int opop = 0; opop < opopArray.size(); opop++) {
-							JSONObject outputPort = (JSONObject)opopArray.get(opop);
-							Long indexWithinOperator = (Long)outputPort.get("indexWithinOperator");
-							String outputPortName = this.operatorOutputPortNames.get(operatorName).get(indexWithinOperator);
-							JSONArray opMetrics = (JSONArray)outputPort.get("metrics");
-							for (int opopm = 0; opopm < opMetrics.size(); opopm++) {
-								JSONObject metric = (JSONObject) opMetrics.get(opopm);
-								String metricName = (String)metric.get("name");
-								switch (metricName) {
-								default:
-									metricsExporter.getStreamsMetric(metricName,
-											StreamsObjectType.OPERATOR_OUTPUTPORT,
-											this.domain,
-											this.streamsInstanceName,
-											this.jobname,
-											resource,
-											peid,
-											operatorName,
-											operatorKind,
-											outputPortName).set((long)metric.get("value"));
-									break;
-								}
-							} // End Output Port Metrics Loop
-						} // End Operator Output Port Loop						
-						
-					} // End Operator Loop
-				} // End PE Loop
-				metricsExporter.getStreamsMetric("pecount", StreamsObjectType.JOB,this.domain,this.streamsInstanceName, this.jobname).set(peArray.size());
-				metricsExporter.getStreamsMetric("nCpuMilliseconds", StreamsObjectType.JOB,this.domain, this.streamsInstanceName,this.jobname).set(ncpu);
-				metricsExporter.getStreamsMetric("nResidentMemoryConsumption", StreamsObjectType.JOB,this.domain, this.streamsInstanceName,this.jobname).set(nrmc);
-				metricsExporter.getStreamsMetric("nMemoryConsumption", StreamsObjectType.JOB,this.domain,this.streamsInstanceName,this.jobname).set(nmc);
-				if (numconnections > 0)
-					avgcongestion = totalcongestion / numconnections;
-				// else it was initialized to 0;
-				metricsExporter.getStreamsMetric("sum_congestionFactor", StreamsObjectType.JOB,this.domain,this.streamsInstanceName, this.jobname).set(totalcongestion);
-				metricsExporter.getStreamsMetric("avg_congestionFactor", StreamsObjectType.JOB,this.domain,this.streamsInstanceName,this.jobname).set(avgcongestion);
-				metricsExporter.getStreamsMetric("max_congestionFactor", StreamsObjectType.JOB,this.domain,this.streamsInstanceName,this.jobname).set(maxcongestion);
-				if (mincongestion == 999) mincongestion = 0;
-				metricsExporter.getStreamsMetric("min_congestionFactor", StreamsObjectType.JOB,this.domain, this.streamsInstanceName,this.jobname).set(mincongestion);
-			} catch (ParseException e) {
-				throw new IllegalStateException(e);
-			}
+									operatorName,
+									operatorKind,
+									outputPortName);
+						} // End Output Port Metrics Loop
+					} // End Operator Output Port Loop						
+					
+				} // End Operator Loop
+			} // End PE Loop
+			exportStreamsMetric("pecount", StreamsObjectType.JOB,this.domain,this.streamsInstanceName, this.jobname).set(jobMetrics.getPes().size());
+			exportStreamsMetric("nCpuMilliseconds", StreamsObjectType.JOB,this.domain, this.streamsInstanceName,this.jobname).set(ncpu);
+			exportStreamsMetric("nResidentMemoryConsumption", StreamsObjectType.JOB,this.domain, this.streamsInstanceName,this.jobname).set(nrmc);
+			exportStreamsMetric("nMemoryConsumption", StreamsObjectType.JOB,this.domain,this.streamsInstanceName,this.jobname).set(nmc);
+			if (numconnections > 0)
+				avgcongestion = totalcongestion / numconnections;
+			// else it was initialized to 0;
+			exportStreamsMetric("sum_congestionFactor", StreamsObjectType.JOB,this.domain,this.streamsInstanceName, this.jobname).set(totalcongestion);
+			exportStreamsMetric("avg_congestionFactor", StreamsObjectType.JOB,this.domain,this.streamsInstanceName,this.jobname).set(avgcongestion);
+			exportStreamsMetric("max_congestionFactor", StreamsObjectType.JOB,this.domain,this.streamsInstanceName,this.jobname).set(maxcongestion);
+			if (mincongestion == 999) mincongestion = 0;
+			exportStreamsMetric("min_congestionFactor", StreamsObjectType.JOB,this.domain, this.streamsInstanceName,this.jobname).set(mincongestion);
+
+			exportAggregates();
+
+			// Series that were not rated this time are left behind with the previous store
+			this.rateStore = this.nextRateStore;
+			this.nextRateStore = null;
 		} // end if metrics != null
 	}
 	
@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.job;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import streams.metric.exporter.metrics.MetricFilter;
+
+/*
+ * JobTrackingFilter
+ * 
+ * Jobs of an instance that are tracked, by job name or job group.  Written
+ * as [instance:]name=pattern or [instance:]group=pattern entries, a job is
+ * tracked if any entry for its instance matches it.  Instances without
+ * entries of their own or for all instances track all of their jobs.
+ */
+public class JobTrackingFilter {
+
+	private final List<Entry> entries;
+
+	public JobTrackingFilter(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/* Does the filter limit the jobs tracked for the instance */
+	public boolean appliesTo(String instanceName) {
+		for (Entry entry : entries) {
+			if (entry.appliesTo(instanceName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isTracked(String instanceName, String jobName, String jobGroup) {
+		if (!appliesTo(instanceName)) {
+			return true;
+		}
+		for (Entry entry : entries) {
+			if (entry.appliesTo(instanceName) && entry.matches(jobName, jobGroup)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static class Entry {
+		private final String text;
+		private final String instanceName;
+		private final boolean group;
+		private final Pattern pattern;
+
+		private Entry(String text, String instanceName, boolean group, Pattern pattern) {
+			this.text = text;
+			this.instanceName = instanceName;
+			this.group = group;
+			this.pattern = pattern;
+		}
+
+		/* Throws IllegalArgumentException if the entry is not valid */
+		public static Entry parse(String text) {
+			int equals = text.indexOf('=');
+			if (equals < 1) {
+				throw new IllegalArgumentException("Expected [instance:]name=pattern or [instance:]group=pattern");
+			}
+			String key = text.substring(0, equals).trim();
+			String instanceName = null;
+			int colon = key.lastIndexOf(':');
+			if (colon >= 0) {
+				instanceName = key.substring(0, colon).trim();
+				key = key.substring(colon + 1).trim();
+			}
+			boolean group;
+			if ("name".equalsIgnoreCase(key)) {
+				group = false;
+			} else if ("group".equalsIgnoreCase(key)) {
+				group = true;
+			} else {
+				throw new IllegalArgumentException("Expected name or group, found " + key);
+			}
+			Pattern pattern = MetricFilter.compilePattern(text.substring(equals + 1).trim());
+			return new Entry(text.trim(), instanceName == null || instanceName.length() == 0 ? null : instanceName,
+					group, pattern);
+		}
+
+		boolean appliesTo(String instanceName) {
+			return this.instanceName == null || this.instanceName.equals(instanceName);
+		}
+
+		boolean matches(String jobName, String jobGroup) {
+			String value = group ? jobGroup : jobName;
+			return pattern == null || (value != null && pattern.matcher(value).matches());
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import streams.metric.exporter.metrics.MetricsExporter;
+import streams.metric.exporter.metrics.MetricsExporter.Metric;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+/*
+ * SeriesHandles
+ * 
+ * Metric handles of the pe and operator series of a job, in the order the
+ * metrics of the job are processed.  While the job keeps its shape each
+ * sample finds its series at the same position as in the last refresh and
+ * sets the handle directly.  The exporter is only asked for series that are
+ * new, moved, or were removed from its index since they were resolved.
+ */
+class SeriesHandles {
+
+	/* Name of the rate series of a metric */
+	static String rateName(String metricName) {
+		return "rate_" + metricName;
+	}
+
+	/* A series at one position, with the handles of its value and rate */
+	static final class Series {
+		final String metricName;
+		final StreamsObjectType type;
+		final String[] labelValues;
+		private Metric metric = null;
+		private Metric rateMetric = null;
+		private String rateName = null;
+		// Key of the series in the rate stores, 0 until it is first rated
+		private long rateKey = 0;
+		// Refresh that last set each handle
+		private int metricSet = 0;
+		private int rateSet = 0;
+
+		Series(String metricName, StreamsObjectType type, String[] labelValues) {
+			this.metricName = metricName;
+			this.type = type;
+			this.labelValues = labelValues;
+		}
+
+		boolean matches(String metricName, StreamsObjectType type, String[] labelValues) {
+			return this.type == type && this.metricName.equals(metricName) && Arrays.equals(this.labelValues, labelValues);
+		}
+
+		String getRateName() {
+			if (rateName == null) {
+				rateName = rateName(metricName);
+			}
+			return rateName;
+		}
+
+		long getRateKey() {
+			return rateKey;
+		}
+
+		void setRateKey(long rateKey) {
+			this.rateKey = rateKey;
+		}
+	}
+
+	private final MetricsExporter metricsExporter;
+
+	// Series of the last finished refresh by position, taken as they are found again
+	private Series[] previous = new Series[0];
+	private int previousSize = 0;
+	// Series of the current refresh by position
+	private Series[] current = new Series[0];
+	private int size = 0;
+	private int refresh = 0;
+	private boolean finished = true;
+	private int exported = 0;
+	// Handles set by the current refresh, only built when a series has to be removed
+	private Set<Metric> setMetrics = null;
+
+	SeriesHandles(MetricsExporter metricsExporter) {
+		this.metricsExporter = metricsExporter;
+	}
+
+	void start() {
+		if (finished) {
+			previous = current;
+			previousSize = size;
+		} else {
+			// The last refresh did not finish, keep what it did not take so it is still removed
+			Series[] merged = Arrays.copyOf(current, size + previousSize);
+			int mergedSize = size;
+			for (int i = 0; i < previousSize; i++) {
+				if (previous[i] != null) {
+					merged[mergedSize++] = previous[i];
+				}
+			}
+			previous = merged;
+			previousSize = mergedSize;
+		}
+		current = new Series[Math.max(16, previousSize)];
+		size = 0;
+		refresh++;
+		finished = false;
+		setMetrics = null;
+	}
+
+	/* The series at the next position, the one of the last refresh if it is the same series */
+	Series next(String metricName, StreamsObjectType type, String[] labelValues) {
+		Series series = (size < previousSize ? previous[size] : null);
+		if (series != null && series.matches(metricName, type, labelValues)) {
+			previous[size] = null;
+		} else {
+			series = new Series(metricName, type, labelValues);
+		}
+		if (size == current.length) {
+			current = Arrays.copyOf(current, size * 2);
+		}
+		current[size++] = series;
+		return series;
+	}
+
+	void set(Series series, double value) {
+		Metric metric = series.metric;
+		if (metric == null || metric.isRemoved()) {
+			metric = metricsExporter.getStreamsMetric(series.metricName, series.type, series.labelValues);
+			series.metric = metric;
+		}
+		metric.set(value);
+		series.metricSet = refresh;
+	}
+
+	void setRate(Series series, double rate) {
+		Metric metric = series.rateMetric;
+		if (metric == null || metric.isRemoved()) {
+			metric = metricsExporter.getStreamsMetric(series.getRateName(), series.type, series.labelValues);
+			series.rateMetric = metric;
+		}
+		metric.set(rate);
+		series.rateSet = refresh;
+	}
+
+	/*
+	 * Remove the series the current refresh did not set, unless they are in
+	 * alsoSet.  Returns the number of handles set by the refresh.
+	 */
+	int finish(Set<Metric> alsoSet) {
+		List<Metric> unset = new ArrayList<Metric>();
+		for (int i = 0; i < previousSize; i++) {
+			if (previous[i] != null) {
+				addIfResolved(unset, previous[i].metric);
+				addIfResolved(unset, previous[i].rateMetric);
+				previous[i] = null;
+			}
+		}
+		exported = 0;
+		for (int i = 0; i < size; i++) {
+			Series series = current[i];
+			if (series.metricSet == refresh) {
+				exported++;
+			} else {
+				addIfResolved(unset, series.metric);
+				series.metric = null;
+			}
+			if (series.rateSet == refresh) {
+				exported++;
+			} else {
+				addIfResolved(unset, series.rateMetric);
+				series.rateMetric = null;
+			}
+		}
+		previousSize = 0;
+		finished = true;
+		for (Metric metric : unset) {
+			// The same series may have been set at another position
+			if (!alsoSet.contains(metric) && !isSet(metric)) {
+				metricsExporter.removeStreamsMetric(metric);
+			}
+		}
+		return exported;
+	}
+
+	/* Was the metric set by the current, or last finished, refresh */
+	boolean isSet(Metric metric) {
+		if (setMetrics == null) {
+			setMetrics = new HashSet<Metric>();
+			for (int i = 0; i < size; i++) {
+				if (current[i].metricSet == refresh) {
+					setMetrics.add(current[i].metric);
+				}
+				if (current[i].rateSet == refresh) {
+					setMetrics.add(current[i].rateMetric);
+				}
+			}
+		}
+		return setMetrics.contains(metric);
+	}
+
+	/* Number of handles set by the last finished refresh */
+	int getExported() {
+		return exported;
+	}
+
+	/* Forget all handles, their series have been removed */
+	void clear() {
+		previous = new Series[0];
+		previousSize = 0;
+		current = new Series[0];
+		size = 0;
+		finished = true;
+		exported = 0;
+		setMetrics = null;
+	}
+
+	private static void addIfResolved(List<Metric> metrics, Metric metric) {
+		if (metric != null) {
+			metrics.add(metric);
+		}
+	}
+}
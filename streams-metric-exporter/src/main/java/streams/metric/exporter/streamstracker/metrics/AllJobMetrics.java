@@ -17,20 +17,29 @@
 package streams.metric.exporter.streamstracker.metrics;
 
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigInteger;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Date;
 import org.apache.commons.lang.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.core.JsonParser;
 import streams.metric.exporter.error.StreamsTrackerException;
+import streams.metric.exporter.httpclient.WebClient;
 import streams.metric.exporter.httpclient.WebClientException;
 import streams.metric.exporter.jmx.JmxServiceContext;
+import streams.metric.exporter.json.JobsStreamParser;
 
 import com.ibm.streams.management.instance.InstanceMXBean;
 
@@ -45,23 +54,30 @@ public class AllJobMetrics {
     private String jmxHttpHost;
     private String jmxHttpPort;
 
+    // Jobs to retrieve, null for all jobs of the instance
+    private volatile Set<BigInteger> jobIds = null;
+
     //private InstanceMXBean instance;
     //private String protocol;
 
+    // Document last retrieved for REST requests and the refresh it was retrieved after
+    private SoftReference<String> retrieved = null;
+    private Date retrievedFor = null;
+    private Date retrievedDate = null;
+    // Set by the first REST request, refreshes then keep the document they stream
+    private volatile boolean keepDocument = false;
+
     // Primary attributes for consumer
     private Date lastMetricsRefresh = null;
     private Date lastMetricsFailure = null;
     private boolean lastMetricsRefreshFailed = false;
-    private String allMetrics = null;
-
-    // @JsonValue
-    @JsonRawValue
-    public String getAllMetrics() {
-        return allMetrics;
-    }
 
-    private void setAllMetrics(String allMetrics) {
-        this.allMetrics = allMetrics;
+    /*
+     * Receives the metrics of each job as it is parsed from the metrics
+     * snapshot, the complete snapshot is never held in memory
+     */
+    public interface JobMetricsHandler {
+        void handleJobMetrics(JobMetrics jobMetrics);
     }
 
     public Date getLastMetricsRefresh() {
@@ -103,12 +119,60 @@ public class AllJobMetrics {
 
     }
 
-    public void clear() {
-        this.allMetrics = null;
+    public Set<BigInteger> getJobIds() {
+        return jobIds;
+    }
+
+    /* Limit the metrics snapshot to these jobs, null for all jobs */
+    public void setJobIds(Set<BigInteger> jobIds) {
+        this.jobIds = jobIds;
+    }
+
+    /*
+     * The metrics of all jobs as a single JSON document for REST requests
+     * that want the raw json.  Once they are asked for, each refresh keeps
+     * the document it streamed, so requests get the metrics that were
+     * exported without another request to the Streams server.  Only the
+     * first request, or one after memory took the document back (it is
+     * held softly), retrieves the document from the server.
+     */
+    public synchronized String retrieveAllMetrics() throws IOException, StreamsTrackerException {
+        this.keepDocument = true;
+        String json = (this.retrievedFor == this.lastMetricsRefresh && this.retrieved != null ? this.retrieved.get() : null);
+        if (json != null) {
+            return json;
+        }
+        Set<BigInteger> scope = this.jobIds;
+        if (scope != null && scope.isEmpty()) {
+            json = "{\"jobs\":[]}";
+        } else {
+            String uri = snapshotJobMetrics(scope);
+            try {
+                json = jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort);
+            } catch (WebClientException e) {
+                throw new StreamsTrackerException(e);
+            }
+        }
+        this.retrievedFor = this.lastMetricsRefresh;
+        this.retrievedDate = new Date();
+        this.retrieved = new SoftReference<String>(json);
+        return json;
+    }
+
+    /* When the document last returned by retrieveAllMetrics() was retrieved from the server */
+    public synchronized Date getLastRetrieved() {
+        return retrievedDate;
+    }
 
+    /* The document a refresh streamed, for retrieveAllMetrics(), kept together with the refresh time */
+    private synchronized void keepRetrieved(byte[] document, Date refreshed) {
+        this.lastMetricsRefresh = refreshed;
+        this.retrievedFor = refreshed;
+        this.retrievedDate = refreshed;
+        this.retrieved = new SoftReference<String>(new String(document, StandardCharsets.UTF_8));
     }
 
-    public void refresh() throws IOException, StreamsTrackerException {
+    public void refresh(final JobMetricsHandler handler) throws IOException, StreamsTrackerException {
         LOGGER.trace("Entered");
         LOGGER.trace("** Refreshing all jobs metrics");
 
@@ -120,6 +184,15 @@ public class AllJobMetrics {
             previousRefresh = new Date();
         }
 
+        // No tracked jobs, nothing to ask the server for
+        Set<BigInteger> scope = this.jobIds;
+        if (scope != null && scope.isEmpty()) {
+            LOGGER.trace("Instance ({}) has no tracked jobs, not retrieving metrics",this.instanceName);
+            this.setLastMetricsRefresh(new Date());
+            this.setLastMetricsRefreshFailed(false);
+            return;
+        }
+
         StopWatch stopwatch = null;
         LinkedHashMap<String, Long> timers = null;
         if (LOGGER.isTraceEnabled()) {
@@ -131,33 +204,8 @@ public class AllJobMetrics {
 
         // JMX Interaction
         try {
-            LOGGER.trace("* AllJobMetrcs * Get instance object from jmxContext");
-
-            InstanceMXBean instance = jmxContext.getBeanSourceProvider()
-                    .getBeanSource()
-                    .getInstanceBean(this.domainName, this.instanceName);
-
-            LOGGER.trace("* AllJobMetrics * SnapshotJobMetrics...");
-            //
-            // ISSUE: snapshotJobMetrics does not declare it throws IOException
-            // but it does and comes back to us as UndeclaredThrowableException,
-            // handle that here
-            //
-            try {
-                uri = instance.snapshotJobMetrics();
-            } catch (UndeclaredThrowableException e) {
-                LOGGER.trace("* Handling snapshotJobMetrics UndeclaredThrowableException and unwrapping it");
-                Throwable t = e.getUndeclaredThrowable();
-                if (t instanceof IOException) {
-                    LOGGER.trace("*    It was an IOException we can handle, throwing the IOException");
-                    throw (IOException) t;
-                } else {
-                    LOGGER.trace("*    It was an "
-                            + t.getClass()
-                            + " which was unexpected, throw original undeclarable...");
-                    throw e;
-                }
-            }
+            uri = snapshotJobMetrics(scope);
+
             if (LOGGER.isTraceEnabled()) {
                 stopwatch.stop();
                 timers.put("jmx call to snapshotJobMetrics", stopwatch.getTime());
@@ -182,13 +230,38 @@ public class AllJobMetrics {
         try {
             LOGGER.debug("Instance ({}) Metrics HTTP Retrieve from URI ({}) ...",this.instanceName,uri);
 
-            this.setAllMetrics(jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort));
-            this.setLastMetricsRefresh(new Date());
+            // Stream the response through the parser, handing off each job as it is read
+            final ByteArrayOutputStream document = this.keepDocument ? new ByteArrayOutputStream() : null;
+            int jobCount = jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort,
+                    new WebClient.ResponseHandler<Integer>() {
+                        public Integer handleResponse(InputStream body) throws IOException {
+                            InputStream in = (document == null ? body : new CopyingInputStream(body, document));
+                            int jobs = JobsStreamParser.parse(in, new JobsStreamParser.JobHandler() {
+                                public void handleJob(JsonParser parser) throws IOException {
+                                    handler.handleJobMetrics(JobMetrics.read(parser));
+                                }
+                            });
+                            if (document != null) {
+                                // The parser can stop before the end of the document
+                                byte[] rest = new byte[8192];
+                                while (in.read(rest) != -1) {
+                                }
+                            }
+                            return jobs;
+                        }
+                    });
+            LOGGER.trace("Instance ({}) Metrics streamed for {} jobs",this.instanceName,jobCount);
+            Date refreshed = new Date();
+            if (document != null) {
+                keepRetrieved(document.toByteArray(), refreshed);
+            } else {
+                this.setLastMetricsRefresh(refreshed);
+            }
             this.setLastMetricsRefreshFailed(false);
 
             if (LOGGER.isTraceEnabled()) {
                 stopwatch.stop();
-                timers.put("connect jmx(http server) and retrieve metrics", stopwatch.getTime());
+                timers.put("connect jmx(http server), retrieve and parse metrics", stopwatch.getTime());
             }
 
         } catch (WebClientException e) {
@@ -214,6 +287,40 @@ public class AllJobMetrics {
 
     }
 
+    // Ask the JMX Server to create the metrics snapshot, null for all jobs, returns the uri to retrieve it from
+    private String snapshotJobMetrics(Set<BigInteger> jobIds) throws IOException {
+        String uri = null;
+
+        LOGGER.trace("* AllJobMetrcs * Get instance object from jmxContext");
+
+        InstanceMXBean instance = jmxContext.getBeanSourceProvider()
+                .getBeanSource()
+                .getInstanceBean(this.domainName, this.instanceName);
+
+        LOGGER.trace("* AllJobMetrics * SnapshotJobMetrics...");
+        //
+        // ISSUE: snapshotJobMetrics does not declare it throws IOException
+        // but it does and comes back to us as UndeclaredThrowableException,
+        // handle that here
+        //
+        try {
+            uri = (jobIds == null ? instance.snapshotJobMetrics() : instance.snapshotJobMetrics(jobIds));
+        } catch (UndeclaredThrowableException e) {
+            LOGGER.trace("* Handling snapshotJobMetrics UndeclaredThrowableException and unwrapping it");
+            Throwable t = e.getUndeclaredThrowable();
+            if (t instanceof IOException) {
+                LOGGER.trace("*    It was an IOException we can handle, throwing the IOException");
+                throw (IOException) t;
+            } else {
+                LOGGER.trace("*    It was an "
+                        + t.getClass()
+                        + " which was unexpected, throw original undeclarable...");
+                throw e;
+            }
+        }
+        return uri;
+    }
+
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder();
@@ -238,4 +345,43 @@ public class AllJobMetrics {
             return "null";
         }
     }
+
+    /* Writes the bytes read through it to a copy of the document */
+    private static class CopyingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream copy;
+
+        CopyingInputStream(InputStream in, ByteArrayOutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int skipped = read(new byte[(int) Math.min(n, 8192)]);
+            return skipped < 0 ? 0 : skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
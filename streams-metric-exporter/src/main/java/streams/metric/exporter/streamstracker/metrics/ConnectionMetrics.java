@@ -0,0 +1,71 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/* Immutable metrics of a connection from a PE output port */
+public class ConnectionMetrics {
+
+	static final JobsStreamParser.ElementReader<ConnectionMetrics> READER = new JobsStreamParser.ElementReader<ConnectionMetrics>() {
+		public ConnectionMetrics read(JsonParser parser) throws IOException {
+			return ConnectionMetrics.read(parser);
+		}
+	};
+
+	private final String id;
+	private final MetricValues metrics;
+
+	public ConnectionMetrics(String id, MetricValues metrics) {
+		this.id = id;
+		this.metrics = metrics;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public MetricValues getMetrics() {
+		return metrics;
+	}
+
+	public static ConnectionMetrics read(JsonParser parser) throws IOException {
+		String id = null;
+		MetricValues metrics = MetricValues.EMPTY;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				id = JobsStreamParser.readString(parser);
+				break;
+			case "metrics":
+				metrics = MetricValues.read(parser);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new ConnectionMetrics(id, metrics);
+	}
+}
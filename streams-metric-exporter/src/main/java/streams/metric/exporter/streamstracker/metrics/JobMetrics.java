@@ -0,0 +1,78 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/*
+ * JobMetrics
+ * 
+ * Immutable view of a single job from the snapshotJobMetrics() json.
+ * Job -> PE -> Operator -> Port -> Connection, with the metrics of each
+ * level held in a MetricValues.
+ */
+public class JobMetrics {
+
+	private final String id;
+	private final List<PeMetrics> pes;
+
+	public JobMetrics(String id, List<PeMetrics> pes) {
+		this.id = id;
+		this.pes = pes;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public List<PeMetrics> getPes() {
+		return pes;
+	}
+
+	/* Read the job object the parser is positioned on */
+	public static JobMetrics read(JsonParser parser) throws IOException {
+		String id = null;
+		List<PeMetrics> pes = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				id = JobsStreamParser.readString(parser);
+				break;
+			case "pes":
+				pes = JobsStreamParser.readList(parser, PeMetrics.READER);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new JobMetrics(id, JobsStreamParser.nonNull(pes));
+	}
+
+	@Override
+	public String toString() {
+		return "JobMetrics id: " + id + " pes: " + pes.size();
+	}
+}
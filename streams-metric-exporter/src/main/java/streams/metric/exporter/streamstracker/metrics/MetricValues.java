@@ -0,0 +1,100 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/*
+ * MetricValues
+ * 
+ * Immutable list of name/value pairs from a "metrics" array of the
+ * snapshotJobMetrics() json, held as parallel primitive arrays rather than
+ * an object per metric.
+ */
+public class MetricValues {
+
+	public static final MetricValues EMPTY = new MetricValues(new String[0], new long[0]);
+
+	private final String[] names;
+	private final long[] values;
+
+	private MetricValues(String[] names, long[] values) {
+		this.names = names;
+		this.values = values;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int i) {
+		return names[i];
+	}
+
+	public long getValue(int i) {
+		return values[i];
+	}
+
+	/* Read the metrics array the parser is positioned on */
+	public static MetricValues read(JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+			parser.skipChildren();
+			return EMPTY;
+		}
+
+		String[] names = new String[8];
+		long[] values = new long[8];
+		int count = 0;
+
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			String name = null;
+			long value = 0;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				parser.nextToken();
+				switch (fieldName) {
+				case "name":
+					name = JobsStreamParser.readString(parser);
+					break;
+				case "value":
+					value = parser.getValueAsLong();
+					break;
+				default:
+					parser.skipChildren();
+				}
+			}
+			if (count == names.length) {
+				names = Arrays.copyOf(names, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			names[count] = name;
+			values[count] = value;
+			count++;
+		}
+
+		if (count == 0) {
+			return EMPTY;
+		}
+		return new MetricValues(Arrays.copyOf(names, count), Arrays.copyOf(values, count));
+	}
+}
@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/* Immutable metrics of an operator and its ports */
+public class OperatorMetrics {
+
+	static final JobsStreamParser.ElementReader<OperatorMetrics> READER = new JobsStreamParser.ElementReader<OperatorMetrics>() {
+		public OperatorMetrics read(JsonParser parser) throws IOException {
+			return OperatorMetrics.read(parser);
+		}
+	};
+
+	private final String name;
+	private final MetricValues metrics;
+	private final List<PortMetrics> inputPorts;
+	private final List<PortMetrics> outputPorts;
+
+	public OperatorMetrics(String name, MetricValues metrics,
+			List<PortMetrics> inputPorts, List<PortMetrics> outputPorts) {
+		this.name = name;
+		this.metrics = metrics;
+		this.inputPorts = inputPorts;
+		this.outputPorts = outputPorts;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public MetricValues getMetrics() {
+		return metrics;
+	}
+
+	/* Input ports, indexed by indexWithinOperator */
+	public List<PortMetrics> getInputPorts() {
+		return inputPorts;
+	}
+
+	/* Output ports, indexed by indexWithinOperator */
+	public List<PortMetrics> getOutputPorts() {
+		return outputPorts;
+	}
+
+	public static OperatorMetrics read(JsonParser parser) throws IOException {
+		String name = null;
+		MetricValues metrics = MetricValues.EMPTY;
+		List<PortMetrics> inputPorts = null, outputPorts = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "name":
+				name = JobsStreamParser.readString(parser);
+				break;
+			case "metrics":
+				metrics = MetricValues.read(parser);
+				break;
+			case "inputPorts":
+				inputPorts = JobsStreamParser.readList(parser, PortMetrics.OPERATOR_PORT_READER);
+				break;
+			case "outputPorts":
+				outputPorts = JobsStreamParser.readList(parser, PortMetrics.OPERATOR_PORT_READER);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new OperatorMetrics(name, metrics, JobsStreamParser.nonNull(inputPorts),
+				JobsStreamParser.nonNull(outputPorts));
+	}
+}
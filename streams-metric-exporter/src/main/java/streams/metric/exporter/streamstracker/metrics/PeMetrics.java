@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/* Immutable metrics of a PE, its ports and its operators */
+public class PeMetrics {
+
+	static final JobsStreamParser.ElementReader<PeMetrics> READER = new JobsStreamParser.ElementReader<PeMetrics>() {
+		public PeMetrics read(JsonParser parser) throws IOException {
+			return PeMetrics.read(parser);
+		}
+	};
+
+	private final String id;
+	private final MetricValues metrics;
+	private final List<PortMetrics> inputPorts;
+	private final List<PortMetrics> outputPorts;
+	private final List<OperatorMetrics> operators;
+	private final long lastTimeRetrieved;
+
+	public PeMetrics(String id, long lastTimeRetrieved, MetricValues metrics, List<PortMetrics> inputPorts,
+			List<PortMetrics> outputPorts, List<OperatorMetrics> operators) {
+		this.id = id;
+		this.lastTimeRetrieved = lastTimeRetrieved;
+		this.metrics = metrics;
+		this.inputPorts = inputPorts;
+		this.outputPorts = outputPorts;
+		this.operators = operators;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/* When the instance collected the metrics of the pe (ms), 0 if not reported */
+	public long getLastTimeRetrieved() {
+		return lastTimeRetrieved;
+	}
+
+	public MetricValues getMetrics() {
+		return metrics;
+	}
+
+	/* Input ports, indexed by indexWithinPE */
+	public List<PortMetrics> getInputPorts() {
+		return inputPorts;
+	}
+
+	/* Output ports, indexed by indexWithinPE, including their connections */
+	public List<PortMetrics> getOutputPorts() {
+		return outputPorts;
+	}
+
+	public List<OperatorMetrics> getOperators() {
+		return operators;
+	}
+
+	public static PeMetrics read(JsonParser parser) throws IOException {
+		String id = null;
+		long lastTimeRetrieved = 0;
+		MetricValues metrics = MetricValues.EMPTY;
+		List<PortMetrics> inputPorts = null, outputPorts = null;
+		List<OperatorMetrics> operators = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				id = JobsStreamParser.readString(parser);
+				break;
+			case "lastTimeRetrieved":
+				lastTimeRetrieved = parser.getValueAsLong();
+				break;
+			case "metrics":
+				metrics = MetricValues.read(parser);
+				break;
+			case "inputPorts":
+				inputPorts = JobsStreamParser.readList(parser, PortMetrics.PE_PORT_READER);
+				break;
+			case "outputPorts":
+				outputPorts = JobsStreamParser.readList(parser, PortMetrics.PE_PORT_READER);
+				break;
+			case "operators":
+				operators = JobsStreamParser.readList(parser, OperatorMetrics.READER);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new PeMetrics(id, lastTimeRetrieved, metrics, JobsStreamParser.nonNull(inputPorts),
+				JobsStreamParser.nonNull(outputPorts), JobsStreamParser.nonNull(operators));
+	}
+}
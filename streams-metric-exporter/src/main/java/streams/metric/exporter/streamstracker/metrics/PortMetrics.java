@@ -0,0 +1,88 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/*
+ * Immutable metrics of a PE port or an operator port.  PE ports are
+ * identified by indexWithinPE and operator ports by indexWithinOperator,
+ * only PE output ports have connections.
+ */
+public class PortMetrics {
+
+	static final JobsStreamParser.ElementReader<PortMetrics> PE_PORT_READER = new JobsStreamParser.ElementReader<PortMetrics>() {
+		public PortMetrics read(JsonParser parser) throws IOException {
+			return PortMetrics.read(parser, "indexWithinPE");
+		}
+	};
+
+	static final JobsStreamParser.ElementReader<PortMetrics> OPERATOR_PORT_READER = new JobsStreamParser.ElementReader<PortMetrics>() {
+		public PortMetrics read(JsonParser parser) throws IOException {
+			return PortMetrics.read(parser, "indexWithinOperator");
+		}
+	};
+
+	private final long index;
+	private final MetricValues metrics;
+	private final List<ConnectionMetrics> connections;
+
+	public PortMetrics(long index, MetricValues metrics, List<ConnectionMetrics> connections) {
+		this.index = index;
+		this.metrics = metrics;
+		this.connections = connections;
+	}
+
+	public long getIndex() {
+		return index;
+	}
+
+	public MetricValues getMetrics() {
+		return metrics;
+	}
+
+	public List<ConnectionMetrics> getConnections() {
+		return connections;
+	}
+
+	private static PortMetrics read(JsonParser parser, String indexField) throws IOException {
+		long index = 0;
+		MetricValues metrics = MetricValues.EMPTY;
+		List<ConnectionMetrics> connections = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			if (indexField.equals(fieldName)) {
+				index = parser.getValueAsLong();
+			} else if ("metrics".equals(fieldName)) {
+				metrics = MetricValues.read(parser);
+			} else if ("connections".equals(fieldName)) {
+				connections = JobsStreamParser.readList(parser, ConnectionMetrics.READER);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return new PortMetrics(index, metrics, JobsStreamParser.nonNull(connections));
+	}
+}
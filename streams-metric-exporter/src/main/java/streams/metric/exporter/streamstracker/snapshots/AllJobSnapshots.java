@@ -17,20 +17,26 @@
 package streams.metric.exporter.streamstracker.snapshots;
 
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigInteger;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Date;
 import org.apache.commons.lang.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.core.JsonParser;
 import streams.metric.exporter.error.StreamsTrackerException;
+import streams.metric.exporter.httpclient.WebClient;
 import streams.metric.exporter.httpclient.WebClientException;
 import streams.metric.exporter.jmx.JmxServiceContext;
+import streams.metric.exporter.json.JobsStreamParser;
 
 import com.ibm.streams.management.instance.InstanceMXBean;
 
@@ -44,23 +50,33 @@ public class AllJobSnapshots {
     private String jmxHttpHost;
     private String jmxHttpPort;
 
+    // Depth and static attributes of the complete snapshots, shallow snapshots only have jobs and PEs
+    private int maxDepth;
+    private boolean includeStatic;
+    private static final int SHALLOW_DEPTH = 1;
+
+    // Jobs to retrieve, null for all jobs of the instance
+    private volatile Set<BigInteger> jobIds = null;
+
     //private InstanceMXBean instance;
     //private String protocol;
 
+    // Document last retrieved for REST requests and the refresh it was retrieved after
+    private SoftReference<String> retrieved = null;
+    private Date retrievedFor = null;
+    private Date retrievedDate = null;
+
     // Primary attributes for consumer
     private Date lastSnapshotRefresh = null;
     private Date lastSnapshotFailure = null;
     private boolean lastSnapshotRefreshFailed = false;
-    private String allSnapshots = null;
 
-    // @JsonValue
-    @JsonRawValue
-    public String getAllSnapshots() {
-        return allSnapshots;
-    }
-
-    private void setAllSnapshots(String allSnapshots) {
-        this.allSnapshots = allSnapshots;
+    /*
+     * Receives the snapshot of each job as it is parsed, the complete
+     * snapshot of all jobs is never held in memory
+     */
+    public interface JobSnapshotHandler {
+        void handleJobSnapshot(JobSnapshot jobSnapshot);
     }
 
     public Date getLastSnaphostRefresh() {
@@ -88,7 +104,8 @@ public class AllJobSnapshots {
     }
 
     public AllJobSnapshots(JmxServiceContext jmxContext, String domainName,
-            String instanceName, String jmxHttpHost, String jmxHttpPort) throws IOException,
+            String instanceName, String jmxHttpHost, String jmxHttpPort,
+            int maxDepth, boolean includeStatic) throws IOException,
             StreamsTrackerException {
 
         this.domainName = domainName;
@@ -96,20 +113,74 @@ public class AllJobSnapshots {
         this.jmxContext = jmxContext;
         this.jmxHttpHost = jmxHttpHost;
         this.jmxHttpPort = jmxHttpPort;
+        this.maxDepth = maxDepth;
+        this.includeStatic = includeStatic;
         //this.protocol = protocol;
 
         //this.refresh();
 
     }
 
-    public void clear() {
-        this.allSnapshots = null;
+    public Set<BigInteger> getJobIds() {
+        return jobIds;
+    }
 
+    /* Limit the snapshots of all jobs to these jobs, null for all jobs */
+    public void setJobIds(Set<BigInteger> jobIds) {
+        this.jobIds = jobIds;
     }
 
-    public void refresh() throws IOException, StreamsTrackerException {
+    /*
+     * Retrieve the snapshots of all jobs as a single JSON document for REST
+     * requests that want the raw json.  Refreshes only stream shallow
+     * snapshots and the complete ones of changed jobs, so the document is
+     * retrieved from the server, at most once per refresh.  It is taken
+     * after the refresh and can differ from the snapshots the exported
+     * series are based on.  It is held softly, memory can take it back
+     * between requests.
+     */
+    public synchronized String retrieveAllSnapshots() throws IOException, StreamsTrackerException {
+        String json = (this.retrievedFor == this.lastSnapshotRefresh && this.retrieved != null ? this.retrieved.get() : null);
+        if (json != null) {
+            return json;
+        }
+        Set<BigInteger> scope = this.jobIds;
+        if (scope != null && scope.isEmpty()) {
+            json = "{\"jobs\":[]}";
+        } else {
+            String uri = snapshotJobs(scope, maxDepth, includeStatic);
+            try {
+                json = jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort);
+            } catch (WebClientException e) {
+                throw new StreamsTrackerException(e);
+            }
+        }
+        this.retrievedFor = this.lastSnapshotRefresh;
+        this.retrievedDate = new Date();
+        this.retrieved = new SoftReference<String>(json);
+        return json;
+    }
+
+    /* When the document last returned by retrieveAllSnapshots() was retrieved from the server */
+    public synchronized Date getLastRetrieved() {
+        return retrievedDate;
+    }
+
+    public void refresh(final JobSnapshotHandler handler) throws IOException, StreamsTrackerException {
+        refresh(handler, maxDepth, includeStatic);
+    }
+
+    /*
+     * Snapshots of all jobs with only the job and PE attributes, enough to tell
+     * which jobs changed, not to map their operators
+     */
+    public void refreshShallow(final JobSnapshotHandler handler) throws IOException, StreamsTrackerException {
+        refresh(handler, SHALLOW_DEPTH, false);
+    }
+
+    private void refresh(final JobSnapshotHandler handler, int depth, boolean withStatic) throws IOException, StreamsTrackerException {
         LOGGER.trace("Entered");
-        LOGGER.trace("** Refreshing all job snapshots");
+        LOGGER.trace("** Refreshing all job snapshots, depth {} include static {}", depth, withStatic);
 
         String uri = null;
         Date previousRefresh = null;
@@ -119,6 +190,15 @@ public class AllJobSnapshots {
             previousRefresh = new Date();
         }
 
+        // No tracked jobs, nothing to ask the server for
+        Set<BigInteger> scope = this.jobIds;
+        if (scope != null && scope.isEmpty()) {
+            LOGGER.trace("Instance ({}) has no tracked jobs, not retrieving snapshots",this.instanceName);
+            this.setLastSnapshotRefresh(new Date());
+            this.setLastSnapshotRefreshFailed(false);
+            return;
+        }
+
         StopWatch stopwatch = null;
         LinkedHashMap<String, Long> timers = null;
         if (LOGGER.isTraceEnabled()) {
@@ -130,36 +210,11 @@ public class AllJobSnapshots {
 
         // JMX Interaction
         try {
-            LOGGER.trace("* AllJobSnapshots * Get instance object from jmxContext");
-
-            InstanceMXBean instance = jmxContext.getBeanSourceProvider()
-                    .getBeanSource()
-                    .getInstanceBean(this.domainName, this.instanceName);
-
-            LOGGER.trace("* AllJobSnapshots * SnapshotJobs...");
-            //
-            // ISSUE: snapshotJobMetrics does not declare it throws IOException
-            // but it does and comes back to us as UndeclaredThrowableException,
-            // handle that here, not suyre about snapshotJobs.
-            //
-            try {
-                uri = instance.snapshotJobs(null,99,true);
-            } catch (UndeclaredThrowableException e) {
-                LOGGER.trace("* Handling snapshotJobs UndeclaredThrowableException and unwrapping it");
-                Throwable t = e.getUndeclaredThrowable();
-                if (t instanceof IOException) {
-                    LOGGER.trace("*    It was an IOException we can handle, throwing the IOException");
-                    throw (IOException) t;
-                } else {
-                    LOGGER.trace("*    It was an "
-                            + t.getClass()
-                            + " which was unexpected, throw original undeclarable...");
-                    throw e;
-                }
-            }
+            uri = snapshotJobs(scope, depth, withStatic);
+
             if (LOGGER.isTraceEnabled()) {
                 stopwatch.stop();
-                timers.put("jmx call to snapshotJobs(null,1,false)", stopwatch.getTime());
+                timers.put("jmx call to snapshotJobs(" + (scope == null ? "null" : scope.size() + " jobs") + "," + depth + "," + withStatic + ")", stopwatch.getTime());
             }
 
         } catch (IOException e) {
@@ -181,13 +236,24 @@ public class AllJobSnapshots {
         try {
             LOGGER.debug("Instance ({}) Snapshots HTTP Retrieve from URI ({}) ...",this.instanceName,uri);
 
-            this.setAllSnapshots(jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort));
+            // Stream the response through the parser, handing off each job as it is read
+            int jobCount = jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort,
+                    new WebClient.ResponseHandler<Integer>() {
+                        public Integer handleResponse(InputStream body) throws IOException {
+                            return JobsStreamParser.parse(body, new JobsStreamParser.JobHandler() {
+                                public void handleJob(JsonParser parser) throws IOException {
+                                    handler.handleJobSnapshot(JobSnapshot.read(parser));
+                                }
+                            });
+                        }
+                    });
+            LOGGER.trace("Instance ({}) Snapshots streamed for {} jobs",this.instanceName,jobCount);
             this.setLastSnapshotRefresh(new Date());
             this.setLastSnapshotRefreshFailed(false);
 
             if (LOGGER.isTraceEnabled()) {
                 stopwatch.stop();
-                timers.put("connect jmx(http server) and retrieve snapshots", stopwatch.getTime());
+                timers.put("connect jmx(http server), retrieve and parse snapshots", stopwatch.getTime());
             }
 
         } catch (WebClientException e) {
@@ -213,6 +279,68 @@ public class AllJobSnapshots {
 
     }
 
+    /*
+     * Retrieve the snapshots of only the given jobs, used to pick up job changes
+     * between full refreshes.  Jobs that no longer exist are not handed to the
+     * handler.  Does not change the last refresh or failure dates, those
+     * describe the full snapshot of all jobs.
+     */
+    public int refreshJobs(Set<BigInteger> jobIds, final JobSnapshotHandler handler) throws IOException, StreamsTrackerException {
+        LOGGER.trace("** Refreshing job snapshots of jobs {}", jobIds);
+
+        String uri = snapshotJobs(jobIds, maxDepth, includeStatic);
+        try {
+            LOGGER.debug("Instance ({}) Snapshots of {} jobs HTTP Retrieve from URI ({}) ...",this.instanceName,jobIds.size(),uri);
+            return jmxContext.getWebClient().get(uri,this.jmxHttpHost,this.jmxHttpPort,
+                    new WebClient.ResponseHandler<Integer>() {
+                        public Integer handleResponse(InputStream body) throws IOException {
+                            return JobsStreamParser.parse(body, new JobsStreamParser.JobHandler() {
+                                public void handleJob(JsonParser parser) throws IOException {
+                                    handler.handleJobSnapshot(JobSnapshot.read(parser));
+                                }
+                            });
+                        }
+                    });
+        } catch (WebClientException e) {
+            LOGGER.warn("Job snapshots of jobs {} received HTTP Error.",jobIds);
+            throw new StreamsTrackerException(e);
+        }
+    }
+
+    // Ask the JMX Server to create the job snapshots, null for all jobs, returns the uri to retrieve them from
+    private String snapshotJobs(Set<BigInteger> jobIds, int depth, boolean withStatic) throws IOException {
+        String uri = null;
+
+        LOGGER.trace("* AllJobSnapshots * Get instance object from jmxContext");
+
+        InstanceMXBean instance = jmxContext.getBeanSourceProvider()
+                .getBeanSource()
+                .getInstanceBean(this.domainName, this.instanceName);
+
+        LOGGER.trace("* AllJobSnapshots * SnapshotJobs...");
+        //
+        // ISSUE: snapshotJobs does not declare it throws IOException
+        // but it does and comes back to us as UndeclaredThrowableException,
+        // handle that here, not suyre about snapshotJobs.
+        //
+        try {
+            uri = instance.snapshotJobs(jobIds,depth,withStatic);
+        } catch (UndeclaredThrowableException e) {
+            LOGGER.trace("* Handling snapshotJobs UndeclaredThrowableException and unwrapping it");
+            Throwable t = e.getUndeclaredThrowable();
+            if (t instanceof IOException) {
+                LOGGER.trace("*    It was an IOException we can handle, throwing the IOException");
+                throw (IOException) t;
+            } else {
+                LOGGER.trace("*    It was an "
+                        + t.getClass()
+                        + " which was unexpected, throw original undeclarable...");
+                throw e;
+            }
+        }
+        return uri;
+    }
+
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder();
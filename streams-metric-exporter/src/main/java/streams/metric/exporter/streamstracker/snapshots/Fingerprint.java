@@ -0,0 +1,58 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+/*
+ * 64 bit FNV-1a hash fed field by field while walking a snapshot, used to
+ * tell whether a job snapshot differs from the previous one without
+ * comparing them
+ */
+class Fingerprint {
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private long hash = OFFSET_BASIS;
+
+	Fingerprint add(long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value & 0xff);
+			hash *= PRIME;
+			value >>>= 8;
+		}
+		return this;
+	}
+
+	// The length is added so adjacent strings can not run into each other, -1 for null
+	Fingerprint add(String value) {
+		if (value == null) {
+			return add(-1L);
+		}
+		add((long) value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash ^= (c & 0xff);
+			hash *= PRIME;
+			hash ^= (c >>> 8);
+			hash *= PRIME;
+		}
+		return this;
+	}
+
+	long get() {
+		return hash;
+	}
+}
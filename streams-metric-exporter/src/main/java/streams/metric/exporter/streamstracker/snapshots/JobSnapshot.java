@@ -0,0 +1,179 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/*
+ * JobSnapshot
+ * 
+ * Immutable view of a single job from the snapshotJobs() json.  Only the
+ * attributes the exporter uses are kept, everything else is skipped by the
+ * parser.
+ */
+public class JobSnapshot {
+
+	private final String id;
+	private final String name;
+	private final String instance;
+	private final String status;
+	private final String health;
+	private final long submitTime;
+	private final List<PeSnapshot> pes;
+	private long fingerprint;
+	private volatile boolean fingerprinted = false;
+
+	public JobSnapshot(String id, String name, String instance, String status,
+			String health, long submitTime, List<PeSnapshot> pes) {
+		this.id = id;
+		this.name = name;
+		this.instance = instance;
+		this.status = status;
+		this.health = health;
+		this.submitTime = submitTime;
+		this.pes = pes;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getInstance() {
+		return instance;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public String getHealth() {
+		return health;
+	}
+
+	public long getSubmitTime() {
+		return submitTime;
+	}
+
+	public List<PeSnapshot> getPes() {
+		return pes;
+	}
+
+	/*
+	 * Hash of everything in the snapshot, equal fingerprints mean the job has
+	 * not changed.  Computed on first use, snapshots are immutable.
+	 */
+	public long getFingerprint() {
+		if (!fingerprinted) {
+			Fingerprint f = new Fingerprint();
+			f.add(id).add(name).add(instance).add(status).add(health).add(submitTime).add((long) pes.size());
+			for (PeSnapshot pe : pes) {
+				pe.fingerprint(f);
+			}
+			fingerprint = f.get();
+			fingerprinted = true;
+		}
+		return fingerprint;
+	}
+
+	/*
+	 * True if the job and PE attributes of a shallow snapshot of the job
+	 * match this snapshot, so its operators still describe the job.  Only
+	 * the job attributes are compared if the shallow snapshot has no PEs,
+	 * attributes missing from it are not compared.
+	 */
+	public boolean matchesShallow(JobSnapshot shallow) {
+		if ((shallow.status != null && !Objects.equals(status, shallow.status))
+				|| (shallow.health != null && !Objects.equals(health, shallow.health))) {
+			return false;
+		}
+		if (shallow.pes.isEmpty()) {
+			return true;
+		}
+		if (pes.size() != shallow.pes.size()) {
+			return false;
+		}
+		Map<String, PeSnapshot> pesById = new HashMap<String, PeSnapshot>(pes.size() * 2);
+		for (PeSnapshot pe : pes) {
+			pesById.put(pe.getId(), pe);
+		}
+		for (PeSnapshot shallowPe : shallow.pes) {
+			PeSnapshot pe = pesById.get(shallowPe.getId());
+			if (pe == null || !pe.matchesShallow(shallowPe)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Read the job object the parser is positioned on */
+	public static JobSnapshot read(JsonParser parser) throws IOException {
+		String id = null, name = null, instance = null, status = null, health = null;
+		long submitTime = 0;
+		List<PeSnapshot> pes = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				id = JobsStreamParser.readString(parser);
+				break;
+			case "name":
+				name = JobsStreamParser.readString(parser);
+				break;
+			case "instance":
+				instance = JobsStreamParser.readString(parser);
+				break;
+			case "status":
+				status = JobsStreamParser.readString(parser);
+				break;
+			case "health":
+				health = JobsStreamParser.readString(parser);
+				break;
+			case "submitTime":
+				submitTime = parser.getValueAsLong();
+				break;
+			case "pes":
+				pes = JobsStreamParser.readList(parser, PeSnapshot.READER);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new JobSnapshot(id, name, instance, status, health, submitTime,
+				JobsStreamParser.nonNull(pes));
+	}
+
+	@Override
+	public String toString() {
+		return "JobSnapshot id: " + id + " name: " + name + " status: " + status
+				+ " health: " + health + " pes: " + pes.size();
+	}
+}
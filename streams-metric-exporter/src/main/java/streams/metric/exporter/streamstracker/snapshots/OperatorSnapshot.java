@@ -0,0 +1,123 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/* Immutable view of an operator within a PE snapshot, including its port names */
+public class OperatorSnapshot {
+
+	static final JobsStreamParser.ElementReader<OperatorSnapshot> READER = new JobsStreamParser.ElementReader<OperatorSnapshot>() {
+		public OperatorSnapshot read(JsonParser parser) throws IOException {
+			return OperatorSnapshot.read(parser);
+		}
+	};
+
+	private final String name;
+	private final String operatorKind;
+	private final List<PortSnapshot> inputPorts;
+	private final List<PortSnapshot> outputPorts;
+
+	public OperatorSnapshot(String name, String operatorKind,
+			List<PortSnapshot> inputPorts, List<PortSnapshot> outputPorts) {
+		this.name = name;
+		this.operatorKind = operatorKind;
+		this.inputPorts = inputPorts;
+		this.outputPorts = outputPorts;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOperatorKind() {
+		return operatorKind;
+	}
+
+	public List<PortSnapshot> getInputPorts() {
+		return inputPorts;
+	}
+
+	public List<PortSnapshot> getOutputPorts() {
+		return outputPorts;
+	}
+
+	void fingerprint(Fingerprint f) {
+		f.add(name).add(operatorKind).add((long) inputPorts.size());
+		for (PortSnapshot port : inputPorts) {
+			port.fingerprint(f);
+		}
+		f.add((long) outputPorts.size());
+		for (PortSnapshot port : outputPorts) {
+			port.fingerprint(f);
+		}
+	}
+
+	/* Name of the input port by indexWithinOperator, null if there is no such port */
+	public String getInputPortName(long indexWithinOperator) {
+		return findPortName(inputPorts, indexWithinOperator);
+	}
+
+	/* Name of the output port by indexWithinOperator, null if there is no such port */
+	public String getOutputPortName(long indexWithinOperator) {
+		return findPortName(outputPorts, indexWithinOperator);
+	}
+
+	// Operators have very few ports, a linear search beats building a map
+	private static String findPortName(List<PortSnapshot> ports, long indexWithinOperator) {
+		for (PortSnapshot port : ports) {
+			if (port.getIndexWithinOperator() == indexWithinOperator) {
+				return port.getName();
+			}
+		}
+		return null;
+	}
+
+	public static OperatorSnapshot read(JsonParser parser) throws IOException {
+		String name = null, operatorKind = null;
+		List<PortSnapshot> inputPorts = null, outputPorts = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "name":
+				name = JobsStreamParser.readString(parser);
+				break;
+			case "operatorKind":
+				operatorKind = JobsStreamParser.readString(parser);
+				break;
+			case "inputPorts":
+				inputPorts = JobsStreamParser.readList(parser, PortSnapshot.READER);
+				break;
+			case "outputPorts":
+				outputPorts = JobsStreamParser.readList(parser, PortSnapshot.READER);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new OperatorSnapshot(name, operatorKind,
+				JobsStreamParser.nonNull(inputPorts), JobsStreamParser.nonNull(outputPorts));
+	}
+}
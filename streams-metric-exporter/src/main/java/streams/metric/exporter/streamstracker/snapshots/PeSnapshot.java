@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/* Immutable view of a PE within a job snapshot */
+public class PeSnapshot {
+
+	static final JobsStreamParser.ElementReader<PeSnapshot> READER = new JobsStreamParser.ElementReader<PeSnapshot>() {
+		public PeSnapshot read(JsonParser parser) throws IOException {
+			return PeSnapshot.read(parser);
+		}
+	};
+
+	private final String id;
+	private final String resource;
+	private final String status;
+	private final String health;
+	private final long launchCount;
+	private final List<OperatorSnapshot> operators;
+
+	public PeSnapshot(String id, String resource, String status, String health,
+			long launchCount, List<OperatorSnapshot> operators) {
+		this.id = id;
+		this.resource = resource;
+		this.status = status;
+		this.health = health;
+		this.launchCount = launchCount;
+		this.operators = operators;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getResource() {
+		return resource;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public String getHealth() {
+		return health;
+	}
+
+	public long getLaunchCount() {
+		return launchCount;
+	}
+
+	public List<OperatorSnapshot> getOperators() {
+		return operators;
+	}
+
+	/*
+	 * Same placement, state and launch count, operators are not compared.
+	 * Attributes missing from the shallow snapshot are not compared either.
+	 */
+	boolean matchesShallow(PeSnapshot shallow) {
+		return (shallow.resource == null || Objects.equals(resource, shallow.resource))
+				&& (shallow.status == null || Objects.equals(status, shallow.status))
+				&& (shallow.health == null || Objects.equals(health, shallow.health))
+				&& launchCount == shallow.launchCount;
+	}
+
+	void fingerprint(Fingerprint f) {
+		f.add(id).add(resource).add(status).add(health).add(launchCount).add((long) operators.size());
+		for (OperatorSnapshot operator : operators) {
+			operator.fingerprint(f);
+		}
+	}
+
+	public static PeSnapshot read(JsonParser parser) throws IOException {
+		String id = null, resource = null, status = null, health = null;
+		long launchCount = 0;
+		List<OperatorSnapshot> operators = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				id = JobsStreamParser.readString(parser);
+				break;
+			case "resource":
+				resource = JobsStreamParser.readString(parser);
+				break;
+			case "status":
+				status = JobsStreamParser.readString(parser);
+				break;
+			case "health":
+				health = JobsStreamParser.readString(parser);
+				break;
+			case "launchCount":
+				launchCount = parser.getValueAsLong();
+				break;
+			case "operators":
+				operators = JobsStreamParser.readList(parser, OperatorSnapshot.READER);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new PeSnapshot(id, resource, status, health, launchCount,
+				JobsStreamParser.nonNull(operators));
+	}
+}
@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import streams.metric.exporter.json.JobsStreamParser;
+
+/* Immutable view of an operator input or output port within a job snapshot */
+public class PortSnapshot {
+
+	static final JobsStreamParser.ElementReader<PortSnapshot> READER = new JobsStreamParser.ElementReader<PortSnapshot>() {
+		public PortSnapshot read(JsonParser parser) throws IOException {
+			return PortSnapshot.read(parser);
+		}
+	};
+
+	private final long indexWithinOperator;
+	private final String name;
+
+	public PortSnapshot(long indexWithinOperator, String name) {
+		this.indexWithinOperator = indexWithinOperator;
+		this.name = name;
+	}
+
+	public long getIndexWithinOperator() {
+		return indexWithinOperator;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	void fingerprint(Fingerprint f) {
+		f.add(indexWithinOperator).add(name);
+	}
+
+	public static PortSnapshot read(JsonParser parser) throws IOException {
+		long indexWithinOperator = 0;
+		String name = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "indexWithinOperator":
+				indexWithinOperator = parser.getValueAsLong();
+				break;
+			case "name":
+				name = JobsStreamParser.readString(parser);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		return new PortSnapshot(indexWithinOperator, name);
+	}
+}
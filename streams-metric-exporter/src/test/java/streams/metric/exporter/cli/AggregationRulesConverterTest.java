@@ -0,0 +1,67 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.List;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricAggregation;
+
+public class AggregationRulesConverterTest extends TestCase {
+
+	public void testEmpty() {
+		assertTrue(AggregationRulesConverter.convertAggregationRules(null).isEmpty());
+		assertTrue(AggregationRulesConverter.convertAggregationRules(" ; ").isEmpty());
+	}
+
+	public void testRules() {
+		List<MetricAggregation.Rule> rules = new AggregationRulesConverter()
+				.convert("sum:operator_ip:nTuplesProcessed:operatorkind; max:operator_ip:queueSize");
+		assertEquals(2, rules.size());
+		assertEquals("sum:operator_ip:nTuplesProcessed:operatorkind", rules.get(0).getText());
+		assertEquals("max:operator_ip:queueSize", rules.get(1).getText());
+	}
+
+	public void testInvalid() {
+		assertInvalid("sum:operator_ip");
+		assertInvalid("total:pe:*");
+		assertInvalid("sum:instance:*");
+		assertInvalid("sum:pe:*:nolabel");
+		assertInvalid("max:pe_op_connection:congestionFactor");
+	}
+
+	public void testSameSeriesInvalid() {
+		try {
+			AggregationRulesConverter.convertAggregationRules("max:operator:*;max:operator:queue*");
+			fail("accepted rules exporting the same series");
+		} catch (ParameterException e) {
+			assertTrue(e.getMessage().contains("max:operator:queue*"));
+			assertTrue(e.getMessage().contains("max:operator:*,"));
+		}
+	}
+
+	private void assertInvalid(String value) {
+		try {
+			AggregationRulesConverter.convertAggregationRules(value);
+			fail("accepted " + value);
+		} catch (ParameterException e) {
+			assertTrue(e.getMessage().contains(value));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.Map;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+
+public class InstanceRefreshRatesConverterTest extends TestCase {
+
+	public void testEmpty() {
+		assertTrue(InstanceRefreshRatesConverter.convertRefreshRates(null).isEmpty());
+		assertTrue(InstanceRefreshRatesConverter.convertRefreshRates("").isEmpty());
+		assertTrue(InstanceRefreshRatesConverter.convertRefreshRates(" , ").isEmpty());
+	}
+
+	public void testRates() {
+		Map<String, Integer> rates = new InstanceRefreshRatesConverter().convert("prod=10, test = 60,");
+		assertEquals(2, rates.size());
+		assertEquals(Integer.valueOf(10), rates.get("prod"));
+		assertEquals(Integer.valueOf(60), rates.get("test"));
+	}
+
+	public void testInvalid() {
+		assertInvalid("prod");
+		assertInvalid("=10");
+		assertInvalid("prod=0");
+		assertInvalid("prod=-5");
+		assertInvalid("prod=ten");
+		assertInvalid("prod=10,test");
+	}
+
+	private void assertInvalid(String value) {
+		try {
+			InstanceRefreshRatesConverter.convertRefreshRates(value);
+			fail("accepted " + value);
+		} catch (ParameterException e) {
+			// expected
+		}
+	}
+}
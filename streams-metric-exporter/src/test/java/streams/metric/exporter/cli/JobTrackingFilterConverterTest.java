@@ -0,0 +1,54 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.streamstracker.job.JobTrackingFilter;
+
+public class JobTrackingFilterConverterTest extends TestCase {
+
+	public void testEmpty() {
+		assertTrue(JobTrackingFilterConverter.convertJobFilter(null).getEntries().isEmpty());
+		assertTrue(JobTrackingFilterConverter.convertJobFilter(" ;").getEntries().isEmpty());
+	}
+
+	public void testEntries() {
+		JobTrackingFilter filter = new JobTrackingFilterConverter().convert("prod:name=keep_*; group=billing");
+		assertEquals(2, filter.getEntries().size());
+		assertEquals("prod:name=keep_*", filter.getEntries().get(0).getText());
+		assertTrue(filter.isTracked("prod", "keep_1", null));
+		assertTrue(filter.isTracked("prod", "other", "billing"));
+		assertFalse(filter.isTracked("prod", "other", "default"));
+	}
+
+	public void testInvalid() {
+		assertInvalid("keep_*");
+		assertInvalid("prod:id=1");
+		assertInvalid("name=/[/");
+	}
+
+	private void assertInvalid(String value) {
+		try {
+			JobTrackingFilterConverter.convertJobFilter(value);
+			fail("accepted " + value);
+		} catch (ParameterException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,56 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.List;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricFilter;
+
+public class MetricFiltersConverterTest extends TestCase {
+
+	public void testEmpty() {
+		assertTrue(MetricFiltersConverter.convertMetricFilters(null).isEmpty());
+		assertTrue(MetricFiltersConverter.convertMetricFilters(" ; ").isEmpty());
+	}
+
+	public void testRulesInOrder() {
+		List<MetricFilter.Rule> rules = new MetricFiltersConverter().convert("allow:pe:nCpu*; deny:pe:*;");
+		assertEquals(2, rules.size());
+		assertEquals("allow:pe:nCpu*", rules.get(0).getText());
+		assertEquals("deny:pe:*", rules.get(1).getText());
+	}
+
+	public void testInvalid() {
+		assertInvalid("deny:pe");
+		assertInvalid("block:pe:*");
+		assertInvalid("deny:nothing:*");
+		assertInvalid("deny:pe:/[/");
+		assertInvalid("allow:pe:*;deny");
+	}
+
+	private void assertInvalid(String value) {
+		try {
+			MetricFiltersConverter.convertMetricFilters(value);
+			fail("accepted " + value);
+		} catch (ParameterException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,51 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+
+public class RateMetricsConverterTest extends TestCase {
+
+	public void testEmpty() {
+		assertTrue(RateMetricsConverter.convertRateMetrics(null).isEmpty());
+		assertTrue(RateMetricsConverter.convertRateMetrics(" , ").isEmpty());
+	}
+
+	public void testPatterns() {
+		List<Pattern> patterns = new RateMetricsConverter().convert("nTuplesProcessed, nBytes*, /nCpu.*/, *");
+		assertEquals(4, patterns.size());
+		assertTrue(patterns.get(0).matcher("nTuplesProcessed").matches());
+		assertTrue(patterns.get(1).matcher("nBytesSubmitted").matches());
+		assertTrue(patterns.get(2).matcher("nCpuMilliseconds").matches());
+		// * rates every metric
+		assertNull(patterns.get(3));
+	}
+
+	public void testInvalid() {
+		try {
+			RateMetricsConverter.convertRateMetrics("nTuplesProcessed,/[/");
+			fail("invalid regex accepted");
+		} catch (ParameterException e) {
+			assertTrue(e.getMessage().contains("/[/"));
+		}
+	}
+}
@@ -0,0 +1,42 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+
+public class RefreshModeValidatorTest extends TestCase {
+
+	public void testValid() {
+		assertTrue(RefreshModeValidator.isValid("FIXEDRATE"));
+		assertTrue(RefreshModeValidator.isValid("fixeddelay"));
+		new RefreshModeValidator().validate("--refreshmode", "fixedRate");
+	}
+
+	public void testInvalid() {
+		assertFalse(RefreshModeValidator.isValid("rate"));
+		assertFalse(RefreshModeValidator.isValid(""));
+		assertFalse(RefreshModeValidator.isValid(null));
+		try {
+			new RefreshModeValidator().validate("--refreshmode", "sometimes");
+			fail("unknown mode accepted");
+		} catch (ParameterException e) {
+			assertTrue(e.getMessage().contains("sometimes"));
+		}
+	}
+}
@@ -0,0 +1,43 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.cli;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+
+public class ThreadCountValidatorTest extends TestCase {
+
+	public void testValid() {
+		assertTrue(ThreadCountValidator.isValid("1"));
+		assertTrue(ThreadCountValidator.isValid("16"));
+		new ThreadCountValidator().validate("--threads", "4");
+	}
+
+	public void testInvalid() {
+		assertFalse(ThreadCountValidator.isValid("0"));
+		assertFalse(ThreadCountValidator.isValid("-2"));
+		assertFalse(ThreadCountValidator.isValid("four"));
+		assertFalse(ThreadCountValidator.isValid(""));
+		try {
+			new ThreadCountValidator().validate("--threads", "0");
+			fail("0 threads accepted");
+		} catch (ParameterException e) {
+			assertTrue(e.getMessage().contains("0"));
+		}
+	}
+}
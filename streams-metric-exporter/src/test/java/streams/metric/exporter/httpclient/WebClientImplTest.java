@@ -0,0 +1,92 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class WebClientImplTest extends TestCase {
+
+	private static final String BODY = "{\"jobs\":[{\"id\":\"1\",\"pes\":[]}]}";
+
+	private static String decode(byte[] encoded, String contentEncoding) throws IOException {
+		InputStream in = WebClientImpl.decode(new ByteArrayInputStream(encoded), contentEncoding);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] deflate(boolean nowrap) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+		DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater);
+		deflate.write(BODY.getBytes("UTF-8"));
+		deflate.close();
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	public void testIdentity() throws IOException {
+		assertEquals(BODY, decode(BODY.getBytes("UTF-8"), null));
+		assertEquals(BODY, decode(BODY.getBytes("UTF-8"), "identity"));
+	}
+
+	public void testGzip() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(BODY.getBytes("UTF-8"));
+		gzip.close();
+		assertEquals(BODY, decode(out.toByteArray(), "gzip"));
+		assertEquals(BODY, decode(out.toByteArray(), " X-GZIP "));
+	}
+
+	public void testZlibDeflate() throws IOException {
+		assertEquals(BODY, decode(deflate(false), "deflate"));
+	}
+
+	public void testRawDeflate() throws IOException {
+		assertEquals(BODY, decode(deflate(true), "deflate"));
+	}
+
+	public void testEmptyDeflate() throws IOException {
+		assertEquals("", decode(new byte[0], "deflate"));
+	}
+
+	public void testUnsupportedEncoding() {
+		try {
+			decode(BODY.getBytes(), "br");
+			fail("br accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("br"));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import junit.framework.TestCase;
+
+public class JobsStreamParserTest extends TestCase {
+
+	private static InputStream json(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/* Collects the id of each job, skipping the rest of the job */
+	private static class IdCollector implements JobsStreamParser.JobHandler {
+		final List<String> ids = new ArrayList<String>();
+
+		public void handleJob(JsonParser parser) throws IOException {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				parser.nextToken();
+				if ("id".equals(fieldName)) {
+					ids.add(JobsStreamParser.readString(parser));
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+	}
+
+	public void testHandsEachJobToHandler() throws IOException {
+		IdCollector collector = new IdCollector();
+		int count = JobsStreamParser.parse(json(
+				"{\"snapshotTime\":1,\"other\":{\"jobs\":[{\"id\":\"x\"}]},"
+				+ "\"jobs\":[{\"id\":\"1\",\"pes\":[{\"id\":\"5\"}]},{\"name\":\"n\",\"id\":\"2\"}],\"after\":[1,2]}"),
+				collector);
+		assertEquals(2, count);
+		assertEquals(2, collector.ids.size());
+		assertEquals("1", collector.ids.get(0));
+		assertEquals("2", collector.ids.get(1));
+	}
+
+	public void testNoJobs() throws IOException {
+		assertEquals(0, JobsStreamParser.parse(json("{\"jobs\":[]}"), new IdCollector()));
+		assertEquals(0, JobsStreamParser.parse(json("{\"jobs\":null}"), new IdCollector()));
+		assertEquals(0, JobsStreamParser.parse(json("{}"), new IdCollector()));
+	}
+
+	public void testRejectsDocumentThatIsNotAnObject() throws IOException {
+		try {
+			JobsStreamParser.parse(json("[1,2]"), new IdCollector());
+			fail("Expected JsonParseException");
+		} catch (JsonParseException e) {
+			// expected
+		}
+	}
+
+	public void testReadStringTreatsJsonNullAsNull() throws IOException {
+		final List<String> values = new ArrayList<String>();
+		JobsStreamParser.parse(json("{\"jobs\":[{\"id\":null}]}"), new JobsStreamParser.JobHandler() {
+			public void handleJob(JsonParser parser) throws IOException {
+				parser.nextToken();
+				parser.nextToken();
+				values.add(JobsStreamParser.readString(parser));
+				parser.nextToken();
+			}
+		});
+		assertEquals(1, values.size());
+		assertNull(values.get(0));
+	}
+}
@@ -0,0 +1,162 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+public class MetricAggregationTest extends TestCase {
+
+	private static MetricAggregation.JobAggregation forRules(String... rules) {
+		List<MetricAggregation.Rule> parsed = new ArrayList<MetricAggregation.Rule>();
+		for (String rule : rules) {
+			parsed.add(MetricAggregation.Rule.parse(rule));
+		}
+		MetricAggregation aggregation = new MetricAggregation();
+		aggregation.setRules(parsed);
+		assertTrue(aggregation.isEnabled());
+		return aggregation.forJob();
+	}
+
+	private static void addOperatorIp(MetricAggregation.JobAggregation job, String metric, long value, String kind) {
+		job.add(StreamsObjectType.OPERATOR_INPUTPORT, metric, value,
+				"dom", "inst", "job", "host1", "1", "op", kind, "In");
+	}
+
+	private static MetricAggregation.Aggregate only(MetricAggregation.JobAggregation job) {
+		assertEquals(1, job.getAggregates().size());
+		return job.getAggregates().iterator().next();
+	}
+
+	public void testFunctions() {
+		String[] functions = { "sum", "min", "max", "avg", "count" };
+		double[] expected = { 12, 2, 6, 4, 3 };
+		for (int i = 0; i < functions.length; i++) {
+			MetricAggregation.JobAggregation job = forRules(functions[i] + ":operator_ip:queueSize");
+			addOperatorIp(job, "queueSize", 2, "A");
+			addOperatorIp(job, "queueSize", 6, "A");
+			addOperatorIp(job, "queueSize", 4, "B");
+			MetricAggregation.Aggregate aggregate = only(job);
+			assertEquals(functions[i] + "_queueSize", aggregate.getName());
+			assertNull(aggregate.getGroupBy());
+			assertEquals(functions[i], expected[i], aggregate.getValue(), 0.0);
+		}
+	}
+
+	public void testGroupBy() {
+		MetricAggregation.JobAggregation job = forRules("sum:operator_inputport:nTuplesProcessed:operatorkind");
+		addOperatorIp(job, "nTuplesProcessed", 1, "A");
+		addOperatorIp(job, "nTuplesProcessed", 2, "B");
+		addOperatorIp(job, "nTuplesProcessed", 3, "A");
+		assertEquals(2, job.getAggregates().size());
+		for (MetricAggregation.Aggregate aggregate : job.getAggregates()) {
+			assertEquals("operatorkind", aggregate.getGroupBy());
+			assertEquals("A".equals(aggregate.getGroup()) ? 4 : 2, aggregate.getValue(), 0.0);
+		}
+	}
+
+	public void testGroupByLabels() {
+		MetricAggregation.JobAggregation job = forRules("max:pe:nCpuMilliseconds:resource, peid");
+		job.add(StreamsObjectType.PE, "nCpuMilliseconds", 5, "dom", "inst", "job", "host1", "7");
+		MetricAggregation.Aggregate aggregate = only(job);
+		assertEquals("resource,peid", aggregate.getGroupBy());
+		assertEquals("host1,7", aggregate.getGroup());
+	}
+
+	public void testEachMatchingMetricOnItsOwn() {
+		MetricAggregation.JobAggregation job = forRules("sum:operator_ip:/n(Tuples|Bytes)Processed/");
+		addOperatorIp(job, "nTuplesProcessed", 1, "A");
+		addOperatorIp(job, "nBytesProcessed", 10, "A");
+		addOperatorIp(job, "queueSize", 100, "A");
+		assertEquals(2, job.getAggregates().size());
+	}
+
+	public void testOnlyRuleType() {
+		MetricAggregation.JobAggregation job = forRules("sum:operator_ip:*");
+		job.add(StreamsObjectType.OPERATOR, "nTuplesProcessed", 1, "dom", "inst", "job", "host1", "1", "op", "A");
+		job.add(StreamsObjectType.JOB, "health", 1, "dom", "inst", "job");
+		assertTrue(job.getAggregates().isEmpty());
+	}
+
+	public void testParseInvalid() {
+		assertInvalid("sum:pe");
+		assertInvalid("median:pe:*");
+		assertInvalid("sum:job:*");
+		assertInvalid("sum:nothing:*");
+		assertInvalid("sum:pe:/(/");
+		assertInvalid("sum:pe:*:jobname");
+		assertInvalid("sum:pe:*:unknown");
+	}
+
+	public void testBuiltInAggregatesRejected() {
+		assertInvalid("max:pe_op_connection:congestionFactor");
+		assertInvalid("avg:pe_outputport_connection:congestion*");
+		assertInvalid("sum:pe_op_connection:*");
+		// other functions, grouped rules and other types do not collide
+		MetricAggregation.Rule.parse("count:pe_op_connection:congestionFactor");
+		MetricAggregation.Rule.parse("max:pe_op_connection:congestionFactor:resource");
+		MetricAggregation.Rule.parse("max:pe_op_connection:nTuples*");
+		MetricAggregation.Rule.parse("max:pe:*");
+	}
+
+	public void testRulesExportingTheSameSeriesRejected() {
+		assertCollide("sum:pe_ip:nTuplesProcessed", "sum:operator_ip:nTuplesProcessed");
+		assertCollide("max:operator:*", "max:operator:queue*");
+		assertCollide("max:operator:queue*", "max:operator:*Size");
+		assertCollide("sum:pe_ip:n?uplesProcessed:resource", "sum:operator_ip:nTuples*:resource");
+		assertCollide("sum:pe_ip:/n.*/", "sum:operator_ip:nTuplesProcessed");
+		assertCollide("sum:pe_ip:/n.*/", "sum:operator_ip:/q.*/");
+		// other functions, other group by labels or metrics that can not overlap
+		forRules("sum:pe_ip:nTuplesProcessed", "max:operator_ip:nTuplesProcessed",
+				"sum:operator_ip:nTuplesProcessed:operatorkind", "sum:operator:queue*",
+				"sum:operator_op:nTuplesSubmitted", "count:pe_ip:/n.*/", "count:operator_ip:queueSize");
+	}
+
+	public void testRulesReplaced() {
+		MetricAggregation aggregation = new MetricAggregation();
+		assertFalse(aggregation.isEnabled());
+		aggregation.setRules(Arrays.asList(MetricAggregation.Rule.parse("sum:pe:*")));
+		MetricAggregation.JobAggregation before = aggregation.forJob();
+		aggregation.setRules(new ArrayList<MetricAggregation.Rule>());
+		assertFalse(aggregation.isEnabled());
+		// a job aggregation keeps the rules it started with
+		before.add(StreamsObjectType.PE, "nCpuMilliseconds", 5, "dom", "inst", "job", "host1", "7");
+		assertEquals(1, before.getAggregates().size());
+	}
+
+	private void assertCollide(String earlier, String later) {
+		try {
+			forRules(earlier, later);
+			fail("accepted " + earlier + " with " + later);
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains(earlier));
+		}
+	}
+
+	private void assertInvalid(String text) {
+		try {
+			MetricAggregation.Rule.parse(text);
+			fail("accepted " + text);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
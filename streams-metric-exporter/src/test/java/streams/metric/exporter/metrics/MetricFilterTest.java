@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+public class MetricFilterTest extends TestCase {
+
+	public void testMatchAnything() {
+		assertNull(MetricFilter.compilePattern(""));
+		assertNull(MetricFilter.compilePattern("*"));
+	}
+
+	public void testGlob() {
+		assertTrue(MetricFilter.compilePattern("n*").matcher("nTuplesProcessed").matches());
+		assertTrue(MetricFilter.compilePattern("n*Processed").matcher("nTuplesProcessed").matches());
+		assertTrue(MetricFilter.compilePattern("job_?").matcher("job_1").matches());
+		assertFalse(MetricFilter.compilePattern("job_?").matcher("job_12").matches());
+		assertFalse(MetricFilter.compilePattern("nTuples").matcher("nTuplesProcessed").matches());
+	}
+
+	public void testGlobQuotesRegexCharacters() {
+		assertTrue(MetricFilter.compilePattern("a.b*").matcher("a.bc").matches());
+		assertFalse(MetricFilter.compilePattern("a.b*").matcher("axbc").matches());
+		assertTrue(MetricFilter.compilePattern("(x)+").matcher("(x)+").matches());
+	}
+
+	public void testRegex() {
+		assertTrue(MetricFilter.compilePattern("/n(Tuples|Bytes).*/").matcher("nBytesSubmitted").matches());
+		assertFalse(MetricFilter.compilePattern("/n(Tuples|Bytes).*/").matcher("nFinalPunctsQueued").matches());
+		// a single slash is a glob
+		assertTrue(MetricFilter.compilePattern("/").matcher("/").matches());
+		try {
+			MetricFilter.compilePattern("/(/");
+			fail("invalid regex accepted");
+		} catch (PatternSyntaxException e) {
+			// expected
+		}
+	}
+
+	public void testParseRule() {
+		MetricFilter.Rule rule = MetricFilter.Rule.parse(" deny:operator_inputport:* ");
+		assertEquals("deny:operator_inputport:*", rule.getText());
+		assertTrue(rule.matches(StreamsObjectType.OPERATOR_INPUTPORT, "nTuplesProcessed", "job"));
+		assertFalse(rule.matches(StreamsObjectType.OPERATOR, "nTuplesProcessed", "job"));
+	}
+
+	public void testParseRuleByMetricPrefix() {
+		MetricFilter.Rule rule = MetricFilter.Rule.parse("allow:pe_op_connection:congestionFactor:prod_*");
+		assertTrue(rule.matches(StreamsObjectType.PE_OUTPUTPORT_CONNECTION, "congestionFactor", "prod_1"));
+		assertFalse(rule.matches(StreamsObjectType.PE_OUTPUTPORT_CONNECTION, "congestionFactor", "test_1"));
+		assertFalse(rule.matches(StreamsObjectType.PE_OUTPUTPORT_CONNECTION, "congestionFactor", null));
+		assertFalse(rule.matches(StreamsObjectType.PE_OUTPUTPORT_CONNECTION, "nTuplesTransmitted", "prod_1"));
+	}
+
+	public void testParseAnyType() {
+		MetricFilter.Rule rule = MetricFilter.Rule.parse("deny:*:nBytes*");
+		assertTrue(rule.matches(StreamsObjectType.PE, "nBytesQueued", null));
+		assertTrue(rule.matches(StreamsObjectType.OPERATOR_OUTPUTPORT, "nBytesSubmitted", "job"));
+	}
+
+	public void testParseInvalid() {
+		assertInvalid("deny:pe");
+		assertInvalid("drop:pe:*");
+		assertInvalid("deny:nothing:*");
+		assertInvalid("deny:pe:/(/");
+	}
+
+	public void testFirstMatchingRuleDecides() {
+		MetricFilter filter = new MetricFilter();
+		assertFalse(filter.isEnabled());
+		filter.setRules(Arrays.asList(MetricFilter.Rule.parse("allow:pe:nCpuMilliseconds"),
+				MetricFilter.Rule.parse("deny:pe:*")));
+		assertTrue(filter.isEnabled());
+		MetricFilter.JobFilter jobFilter = filter.forJob("job");
+		assertTrue(jobFilter.accept(StreamsObjectType.PE, "nCpuMilliseconds"));
+		assertFalse(jobFilter.accept(StreamsObjectType.PE, "nResidentMemoryConsumption"));
+		assertFalse(jobFilter.accept(StreamsObjectType.PE, "nResidentMemoryConsumption"));
+		assertTrue(jobFilter.accept(StreamsObjectType.OPERATOR, "nTuplesProcessed"));
+		assertEquals(1, filter.getRules().get(0).getKept());
+		assertEquals(2, filter.getRules().get(1).getDropped());
+		assertEquals(1, filter.getDefaultRule().getKept());
+	}
+
+	public void testAllowsDoesNotCount() {
+		MetricFilter filter = new MetricFilter();
+		filter.setRules(Arrays.asList(MetricFilter.Rule.parse("deny:pe:*")));
+		MetricFilter.JobFilter jobFilter = filter.forJob("job");
+		assertFalse(jobFilter.allows(StreamsObjectType.PE, "nCpuMilliseconds"));
+		assertTrue(jobFilter.allows(StreamsObjectType.OPERATOR, "nTuplesProcessed"));
+		assertEquals(0, filter.getRules().get(0).getDropped());
+		assertEquals(0, filter.getDefaultRule().getKept());
+	}
+
+	public void testJobFilterFollowsRules() {
+		MetricFilter filter = new MetricFilter();
+		MetricFilter.JobFilter jobFilter = filter.forJob("job");
+		assertTrue(jobFilter.isCurrent());
+		filter.setRules(Arrays.asList(MetricFilter.Rule.parse("deny:*:*")));
+		assertFalse(jobFilter.isCurrent());
+		assertFalse(filter.forJob("job").accept(StreamsObjectType.JOB, "health"));
+	}
+
+	private void assertInvalid(String text) {
+		try {
+			MetricFilter.Rule.parse(text);
+			fail("accepted " + text);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,159 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class MetricLabelIndexTest extends TestCase {
+
+	/* Exporter that only indexes, records the metrics removed from the index */
+	private static class IndexOnlyExporter extends MetricsExporter {
+		final List<Metric> removed = new ArrayList<Metric>();
+
+		public void createStreamsMetric(String metricName, StreamsObjectType type, String description) {
+		}
+
+		public Metric getStreamsMetric(String metricName, StreamsObjectType type, String... labelValues) {
+			return null;
+		}
+
+		public void removeStreamsMetric(String metricName, StreamsObjectType type, String... labelValues) {
+		}
+
+		public void removeStreamsMetric(Metric metric) {
+		}
+
+		public void removeAllChildStreamsMetrics(String... labelValues) {
+		}
+
+		protected void metricRemovedFromIndex(Metric m) {
+			removed.add(m);
+		}
+
+		Metric metric(String name, String... labelValues) {
+			return new Metric(name, Arrays.asList(labelValues)) {
+				public void set(double val) {
+				}
+			};
+		}
+	}
+
+	private IndexOnlyExporter exporter;
+	private MetricsExporter.MetricLabelIndex index;
+
+	protected void setUp() {
+		exporter = new IndexOnlyExporter();
+		index = exporter.getMetricIndex();
+	}
+
+	public void testAddAndGet() {
+		MetricsExporter.Metric m = exporter.metric("streams_job_status", "d", "i", "j");
+		index.add(m);
+		assertEquals(1, index.size());
+		assertSame(m, index.get("streams_job_status", "d", "i", "j"));
+		assertNull(index.get("streams_job_health", "d", "i", "j"));
+		assertNull(index.get("streams_job_status", "d", "i"));
+		assertNull(index.get("streams_job_status", "d", "x", "j"));
+	}
+
+	public void testAddIfAbsentReturnsIndexedMetric() {
+		final MetricsExporter.Metric first = exporter.metric("m", "d", "i");
+		final MetricsExporter.Metric second = exporter.metric("m", "d", "i");
+		assertSame(first, index.addIfAbsent("m", first.getLabelValues(), factory(first)));
+		assertSame(first, index.addIfAbsent("m", second.getLabelValues(), new MetricsExporter.MetricFactory() {
+			public MetricsExporter.Metric create() {
+				fail("Factory called for an indexed series");
+				return second;
+			}
+		}));
+		assertEquals(1, index.size());
+	}
+
+	public void testNullLabels() {
+		MetricsExporter.Metric m = exporter.metric("m", "d", null, "j");
+		index.add(m);
+		assertSame(m, index.get("m", "d", null, "j"));
+		index.remove(m);
+		assertNull(index.get("m", "d", null, "j"));
+		assertEquals(0, index.size());
+	}
+
+	public void testRemoveOnlyThatMetric() {
+		MetricsExporter.Metric a = exporter.metric("a", "d", "i", "j");
+		MetricsExporter.Metric b = exporter.metric("b", "d", "i", "j");
+		MetricsExporter.Metric child = exporter.metric("a", "d", "i", "j", "pe");
+		index.add(a, b, child);
+		index.remove(a);
+		assertNull(index.get("a", "d", "i", "j"));
+		assertSame(b, index.get("b", "d", "i", "j"));
+		assertSame(child, index.get("a", "d", "i", "j", "pe"));
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList(a), exporter.removed);
+		assertTrue(a.isRemoved());
+		assertFalse(b.isRemoved());
+
+		// Removing a metric that is not indexed does nothing
+		index.remove(exporter.metric("x", "d", "i", "j"));
+		assertEquals(2, index.size());
+		assertEquals(1, exporter.removed.size());
+	}
+
+	public void testRemoveWithChildren() {
+		MetricsExporter.Metric job1 = exporter.metric("m", "d", "i", "j1");
+		MetricsExporter.Metric pe1 = exporter.metric("m", "d", "i", "j1", "r", "1");
+		MetricsExporter.Metric job2 = exporter.metric("m", "d", "i", "j2");
+		MetricsExporter.Metric instance = exporter.metric("m", "d", "i");
+		index.add(job1, pe1, job2, instance);
+
+		Set<MetricsExporter.Metric> removed = index.removeWithChildren("d", "i", "j1");
+		assertEquals(2, removed.size());
+		assertTrue(removed.contains(job1));
+		assertTrue(removed.contains(pe1));
+		assertTrue(pe1.isRemoved());
+		assertFalse(job2.isRemoved());
+		assertEquals(2, exporter.removed.size());
+		assertEquals(2, index.size());
+		assertSame(job2, index.get("m", "d", "i", "j2"));
+		assertSame(instance, index.get("m", "d", "i"));
+
+		assertTrue(index.removeWithChildren("d", "nope").isEmpty());
+		assertEquals(2, index.removeWithChildren().size());
+		assertEquals(0, index.size());
+	}
+
+	public void testReAddAfterRemove() {
+		MetricsExporter.Metric m = exporter.metric("m", "d", "i");
+		index.add(m);
+		index.removeWithChildren("d");
+		MetricsExporter.Metric again = exporter.metric("m", "d", "i");
+		assertSame(again, index.addIfAbsent("m", again.getLabelValues(), factory(again)));
+		assertSame(again, index.get("m", "d", "i"));
+	}
+
+	private static MetricsExporter.MetricFactory factory(final MetricsExporter.Metric m) {
+		return new MetricsExporter.MetricFactory() {
+			public MetricsExporter.Metric create() {
+				return m;
+			}
+		};
+	}
+}
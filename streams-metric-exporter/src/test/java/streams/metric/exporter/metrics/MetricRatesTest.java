@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+public class MetricRatesTest extends TestCase {
+
+	private static final long KEY = MetricRates.seriesKey(StreamsObjectType.PE, "nCpuMilliseconds", "dom", "inst", "job", "host1", "1");
+
+	public void testFirstSampleHasNoRate() {
+		MetricRates.Store store = new MetricRates.Store(0);
+		assertTrue(Double.isNaN(store.update(null, KEY, 100, 1000, 1)));
+		assertTrue(Double.isNaN(new MetricRates.Store(0).update(store, KEY + 1, 100, 1000, 1)));
+		assertEquals(1, store.size());
+	}
+
+	public void testRate() {
+		MetricRates.Store first = new MetricRates.Store(1);
+		first.update(null, KEY, 100, 1000, 1);
+		MetricRates.Store second = new MetricRates.Store(1);
+		assertEquals(50.0, second.update(first, KEY, 200, 3000, 1), 0.0);
+		MetricRates.Store third = new MetricRates.Store(1);
+		assertEquals(0.0, third.update(second, KEY, 200, 4000, 1), 0.0);
+	}
+
+	public void testRestartByLaunchCount() {
+		MetricRates.Store first = new MetricRates.Store(1);
+		first.update(null, KEY, 100, 1000, 1);
+		MetricRates.Store second = new MetricRates.Store(1);
+		// counter already grew past the old value, only the launch count shows the restart
+		assertTrue(Double.isNaN(second.update(first, KEY, 500, 2000, 2)));
+		MetricRates.Store third = new MetricRates.Store(1);
+		assertEquals(100.0, third.update(second, KEY, 600, 3000, 2), 0.0);
+	}
+
+	public void testRestartByValue() {
+		MetricRates.Store first = new MetricRates.Store(1);
+		first.update(null, KEY, 1000, 1000, 1);
+		MetricRates.Store second = new MetricRates.Store(1);
+		assertTrue(Double.isNaN(second.update(first, KEY, 10, 2000, 1)));
+		MetricRates.Store third = new MetricRates.Store(1);
+		assertEquals(10.0, third.update(second, KEY, 20, 3000, 1), 0.0);
+	}
+
+	public void testSameSampleAgain() {
+		MetricRates.Store first = new MetricRates.Store(1);
+		first.update(null, KEY, 100, 1000, 1);
+		MetricRates.Store second = new MetricRates.Store(1);
+		assertEquals(100.0, second.update(first, KEY, 200, 2000, 1), 0.0);
+
+		// not collected again since, keeps the baseline and the rate
+		MetricRates.Store third = new MetricRates.Store(1);
+		assertEquals(100.0, third.update(second, KEY, 200, 2000, 1), 0.0);
+		MetricRates.Store fourth = new MetricRates.Store(1);
+		assertEquals(100.0, fourth.update(third, KEY, 250, 1500, 1), 0.0);
+		MetricRates.Store fifth = new MetricRates.Store(1);
+		assertEquals(100.0, fifth.update(fourth, KEY, 300, 3000, 1), 0.0);
+	}
+
+	public void testGrow() {
+		MetricRates.Store first = new MetricRates.Store(0);
+		for (int i = 0; i < 1000; i++) {
+			first.update(null, i + 1, i, 1000, 1);
+		}
+		assertEquals(1000, first.size());
+		MetricRates.Store second = new MetricRates.Store(0);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(1000.0, second.update(first, i + 1, i + 1000, 2000, 1), 0.0);
+		}
+		assertEquals(1000, second.size());
+	}
+
+	public void testSeriesKey() {
+		assertEquals(KEY, MetricRates.seriesKey(StreamsObjectType.PE, "nCpuMilliseconds", "dom", "inst", "job", "host1", "1"));
+		assertFalse(KEY == MetricRates.seriesKey(StreamsObjectType.PE, "nCpuMilliseconds", "dom", "inst", "job", "host11", ""));
+		assertFalse(KEY == MetricRates.seriesKey(StreamsObjectType.OPERATOR, "nCpuMilliseconds", "dom", "inst", "job", "host1", "1"));
+		assertFalse(0 == MetricRates.seriesKey(StreamsObjectType.PE, "x"));
+	}
+
+	public void testIsRated() {
+		MetricRates rates = new MetricRates();
+		assertFalse(rates.isEnabled());
+		assertFalse(rates.isRated("nTuplesProcessed"));
+		rates.setPatterns(Arrays.asList(Pattern.compile("nTuples.*"), Pattern.compile("nCpuMilliseconds")));
+		assertTrue(rates.isEnabled());
+		assertTrue(rates.isRated("nTuplesProcessed"));
+		assertTrue(rates.isRated("nCpuMilliseconds"));
+		assertFalse(rates.isRated("queueSize"));
+		rates.setPatterns(Arrays.asList((Pattern) null));
+		assertTrue(rates.isRated("queueSize"));
+	}
+}
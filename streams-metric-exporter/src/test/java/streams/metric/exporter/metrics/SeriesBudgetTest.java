@@ -0,0 +1,236 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.metrics;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+public class SeriesBudgetTest extends TestCase {
+
+	private static void ask(SeriesBudget budget, StreamsObjectType type, int series) {
+		for (int i = 0; i < series; i++) {
+			budget.admit(type);
+		}
+	}
+
+	private static long[] series(StreamsObjectType type, long count, Object... more) {
+		long[] series = new long[StreamsObjectType.values().length];
+		series[type.ordinal()] = count;
+		for (int i = 0; i < more.length; i += 2) {
+			series[((StreamsObjectType)more[i]).ordinal()] = ((Number)more[i + 1]).longValue();
+		}
+		return series;
+	}
+
+	public void testNoLimit() {
+		SeriesBudget budget = new SeriesBudget(0, null);
+		assertFalse(budget.isEnabled());
+		budget.startRefresh();
+		ask(budget, StreamsObjectType.OPERATOR_INPUTPORT, 1000);
+		budget.startRefresh();
+		assertEquals(0, budget.getDropLevel());
+		assertTrue(budget.admit(StreamsObjectType.OPERATOR_INPUTPORT));
+	}
+
+	public void testFirstRefreshOverBudgetStaysWithinLimit() {
+		SeriesBudget budget = new SeriesBudget(10, null);
+		budget.startRefresh(series(StreamsObjectType.PE, 3,
+				StreamsObjectType.OPERATOR, 6, StreamsObjectType.OPERATOR_INPUTPORT, 8));
+		assertEquals(1, budget.getDropLevel());
+		// the ports asked for first are still the ones dropped
+		ask(budget, StreamsObjectType.OPERATOR_INPUTPORT, 8);
+		ask(budget, StreamsObjectType.OPERATOR, 6);
+		ask(budget, StreamsObjectType.PE, 3);
+		assertEquals(9, budget.getAdmitted());
+		assertEquals(8, budget.getDropped());
+	}
+
+	public void testRefusedOnceLimitReached() {
+		SeriesBudget budget = new SeriesBudget(10, null);
+		// asks for more than expected
+		budget.startRefresh(series(StreamsObjectType.OPERATOR, 5));
+		ask(budget, StreamsObjectType.OPERATOR, 20);
+		assertEquals(10, budget.getAdmitted());
+		assertEquals(10, budget.getDropped());
+		assertTrue(budget.admit(StreamsObjectType.JOB));
+	}
+
+	public void testDropsLowestRankFirst() {
+		SeriesBudget budget = new SeriesBudget(10, null);
+		budget.startRefresh();
+		ask(budget, StreamsObjectType.JOB, 2);
+		ask(budget, StreamsObjectType.PE, 3);
+		ask(budget, StreamsObjectType.OPERATOR, 4);
+		ask(budget, StreamsObjectType.OPERATOR_OUTPUTPORT, 5);
+
+		budget.startRefresh();
+		// ports (rank 1) dropped, 9 series remain
+		assertEquals(1, budget.getDropLevel());
+		assertFalse(budget.admit(StreamsObjectType.OPERATOR_OUTPUTPORT));
+		assertFalse(budget.admit(StreamsObjectType.OPERATOR_INPUTPORT));
+		assertTrue(budget.admit(StreamsObjectType.OPERATOR));
+		assertTrue(budget.admit(StreamsObjectType.PE));
+		assertEquals(2, budget.getAdmitted());
+		assertEquals(2, budget.getDropped());
+	}
+
+	public void testDropLevelFollowsDemand() {
+		SeriesBudget budget = new SeriesBudget(10, null);
+		budget.startRefresh();
+		ask(budget, StreamsObjectType.OPERATOR, 20);
+		budget.startRefresh();
+		assertEquals(2, budget.getDropLevel());
+		// dropped series are still asked for, the level holds while demand does
+		ask(budget, StreamsObjectType.OPERATOR, 20);
+		budget.startRefresh();
+		assertEquals(2, budget.getDropLevel());
+		ask(budget, StreamsObjectType.OPERATOR, 5);
+		budget.startRefresh();
+		assertEquals(0, budget.getDropLevel());
+	}
+
+	public void testJobSeriesNeverDropped() {
+		SeriesBudget budget = new SeriesBudget(1, null);
+		budget.startRefresh();
+		ask(budget, StreamsObjectType.JOB, 5);
+		ask(budget, StreamsObjectType.PE, 5);
+		budget.startRefresh();
+		assertEquals(5, budget.getDropLevel());
+		assertTrue(budget.admit(StreamsObjectType.JOB));
+		assertFalse(budget.admit(StreamsObjectType.PE));
+	}
+
+	public void testTypesComeBackWithRoomToSpare() {
+		SeriesBudget budget = new SeriesBudget(10, null);
+		budget.startRefresh(series(StreamsObjectType.PE, 2, StreamsObjectType.OPERATOR, 9));
+		assertEquals(2, budget.getDropLevel());
+		// fits, but not with a tenth to spare
+		budget.startRefresh(series(StreamsObjectType.PE, 2, StreamsObjectType.OPERATOR, 8));
+		assertEquals(2, budget.getDropLevel());
+		budget.startRefresh(series(StreamsObjectType.PE, 2, StreamsObjectType.OPERATOR, 7));
+		assertEquals(0, budget.getDropLevel());
+	}
+
+	public void testAdmittedDoesNotDependOnOrder() {
+		SeriesBudget first = new SeriesBudget(5, null);
+		SeriesBudget second = new SeriesBudget(5, null);
+		long[] expected = series(StreamsObjectType.PE, 2, StreamsObjectType.OPERATOR, 6);
+		first.startRefresh(expected);
+		second.startRefresh(expected);
+		ask(first, StreamsObjectType.PE, 2);
+		ask(first, StreamsObjectType.OPERATOR, 6);
+		ask(second, StreamsObjectType.OPERATOR, 6);
+		ask(second, StreamsObjectType.PE, 2);
+		assertEquals(2, first.getAdmitted());
+		assertEquals(2, second.getAdmitted());
+	}
+
+	public void testParentPlannedForAllJobs() {
+		SeriesBudget instance = new SeriesBudget(10, null);
+		SeriesBudget job1 = new SeriesBudget(0, instance);
+		SeriesBudget job2 = new SeriesBudget(0, instance);
+		long[] jobSeries = series(StreamsObjectType.PE, 2, StreamsObjectType.OPERATOR, 6);
+		instance.startRefresh(series(StreamsObjectType.PE, 4, StreamsObjectType.OPERATOR, 12));
+		job1.startRefresh(jobSeries);
+		job2.startRefresh(jobSeries);
+		assertEquals(2, job1.getDropLevel());
+		ask(job2, StreamsObjectType.OPERATOR, 6);
+		ask(job2, StreamsObjectType.PE, 2);
+		ask(job1, StreamsObjectType.PE, 2);
+		ask(job1, StreamsObjectType.OPERATOR, 6);
+		assertEquals(2, job1.getAdmitted());
+		assertEquals(2, job2.getAdmitted());
+		assertEquals(4, instance.getAdmitted());
+	}
+
+	public void testParentDropsForAllJobs() {
+		SeriesBudget instance = new SeriesBudget(10, null);
+		SeriesBudget job1 = new SeriesBudget(0, instance);
+		SeriesBudget job2 = new SeriesBudget(0, instance);
+		assertTrue(job1.isEnabled());
+		instance.startRefresh();
+		job1.startRefresh();
+		job2.startRefresh();
+		ask(job1, StreamsObjectType.OPERATOR, 8);
+		ask(job2, StreamsObjectType.OPERATOR, 8);
+		assertEquals(16, instance.getAdmitted());
+
+		instance.startRefresh();
+		job1.startRefresh();
+		assertEquals(2, instance.getDropLevel());
+		assertEquals(2, job1.getDropLevel());
+		assertFalse(job1.admit(StreamsObjectType.OPERATOR));
+		assertTrue(job1.admit(StreamsObjectType.PE));
+		assertEquals(1, instance.getDropped());
+		assertEquals(1, instance.getAdmitted());
+	}
+
+	public void testOutOfCycleRefreshNotCountedByParent() {
+		SeriesBudget instance = new SeriesBudget(10, null);
+		SeriesBudget job = new SeriesBudget(0, instance);
+		instance.startRefresh();
+		job.startRefresh();
+		ask(job, StreamsObjectType.OPERATOR, 8);
+
+		// notification refreshes the job again before the next cycle
+		job.startOutOfCycleRefresh();
+		ask(job, StreamsObjectType.OPERATOR, 8);
+		assertEquals(8, job.getAdmitted());
+		assertEquals(8, instance.getAdmitted());
+
+		instance.startRefresh();
+		assertEquals(0, instance.getDropLevel());
+		job.startRefresh();
+		ask(job, StreamsObjectType.OPERATOR, 8);
+		assertEquals(8, instance.getAdmitted());
+	}
+
+	public void testOutOfCycleRefreshUsesParentDropLevel() {
+		SeriesBudget instance = new SeriesBudget(5, null);
+		SeriesBudget job = new SeriesBudget(0, instance);
+		instance.startRefresh();
+		job.startRefresh();
+		ask(job, StreamsObjectType.OPERATOR, 8);
+		instance.startRefresh();
+
+		job.startOutOfCycleRefresh();
+		assertFalse(job.admit(StreamsObjectType.OPERATOR));
+		assertTrue(job.admit(StreamsObjectType.PE));
+		assertEquals(0, instance.getDropped());
+	}
+
+	public void testReadmit() {
+		SeriesBudget instance = new SeriesBudget(10, null);
+		SeriesBudget job = new SeriesBudget(0, instance);
+		instance.startRefresh();
+		job.startRefresh();
+		ask(job, StreamsObjectType.PE, 3);
+		long[] demand = job.getDemand();
+		assertEquals(3, demand[StreamsObjectType.PE.ordinal()]);
+
+		instance.startRefresh();
+		job.startRefresh();
+		job.readmit(demand, 3);
+		assertEquals(3, job.getAdmitted());
+		assertEquals(3, instance.getAdmitted());
+		assertEquals(3, instance.getDemand()[StreamsObjectType.PE.ordinal()]);
+
+		job.startOutOfCycleRefresh();
+		job.readmit(demand, 3);
+		assertEquals(3, instance.getAdmitted());
+	}
+}
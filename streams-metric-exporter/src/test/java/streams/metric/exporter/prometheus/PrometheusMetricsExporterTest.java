@@ -0,0 +1,81 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.prometheus;
+
+import io.prometheus.client.CollectorRegistry;
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricsExporter;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+public class PrometheusMetricsExporterTest extends TestCase {
+
+	private static final String[] LABELS = StreamsObjectType.INSTANCE.metricLabelNames();
+
+	private static Double sample(String name, String... labelValues) {
+		return CollectorRegistry.defaultRegistry.getSampleValue(name, LABELS, labelValues);
+	}
+
+	public void testHandleIsResolvedOnce() {
+		MetricsExporter exporter = PrometheusMetricsExporter.getInstance();
+		MetricsExporter.Metric m = exporter.getStreamsMetric("testHandle", StreamsObjectType.INSTANCE, "d", "i");
+		assertSame(m, exporter.getStreamsMetric("testHandle", StreamsObjectType.INSTANCE, "d", "i"));
+		m.set(3);
+		assertEquals(3.0, sample("streams_instance_testHandle", "d", "i"));
+	}
+
+	public void testRemovedSeriesIsExposedAgainWhenRecreated() {
+		MetricsExporter exporter = PrometheusMetricsExporter.getInstance();
+		MetricsExporter.Metric m = exporter.getStreamsMetric("testRemove", StreamsObjectType.INSTANCE, "d", "i");
+		m.set(1);
+		exporter.removeStreamsMetric(m);
+		assertNull(sample("streams_instance_testRemove", "d", "i"));
+
+		MetricsExporter.Metric again = exporter.getStreamsMetric("testRemove", StreamsObjectType.INSTANCE, "d", "i");
+		assertNotSame(m, again);
+		again.set(2);
+		assertEquals(2.0, sample("streams_instance_testRemove", "d", "i"));
+	}
+
+	public void testRemoveAllChildren() {
+		MetricsExporter exporter = PrometheusMetricsExporter.getInstance();
+		exporter.getStreamsMetric("testChildren", StreamsObjectType.INSTANCE, "dc", "i1").set(1);
+		exporter.getStreamsMetric("testChildren", StreamsObjectType.INSTANCE, "dc", "i2").set(2);
+		exporter.removeAllChildStreamsMetrics("dc", "i1");
+		assertNull(sample("streams_instance_testChildren", "dc", "i1"));
+		assertEquals(2.0, sample("streams_instance_testChildren", "dc", "i2"));
+	}
+
+	/* Concurrent removals never leave an indexed handle whose child is no longer in the gauge */
+	public void testConcurrentGetAndRemove() throws InterruptedException {
+		final MetricsExporter exporter = PrometheusMetricsExporter.getInstance();
+		Thread remover = new Thread() {
+			public void run() {
+				for (int i = 0; i < 20000; i++) {
+					exporter.removeAllChildStreamsMetrics("dr");
+				}
+			}
+		};
+		remover.start();
+		while (remover.isAlive()) {
+			exporter.getStreamsMetric("testRace", StreamsObjectType.INSTANCE, "dr", "i");
+		}
+		remover.join();
+		MetricsExporter.Metric m = exporter.getStreamsMetric("testRace", StreamsObjectType.INSTANCE, "dr", "i");
+		m.set(5);
+		assertEquals(5.0, sample("streams_instance_testRace", "dr", "i"));
+	}
+}
@@ -0,0 +1,58 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.rest.resources;
+
+import junit.framework.TestCase;
+
+public class PrometheusResourceTest extends TestCase {
+
+	public void testAcceptsGzip() {
+		assertTrue(PrometheusResource.acceptsGzip("gzip"));
+		assertTrue(PrometheusResource.acceptsGzip("deflate, GZIP"));
+		assertTrue(PrometheusResource.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+		assertTrue(PrometheusResource.acceptsGzip(" gzip ; q=0.5 "));
+	}
+
+	public void testDoesNotAcceptGzip() {
+		assertFalse(PrometheusResource.acceptsGzip(null));
+		assertFalse(PrometheusResource.acceptsGzip(""));
+		assertFalse(PrometheusResource.acceptsGzip("identity"));
+		assertFalse(PrometheusResource.acceptsGzip("x-gzip2, deflate"));
+		// q=0 means not acceptable, an invalid weight is not trusted
+		assertFalse(PrometheusResource.acceptsGzip("gzip;q=0"));
+		assertFalse(PrometheusResource.acceptsGzip("gzip;q=0.000"));
+		assertFalse(PrometheusResource.acceptsGzip("gzip;q=high"));
+	}
+
+	public void testMatchesETag() {
+		String etag = "\"17a-5\"";
+		assertTrue(PrometheusResource.matchesETag(etag, etag));
+		assertTrue(PrometheusResource.matchesETag("W/" + etag, etag));
+		assertTrue(PrometheusResource.matchesETag("\"17a-4\", " + etag, etag));
+		assertTrue(PrometheusResource.matchesETag("*", etag));
+	}
+
+	public void testDoesNotMatchETag() {
+		String etag = "\"17a-5\"";
+		assertFalse(PrometheusResource.matchesETag(null, etag));
+		assertFalse(PrometheusResource.matchesETag("", etag));
+		assertFalse(PrometheusResource.matchesETag("\"17a-4\"", etag));
+		// The gzip and plain encodings of a generation have their own tags
+		assertFalse(PrometheusResource.matchesETag("\"17a-5-gzip\"", etag));
+		assertFalse(PrometheusResource.matchesETag("17a-5", etag));
+	}
+}
@@ -0,0 +1,47 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker;
+
+import junit.framework.TestCase;
+
+public class RefreshSchedulerTest extends TestCase {
+
+	public void testNoSlotPassed() {
+		assertEquals(0, RefreshScheduler.slotsPassed(10000, 9999, 1000));
+		assertEquals(0, RefreshScheduler.slotsPassed(10000, 0, 1000));
+	}
+
+	public void testSlotReachedExactly() {
+		assertEquals(1, RefreshScheduler.slotsPassed(10000, 10000, 1000));
+	}
+
+	public void testSlotsSkipped() {
+		// cycle due at 10000 ended at 12500, slots 10000, 11000 and 12000 are gone
+		assertEquals(3, RefreshScheduler.slotsPassed(10000, 12500, 1000));
+		assertEquals(1, RefreshScheduler.slotsPassed(10000, 10999, 1000));
+		assertEquals(2, RefreshScheduler.slotsPassed(10000, 11000, 1000));
+	}
+
+	public void testNextSlotStaysOnGrid() {
+		long period = 1000;
+		long nextSlot = 10000;
+		long end = 12500;
+		nextSlot += RefreshScheduler.slotsPassed(nextSlot, end, period) * period;
+		assertEquals(13000, nextSlot);
+		assertTrue(nextSlot > end);
+	}
+}
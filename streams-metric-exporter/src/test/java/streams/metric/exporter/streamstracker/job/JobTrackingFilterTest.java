@@ -0,0 +1,88 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.job;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class JobTrackingFilterTest extends TestCase {
+
+	private static JobTrackingFilter filter(String... entries) {
+		JobTrackingFilter.Entry[] parsed = new JobTrackingFilter.Entry[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			parsed[i] = JobTrackingFilter.Entry.parse(entries[i]);
+		}
+		return new JobTrackingFilter(Arrays.asList(parsed));
+	}
+
+	public void testNoEntriesTracksAll() {
+		JobTrackingFilter filter = new JobTrackingFilter(Collections.<JobTrackingFilter.Entry>emptyList());
+		assertFalse(filter.appliesTo("inst"));
+		assertTrue(filter.isTracked("inst", "job", null));
+	}
+
+	public void testByName() {
+		JobTrackingFilter filter = filter("name=prod_*");
+		assertTrue(filter.appliesTo("inst"));
+		assertTrue(filter.isTracked("inst", "prod_1", "default"));
+		assertFalse(filter.isTracked("inst", "test_1", "default"));
+		assertFalse(filter.isTracked("inst", null, "default"));
+	}
+
+	public void testByGroup() {
+		JobTrackingFilter filter = filter("group=/billing|orders/");
+		assertTrue(filter.isTracked("inst", "job", "orders"));
+		assertFalse(filter.isTracked("inst", "job", "default"));
+		assertFalse(filter.isTracked("inst", "job", null));
+	}
+
+	public void testAnyEntryMatches() {
+		JobTrackingFilter filter = filter("name=a*", "group=g1");
+		assertTrue(filter.isTracked("inst", "abc", "g2"));
+		assertTrue(filter.isTracked("inst", "xyz", "g1"));
+		assertFalse(filter.isTracked("inst", "xyz", "g2"));
+	}
+
+	public void testPerInstance() {
+		JobTrackingFilter filter = filter("prod:name=keep", "dom:prod2:group=*");
+		assertTrue(filter.appliesTo("prod"));
+		assertTrue(filter.appliesTo("dom:prod2"));
+		assertFalse(filter.appliesTo("test"));
+		assertTrue(filter.isTracked("prod", "keep", null));
+		assertFalse(filter.isTracked("prod", "other", null));
+		// instances without entries track all jobs
+		assertTrue(filter.isTracked("test", "other", null));
+	}
+
+	public void testParseInvalid() {
+		assertInvalid("prod_*");
+		assertInvalid("=prod_*");
+		assertInvalid("job=prod_*");
+		assertInvalid("inst:name=/(/");
+	}
+
+	private void assertInvalid(String text) {
+		try {
+			JobTrackingFilter.Entry.parse(text);
+			fail("accepted " + text);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,196 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.metrics.MetricsExporter;
+import streams.metric.exporter.metrics.MetricsExporter.Metric;
+import streams.metric.exporter.metrics.MetricsExporter.StreamsObjectType;
+
+public class SeriesHandlesTest extends TestCase {
+
+	/* Exporter keeping the values of indexed series, counts lookups */
+	private static class ValueExporter extends MetricsExporter {
+		final Map<String, Double> values = new HashMap<String, Double>();
+		int lookups = 0;
+
+		public void createStreamsMetric(String metricName, StreamsObjectType type, String description) {
+		}
+
+		public Metric getStreamsMetric(final String metricName, StreamsObjectType type, String... labelValues) {
+			lookups++;
+			final List<String> labelList = Arrays.asList(labelValues.clone());
+			return addStreamsMetricToIndexIfAbsent(metricName, labelList, new MetricFactory() {
+				public Metric create() {
+					return new Metric(metricName, labelList) {
+						public void set(double val) {
+							values.put(key(name, labelValues), val);
+						}
+					};
+				}
+			});
+		}
+
+		public void removeStreamsMetric(String metricName, StreamsObjectType type, String... labelValues) {
+		}
+
+		public void removeStreamsMetric(Metric metric) {
+			removeStreamsMetricFromIndex(metric);
+		}
+
+		public void removeAllChildStreamsMetrics(String... labelValues) {
+			removeAllChildMetricsFromIndex(labelValues);
+		}
+
+		protected void metricRemovedFromIndex(Metric m) {
+			values.remove(key(m.getName(), m.getLabelValues()));
+		}
+
+		static String key(String name, List<String> labelValues) {
+			return name + labelValues;
+		}
+
+		Double value(String name, String... labelValues) {
+			return values.get(key(name, Arrays.asList(labelValues)));
+		}
+	}
+
+	private ValueExporter exporter;
+	private SeriesHandles handles;
+
+	protected void setUp() {
+		exporter = new ValueExporter();
+		handles = new SeriesHandles(exporter);
+	}
+
+	private void set(String metricName, double value, String... labelValues) {
+		handles.set(handles.next(metricName, StreamsObjectType.PE, labelValues), value);
+	}
+
+	private int finish() {
+		return handles.finish(Collections.<Metric>emptySet());
+	}
+
+	public void testSameShapeSetsHandlesWithoutLookup() {
+		handles.start();
+		set("nCpuMilliseconds", 1, "d", "i", "j", "r", "1");
+		set("nMemoryConsumption", 2, "d", "i", "j", "r", "1");
+		assertEquals(2, finish());
+		assertEquals(2, exporter.lookups);
+
+		handles.start();
+		set("nCpuMilliseconds", 3, "d", "i", "j", "r", "1");
+		set("nMemoryConsumption", 4, "d", "i", "j", "r", "1");
+		assertEquals(2, finish());
+		assertEquals(2, exporter.lookups);
+		assertEquals(3.0, exporter.value("nCpuMilliseconds", "d", "i", "j", "r", "1"));
+		assertEquals(4.0, exporter.value("nMemoryConsumption", "d", "i", "j", "r", "1"));
+	}
+
+	public void testSeriesNotSetAreRemoved() {
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		set("b", 2, "d", "i", "j", "r", "1");
+		set("c", 3, "d", "i", "j", "r", "1");
+		finish();
+
+		// b is gone, c moves up a position and is looked up again
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		set("c", 3, "d", "i", "j", "r", "1");
+		assertEquals(2, finish());
+		assertNull(exporter.value("b", "d", "i", "j", "r", "1"));
+		assertEquals(3.0, exporter.value("c", "d", "i", "j", "r", "1"));
+		assertEquals(2, exporter.getMetricIndex().size());
+	}
+
+	public void testDroppedSeriesIsRemoved() {
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		finish();
+
+		// Visited but not set, e.g. over the series budget
+		handles.start();
+		handles.next("a", StreamsObjectType.PE, new String[] { "d", "i", "j", "r", "1" });
+		assertEquals(0, finish());
+		assertEquals(0, exporter.getMetricIndex().size());
+	}
+
+	public void testRatesHaveTheirOwnHandle() {
+		handles.start();
+		SeriesHandles.Series series = handles.next("nTuplesProcessed", StreamsObjectType.PE, new String[] { "d", "i", "j", "r", "1" });
+		handles.set(series, 100);
+		handles.setRate(series, 5);
+		assertEquals(2, finish());
+		assertEquals(5.0, exporter.value("rate_nTuplesProcessed", "d", "i", "j", "r", "1"));
+
+		// No rate this time, only the rate series is removed
+		handles.start();
+		handles.set(handles.next("nTuplesProcessed", StreamsObjectType.PE, new String[] { "d", "i", "j", "r", "1" }), 200);
+		assertEquals(1, finish());
+		assertNull(exporter.value("rate_nTuplesProcessed", "d", "i", "j", "r", "1"));
+		assertEquals(200.0, exporter.value("nTuplesProcessed", "d", "i", "j", "r", "1"));
+	}
+
+	public void testRemovedHandleIsResolvedAgain() {
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		finish();
+
+		exporter.removeAllChildStreamsMetrics("d", "i", "j");
+		handles.start();
+		set("a", 2, "d", "i", "j", "r", "1");
+		finish();
+		assertEquals(2, exporter.lookups);
+		assertEquals(2.0, exporter.value("a", "d", "i", "j", "r", "1"));
+	}
+
+	public void testSeriesLeftByUnfinishedRefreshAreRemoved() {
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		set("b", 2, "d", "i", "j", "r", "1");
+		finish();
+
+		// Refresh fails after setting a new series
+		handles.start();
+		set("x", 1, "d", "i", "j", "r", "1");
+
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		finish();
+		List<String> left = new ArrayList<String>(exporter.values.keySet());
+		assertEquals(Arrays.asList("a[d, i, j, r, 1]"), left);
+	}
+
+	public void testSeriesSetElsewhereIsKept() {
+		handles.start();
+		set("a", 1, "d", "i", "j", "r", "1");
+		finish();
+		Metric a = exporter.getStreamsMetric("a", StreamsObjectType.PE, "d", "i", "j", "r", "1");
+
+		handles.start();
+		assertEquals(0, handles.finish(Collections.singleton(a)));
+		assertEquals(1.0, exporter.value("a", "d", "i", "j", "r", "1"));
+	}
+}
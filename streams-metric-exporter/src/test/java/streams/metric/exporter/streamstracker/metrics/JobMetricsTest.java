@@ -0,0 +1,107 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.json.JobsStreamParser;
+
+public class JobMetricsTest extends TestCase {
+
+	static List<JobMetrics> parse(String json) throws IOException {
+		final List<JobMetrics> jobs = new ArrayList<JobMetrics>();
+		JobsStreamParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+				new JobsStreamParser.JobHandler() {
+					public void handleJob(JsonParser parser) throws IOException {
+						jobs.add(JobMetrics.read(parser));
+					}
+				});
+		return jobs;
+	}
+
+	private static final String JOB = "{\"jobs\":[{\"id\":\"7\",\"unknown\":{\"a\":[1]},\"pes\":[{"
+			+ "\"id\":\"12\","
+			+ "\"metrics\":[{\"name\":\"nCpuMilliseconds\",\"value\":250,\"lastChangeObserved\":3},{\"name\":\"nMemoryConsumption\",\"value\":1024}],"
+			+ "\"inputPorts\":[{\"indexWithinPE\":0,\"metrics\":[{\"name\":\"nTuplesProcessed\",\"value\":10}]}],"
+			+ "\"outputPorts\":[{\"indexWithinPE\":1,\"metrics\":[],\"connections\":[{\"id\":\"c1\",\"metrics\":[{\"name\":\"congestionFactor\",\"value\":4}]}]}],"
+			+ "\"operators\":[{\"name\":\"op\",\"metrics\":[{\"name\":\"custom\",\"value\":-3}],"
+			+ "\"inputPorts\":[{\"indexWithinOperator\":2,\"metrics\":[{\"name\":\"queueSize\",\"value\":9}]}],"
+			+ "\"outputPorts\":null}]"
+			+ "}]}]}";
+
+	public void testReadsJobHierarchy() throws IOException {
+		List<JobMetrics> jobs = parse(JOB);
+		assertEquals(1, jobs.size());
+		JobMetrics job = jobs.get(0);
+		assertEquals("7", job.getId());
+		assertEquals(1, job.getPes().size());
+
+		PeMetrics pe = job.getPes().get(0);
+		assertEquals("12", pe.getId());
+		assertEquals(2, pe.getMetrics().size());
+		assertEquals("nCpuMilliseconds", pe.getMetrics().getName(0));
+		assertEquals(250, pe.getMetrics().getValue(0));
+		assertEquals("nMemoryConsumption", pe.getMetrics().getName(1));
+		assertEquals(1024, pe.getMetrics().getValue(1));
+
+		assertEquals(1, pe.getInputPorts().size());
+		assertEquals(0, pe.getInputPorts().get(0).getIndex());
+		assertEquals(10, pe.getInputPorts().get(0).getMetrics().getValue(0));
+		assertTrue(pe.getInputPorts().get(0).getConnections().isEmpty());
+
+		PortMetrics output = pe.getOutputPorts().get(0);
+		assertEquals(1, output.getIndex());
+		assertSame(MetricValues.EMPTY, output.getMetrics());
+		assertEquals("c1", output.getConnections().get(0).getId());
+		assertEquals(4, output.getConnections().get(0).getMetrics().getValue(0));
+
+		OperatorMetrics op = pe.getOperators().get(0);
+		assertEquals("op", op.getName());
+		assertEquals(-3, op.getMetrics().getValue(0));
+		assertEquals(2, op.getInputPorts().get(0).getIndex());
+		assertEquals("queueSize", op.getInputPorts().get(0).getMetrics().getName(0));
+		assertTrue(op.getOutputPorts().isEmpty());
+	}
+
+	public void testMissingArraysAreEmpty() throws IOException {
+		JobMetrics job = parse("{\"jobs\":[{\"id\":\"1\"},{\"id\":\"2\",\"pes\":[{\"id\":\"3\"}]}]}").get(1);
+		PeMetrics pe = job.getPes().get(0);
+		assertSame(MetricValues.EMPTY, pe.getMetrics());
+		assertTrue(pe.getInputPorts().isEmpty());
+		assertTrue(pe.getOutputPorts().isEmpty());
+		assertTrue(pe.getOperators().isEmpty());
+	}
+
+	public void testMetricValuesGrowBeyondInitialCapacity() throws IOException {
+		StringBuilder metrics = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			metrics.append(i == 0 ? "" : ",").append("{\"name\":\"m").append(i).append("\",\"value\":").append(i * 10).append('}');
+		}
+		MetricValues values = parse("{\"jobs\":[{\"id\":\"1\",\"pes\":[{\"id\":\"3\",\"metrics\":[" + metrics + "]}]}]}")
+				.get(0).getPes().get(0).getMetrics();
+		assertEquals(20, values.size());
+		assertEquals("m19", values.getName(19));
+		assertEquals(190, values.getValue(19));
+	}
+}
@@ -0,0 +1,56 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class FingerprintTest extends TestCase {
+
+	public void testSameInputSameHash() {
+		assertEquals(new Fingerprint().add("job").add(3L).get(), new Fingerprint().add("job").add(3L).get());
+	}
+
+	public void testOrderMatters() {
+		assertFalse(new Fingerprint().add(1L).add(2L).get() == new Fingerprint().add(2L).add(1L).get());
+	}
+
+	public void testStringsDoNotRunTogether() {
+		assertFalse(new Fingerprint().add("ab").add("c").get() == new Fingerprint().add("a").add("bc").get());
+	}
+
+	public void testNullDiffersFromEmpty() {
+		assertFalse(new Fingerprint().add((String) null).get() == new Fingerprint().add("").get());
+	}
+
+	public void testHighCharacterBits() {
+		assertFalse(new Fingerprint().add("\u0141").get() == new Fingerprint().add("A").get());
+	}
+
+	public void testEqualSnapshotsMatch() throws IOException {
+		String json = JobSnapshotTest.job("running", 1, "spl.relational::Functor");
+		assertEquals(JobSnapshotTest.parse(json).getFingerprint(), JobSnapshotTest.parse(json).getFingerprint());
+	}
+
+	public void testChangedSnapshotsDiffer() throws IOException {
+		long fingerprint = JobSnapshotTest.parse(JobSnapshotTest.job("running", 1, "spl.relational::Functor")).getFingerprint();
+		assertFalse(fingerprint == JobSnapshotTest.parse(JobSnapshotTest.job("running", 2, "spl.relational::Functor")).getFingerprint());
+		assertFalse(fingerprint == JobSnapshotTest.parse(JobSnapshotTest.job("restarting", 1, "spl.relational::Functor")).getFingerprint());
+		assertFalse(fingerprint == JobSnapshotTest.parse(JobSnapshotTest.job("running", 1, "spl.relational::Filter")).getFingerprint());
+	}
+}
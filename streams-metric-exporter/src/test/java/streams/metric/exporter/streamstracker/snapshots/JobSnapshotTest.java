@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package streams.metric.exporter.streamstracker.snapshots;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import junit.framework.TestCase;
+import streams.metric.exporter.json.JobsStreamParser;
+
+public class JobSnapshotTest extends TestCase {
+
+	static JobSnapshot parse(String json) throws IOException {
+		final List<JobSnapshot> jobs = new ArrayList<JobSnapshot>();
+		JobsStreamParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+				new JobsStreamParser.JobHandler() {
+					public void handleJob(JsonParser parser) throws IOException {
+						jobs.add(JobSnapshot.read(parser));
+					}
+				});
+		assertEquals(1, jobs.size());
+		return jobs.get(0);
+	}
+
+	static String job(String peStatus, long launchCount, String operatorKind) {
+		return "{\"jobs\":[{\"id\":\"7\",\"name\":\"MyJob\",\"instance\":\"StreamsInstance\",\"status\":\"running\","
+				+ "\"health\":\"healthy\",\"submitTime\":1500000000000,\"applicationName\":\"skipped\",\"pes\":[{"
+				+ "\"id\":\"12\",\"resource\":\"host1\",\"status\":\"" + peStatus + "\",\"health\":\"healthy\","
+				+ "\"launchCount\":" + launchCount + ",\"operators\":[{\"name\":\"op\",\"operatorKind\":\"" + operatorKind + "\","
+				+ "\"inputPorts\":[{\"indexWithinOperator\":0,\"name\":\"In\"},{\"indexWithinOperator\":1,\"name\":\"In2\"}],"
+				+ "\"outputPorts\":[{\"indexWithinOperator\":0,\"name\":\"Out\"}]}]"
+				+ "}]}]}";
+	}
+
+	public void testReadsJobHierarchy() throws IOException {
+		JobSnapshot job = parse(job("running", 2, "spl.relational::Functor"));
+		assertEquals("7", job.getId());
+		assertEquals("MyJob", job.getName());
+		assertEquals("StreamsInstance", job.getInstance());
+		assertEquals("running", job.getStatus());
+		assertEquals("healthy", job.getHealth());
+		assertEquals(1500000000000L, job.getSubmitTime());
+
+		PeSnapshot pe = job.getPes().get(0);
+		assertEquals("12", pe.getId());
+		assertEquals("host1", pe.getResource());
+		assertEquals(2, pe.getLaunchCount());
+
+		OperatorSnapshot op = pe.getOperators().get(0);
+		assertEquals("op", op.getName());
+		assertEquals("spl.relational::Functor", op.getOperatorKind());
+		assertEquals("In", op.getInputPortName(0));
+		assertEquals("In2", op.getInputPortName(1));
+		assertEquals("Out", op.getOutputPortName(0));
+		assertNull(op.getOutputPortName(5));
+	}
+
+	public void testMissingArraysAreEmpty() throws IOException {
+		JobSnapshot job = parse("{\"jobs\":[{\"id\":\"1\",\"pes\":[{\"id\":\"2\"}]}]}");
+		assertNull(job.getName());
+		assertTrue(job.getPes().get(0).getOperators().isEmpty());
+	}
+
+	static String shallow(String jobStatus, String peStatus, long launchCount) {
+		return "{\"jobs\":[{\"id\":\"7\",\"status\":\"" + jobStatus + "\",\"pes\":[{"
+				+ "\"id\":\"12\",\"status\":\"" + peStatus + "\",\"launchCount\":" + launchCount + "}]}]}";
+	}
+
+	public void testMatchesShallow() throws IOException {
+		JobSnapshot job = parse(job("running", 2, "spl.relational::Functor"));
+		assertTrue(job.matchesShallow(parse(shallow("running", "running", 2))));
+		// attributes missing from the shallow snapshot are not compared
+		assertTrue(job.matchesShallow(parse("{\"jobs\":[{\"id\":\"7\",\"pes\":[{\"id\":\"12\",\"launchCount\":2}]}]}")));
+		// no PEs, only the job attributes are compared
+		assertTrue(job.matchesShallow(parse("{\"jobs\":[{\"id\":\"7\",\"status\":\"running\"}]}")));
+	}
+
+	public void testShallowChangesDoNotMatch() throws IOException {
+		JobSnapshot job = parse(job("running", 2, "spl.relational::Functor"));
+		assertFalse(job.matchesShallow(parse(shallow("cancelling", "running", 2))));
+		assertFalse(job.matchesShallow(parse(shallow("running", "restarting", 2))));
+		assertFalse(job.matchesShallow(parse(shallow("running", "running", 3))));
+		assertFalse(job.matchesShallow(parse("{\"jobs\":[{\"id\":\"7\",\"pes\":[{\"id\":\"13\",\"launchCount\":2}]}]}")));
+		assertFalse(job.matchesShallow(parse("{\"jobs\":[{\"id\":\"7\",\"pes\":[{\"id\":\"12\",\"launchCount\":2},"
+				+ "{\"id\":\"13\",\"launchCount\":1}]}]}")));
+	}
+}